@@ -0,0 +1,104 @@
+package benchmark;
+
+import completion.CodeCraftersShellCompleter;
+import environment.CodeCraftersShellEnvironment;
+import org.jline.reader.Candidate;
+import org.jline.reader.ParsedLine;
+import org.jline.reader.impl.LineReaderImpl;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.TerminalBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TAB press ({@link CodeCraftersShellCompleter#complete}) against a synthetic $PATH of 10 directories,
+ * for a narrow prefix (a handful of matches) and a broad one (a whole directory matches).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class CompleterBenchmark {
+
+    private static final int DIRECTORIES = 10;
+
+    @Param({"1000", "10000"})
+    private int filesPerDirectory;
+
+    private SyntheticPath syntheticPath;
+    private Terminal terminal;
+    private LineReaderImpl reader;
+    private CodeCraftersShellCompleter completer;
+
+    @Setup
+    public void setup() throws Exception {
+        syntheticPath = new SyntheticPath(DIRECTORIES, filesPerDirectory);
+        syntheticPath.install();
+        terminal = TerminalBuilder.builder()
+                .system(false)
+                .dumb(true)
+                .streams(InputStream.nullInputStream(), OutputStream.nullOutputStream())
+                .build();
+        reader = new LineReaderImpl(terminal);
+        completer = new CodeCraftersShellCompleter(CodeCraftersShellEnvironment.getEnvironment());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        terminal.close();
+        syntheticPath.close();
+    }
+
+    @Benchmark
+    public List<Candidate> narrowPrefix() {
+        return complete("d3tool12");
+    }
+
+    @Benchmark
+    public List<Candidate> broadPrefix() {
+        return complete("d3");
+    }
+
+    private List<Candidate> complete(String word) {
+        List<Candidate> candidates = new ArrayList<>();
+        completer.complete(reader, new WordLine(word), candidates);
+        return candidates;
+    }
+
+    /**
+     * Line made of the single word being completed
+     */
+    private record WordLine(String word) implements ParsedLine {
+        @Override
+        public int wordCursor() {
+            return word.length();
+        }
+
+        @Override
+        public int wordIndex() {
+            return 0;
+        }
+
+        @Override
+        public List<String> words() {
+            return List.of(word);
+        }
+
+        @Override
+        public String line() {
+            return word;
+        }
+
+        @Override
+        public int cursor() {
+            return word.length();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import shell.CommandParseCache;
+import shell.CommandParseResult;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of realistic command lines, uncached and through the parse cache
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ParserBenchmark {
+
+    @Param({"simple", "quoted", "pipeline"})
+    private String lineKind;
+
+    private String line;
+    private CommandParseCache parseCache;
+
+    @Setup
+    public void setup() {
+        line = switch (lineKind) {
+            case "simple" -> "ls -la /usr/local/bin";
+            case "quoted" -> "echo \"hello   world\" 'single \\quoted' plain\\ escaped \"a \\\"b\\\" c\"'d'";
+            case "pipeline" -> "cat \"/var/log/app log.txt\" | grep -v \"DEBUG|TRACE\" | sort -k2 -t' ' | head -n 20 2>> errors.log > \"out file.txt\"";
+            default -> throw new IllegalArgumentException(lineKind);
+        };
+        parseCache = new CommandParseCache(CommandParseCache.DEFAULT_SIZE);
+    }
+
+    @Benchmark
+    public CommandParseResult parse() {
+        return CommandParseResult.parse(line);
+    }
+
+    @Benchmark
+    public CommandParseResult parseCached() {
+        return parseCache.parse(line);
+    }
+}
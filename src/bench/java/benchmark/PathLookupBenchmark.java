@@ -0,0 +1,65 @@
+package benchmark;
+
+import environment.CodeCraftersShellEnvironment;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CodeCraftersShellEnvironment#commandPath(String)} against a synthetic $PATH of 10 directories:
+ * hits in the first and last directory, a repeated miss (negative cache) and misses that never repeat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class PathLookupBenchmark {
+
+    private static final int DIRECTORIES = 10;
+
+    @Param({"1000", "10000"})
+    private int filesPerDirectory;
+
+    private SyntheticPath syntheticPath;
+    private String firstDirectoryCommand;
+    private String lastDirectoryCommand;
+    private long missCounter;
+
+    @Setup
+    public void setup() throws Exception {
+        syntheticPath = new SyntheticPath(DIRECTORIES, filesPerDirectory);
+        syntheticPath.install();
+        firstDirectoryCommand = SyntheticPath.commandName(0, filesPerDirectory / 2);
+        lastDirectoryCommand = SyntheticPath.commandName(DIRECTORIES - 1, filesPerDirectory / 2);
+        CodeCraftersShellEnvironment.getEnvironment().refreshPathCommands();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        syntheticPath.close();
+    }
+
+    @Benchmark
+    public Optional<Path> hitFirstDirectory() {
+        return CodeCraftersShellEnvironment.commandPath(firstDirectoryCommand);
+    }
+
+    @Benchmark
+    public Optional<Path> hitLastDirectory() {
+        return CodeCraftersShellEnvironment.commandPath(lastDirectoryCommand);
+    }
+
+    @Benchmark
+    public Optional<Path> repeatedMiss() {
+        return CodeCraftersShellEnvironment.commandPath("no-such-command");
+    }
+
+    @Benchmark
+    public Optional<Path> distinctMiss() {
+        return CodeCraftersShellEnvironment.commandPath("no-such-command-" + missCounter++);
+    }
+}
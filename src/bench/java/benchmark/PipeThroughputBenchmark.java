@@ -0,0 +1,67 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import shell.ByteRingPipe;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the pipes connecting in-JVM pipeline stages: one thread writes 16 MiB in chunks of
+ * {@code chunkSize} bytes while the benchmark thread reads it all back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class PipeThroughputBenchmark {
+
+    private static final int BYTES_PER_OPERATION = 16 * 1024 * 1024;
+
+    @Param({"128", "8192"})
+    private int chunkSize;
+
+    private byte[] writeChunk;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setup() {
+        writeChunk = new byte[chunkSize];
+        readBuffer = new byte[8192];
+    }
+
+    @Benchmark
+    public long pipedStreams() throws Exception {
+        PipedOutputStream outputStream = new PipedOutputStream();
+        PipedInputStream inputStream = new PipedInputStream(outputStream);
+        return transfer(inputStream, outputStream);
+    }
+
+    @Benchmark
+    public long byteRingPipe() throws Exception {
+        ByteRingPipe pipe = new ByteRingPipe();
+        return transfer(pipe.inputStream(), pipe.outputStream());
+    }
+
+    private long transfer(InputStream inputStream, OutputStream outputStream) throws Exception {
+        Thread writer = Thread.ofPlatform().start(() -> {
+            try (outputStream) {
+                for (int written = 0; written < BYTES_PER_OPERATION; written += chunkSize) {
+                    outputStream.write(writeChunk, 0, chunkSize);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        long read = 0;
+        int n;
+        while ((n = inputStream.read(readBuffer)) != -1) {
+            read += n;
+        }
+        writer.join();
+        return read;
+    }
+}
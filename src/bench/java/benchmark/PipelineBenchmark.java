@@ -0,0 +1,72 @@
+package benchmark;
+
+import environment.CodeCraftersShellEnvironment;
+import org.openjdk.jmh.annotations.*;
+import shell.CodeCraftersPipelineExecutor;
+import shell.CommandParseResult;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a two stage pipeline moving 16 MiB, for every combination of builtin and external stages.
+ * Benchmark-only builtins {@code produce} (writes the bytes) and {@code consume} (drains its input)
+ * stand in for in-JVM stages; {@code head -c} and {@code cat} are the external ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class PipelineBenchmark {
+
+    private static final int BYTES_PER_OPERATION = 16 * 1024 * 1024;
+
+    private CodeCraftersShellEnvironment environment;
+
+    @Setup
+    public void setup() {
+        environment = CodeCraftersShellEnvironment.getEnvironment();
+        environment.registerBuiltinCommand("produce", (_, outputStream, _, _) -> {
+            byte[] chunk = new byte[8192];
+            Arrays.fill(chunk, (byte) 'x');
+            for (int written = 0; written < BYTES_PER_OPERATION; written += chunk.length) {
+                outputStream.write(chunk);
+            }
+        });
+        environment.registerBuiltinCommand("consume", (inputStream, _, _, _) -> {
+            byte[] buffer = new byte[8192];
+            while (inputStream.read(buffer) != -1) {
+                // drain
+            }
+        });
+    }
+
+    @Benchmark
+    public void builtinToBuiltin() throws Exception {
+        run("produce | consume");
+    }
+
+    @Benchmark
+    public void builtinToExternal() throws Exception {
+        run("produce | cat");
+    }
+
+    @Benchmark
+    public void externalToBuiltin() throws Exception {
+        run("head -c " + BYTES_PER_OPERATION + " /dev/zero | consume");
+    }
+
+    @Benchmark
+    public void externalToExternal() throws Exception {
+        run("head -c " + BYTES_PER_OPERATION + " /dev/zero | cat");
+    }
+
+    private void run(String line) throws Exception {
+        new CodeCraftersPipelineExecutor(environment, CommandParseResult.parse(line).getPipelineCommands())
+                .executePipeline(InputStream.nullInputStream(), OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+    }
+}
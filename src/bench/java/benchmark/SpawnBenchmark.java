@@ -0,0 +1,51 @@
+package benchmark;
+
+import command.PosixSpawner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of starting a short-lived external command ({@code true}) and waiting for it to exit,
+ * with ProcessBuilder and with posix_spawn through {@link PosixSpawner}.
+ * A second fork with a pre-touched 4 GiB heap shows how much each one pays for a large JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED"})
+public class SpawnBenchmark {
+
+    @Param({"processBuilder", "posixSpawn"})
+    private String spawner;
+
+    private List<ProcessBuilder> pipeline;
+
+    @Setup
+    public void setup() {
+        if (spawner.equals("posixSpawn") && !PosixSpawner.isAvailable()) {
+            throw new IllegalStateException("posix_spawn isn't available on this platform");
+        }
+        pipeline = List.of(new ProcessBuilder("true")
+                .redirectInput(ProcessBuilder.Redirect.INHERIT)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD));
+    }
+
+    @Benchmark
+    public int spawnAndWait() throws Exception {
+        if (spawner.equals("posixSpawn")) {
+            return PosixSpawner.spawnPipeline(pipeline).getFirst().onExit().get();
+        }
+        return pipeline.getFirst().start().waitFor();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--enable-native-access=ALL-UNNAMED", "-Xms4g", "-Xmx4g", "-XX:+AlwaysPreTouch"})
+    public int spawnAndWaitLargeHeap() throws Exception {
+        return spawnAndWait();
+    }
+}
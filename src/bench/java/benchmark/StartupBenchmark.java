@@ -0,0 +1,84 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to first prompt: starts the assembled shell jar in interactive mode and measures until "$ " is printed.
+ * Compares a plain start with one using the AppCDS archive built by the appcds profile, and the deferred $PATH scan
+ * with one waited for before the first prompt (as before it moved to the background).
+ *
+ * Jar and archive locations default to the ones used by your_program.sh, override with
+ * -Dstartup.jar=... and -Dstartup.archive=...
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class StartupBenchmark {
+
+    private static final String BUILD_DIRECTORY = "/tmp/codecrafters-build-shell-java";
+
+    @Param({"off", "on"})
+    private String appCds;
+
+    @Param({"deferred", "eager"})
+    private String pathScan;
+
+    private List<String> command;
+
+    @Setup
+    public void setup() {
+        Path jar = Path.of(System.getProperty("startup.jar", BUILD_DIRECTORY + "/codecrafters-shell.jar"));
+        Path archive = Path.of(System.getProperty("startup.archive", BUILD_DIRECTORY + "/codecrafters-shell.jsa"));
+        if (!Files.exists(jar)) {
+            throw new IllegalStateException("shell jar not found, build it first: " + jar);
+        }
+
+        command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        if (appCds.equals("on")) {
+            if (!Files.exists(archive)) {
+                throw new IllegalStateException("AppCDS archive not found, build it with -Pappcds: " + archive);
+            }
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        if (pathScan.equals("eager")) {
+            command.add("-Dcodecrafters.shell.eagerPathScan=true");
+        }
+        command.addAll(List.of("--enable-preview", "--enable-native-access=ALL-UNNAMED", "-jar", jar.toString(), "-i"));
+    }
+
+    @Benchmark
+    public int timeToFirstPrompt() throws Exception {
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        try (InputStream stdout = process.getInputStream(); OutputStream stdin = process.getOutputStream()) {
+            awaitPrompt(stdout);
+            stdin.write("exit\n".getBytes());
+        }
+        return process.waitFor();
+    }
+
+    private static void awaitPrompt(InputStream stdout) throws IOException {
+        int previous = -1;
+        int c;
+        while ((c = stdout.read()) != -1) {
+            if (previous == '$' && c == ' ')
+                return;
+            previous = c;
+        }
+        throw new IllegalStateException("shell exited before printing a prompt");
+    }
+}
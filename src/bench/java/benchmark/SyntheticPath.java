@@ -0,0 +1,55 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Temporary $PATH of {@code directories} directories holding {@code filesPerDirectory} executables each,
+ * named {@code d<directory>tool<file>}.
+ */
+final class SyntheticPath implements AutoCloseable {
+
+    private final Path root;
+    private final List<Path> directories;
+
+    SyntheticPath(int directories, int filesPerDirectory) throws IOException {
+        this.root = Files.createTempDirectory("synthetic-path");
+        this.directories = new ArrayList<>(directories);
+        for (int d = 0; d < directories; d++) {
+            Path directory = Files.createDirectory(root.resolve("bin" + d));
+            for (int f = 0; f < filesPerDirectory; f++) {
+                File executable = Files.createFile(directory.resolve(commandName(d, f))).toFile();
+                executable.setExecutable(true);
+            }
+            this.directories.add(directory);
+        }
+    }
+
+    static String commandName(int directory, int file) {
+        return "d" + directory + "tool" + file;
+    }
+
+    /**
+     * Makes the shell environment use this $PATH
+     */
+    void install() {
+        System.setProperty("codecrafters.shell.path",
+                String.join(File.pathSeparator, directories.stream().map(Path::toString).toList()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        System.clearProperty("codecrafters.shell.path");
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
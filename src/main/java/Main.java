@@ -1,8 +1,16 @@
 import command.*;
-import completion.CodeCraftersShellCompleter;
 import environment.CodeCraftersShellEnvironment;
+import environment.HistoryFileWriter;
+import metrics.ShellMetrics;
 import shell.CodeCraftersShell;
 
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -18,6 +26,24 @@ public class Main {
         shellEnvironment.registerBuiltinCommand("type", new TypeCommand(shellEnvironment));
         shellEnvironment.registerBuiltinCommand("pwd", new PwdCommand(shellEnvironment));
         shellEnvironment.registerBuiltinCommand("cd", new CdCommand(shellEnvironment));
+        shellEnvironment.registerBuiltinCommand("jobs", new JobsCommand(shellEnvironment));
+        shellEnvironment.registerBuiltinCommand("wait", new WaitCommand(shellEnvironment));
+        shellEnvironment.registerBuiltinCommand("fg", new FgCommand(shellEnvironment));
+        shellEnvironment.registerBuiltinCommand("kill", new KillCommand(shellEnvironment));
+        shellEnvironment.registerBuiltinCommand("xargs", new XargsCommand(shellEnvironment));
+        shellEnvironment.registerBuiltinCommand("time", new TimeCommand(shellEnvironment));
+        shellEnvironment.registerBuiltinCommand("shellstat", new ShellStatCommand());
+        shellEnvironment.registerUtilityCommand("cat", new CatCommand(shellEnvironment));
+        shellEnvironment.registerUtilityCommand("head", new HeadCommand(shellEnvironment));
+        shellEnvironment.registerUtilityCommand("tail", new TailCommand(shellEnvironment));
+        shellEnvironment.registerUtilityCommand("wc", new WcCommand(shellEnvironment));
+        shellEnvironment.registerUtilityCommand("grep", new GrepCommand(shellEnvironment));
+        shellEnvironment.registerUtilityCommand("sort", new SortCommand(shellEnvironment));
+
+        // counters & latencies are written out on exit, if asked to
+        Optional.ofNullable(System.getenv("CODECRAFTERS_SHELL_METRICS_FILE"))
+                .map(Path::of)
+                .ifPresent(ShellMetrics::dumpOnExit);
 
         // if history env variable is set, then read into memory history file & then register it
         HistoryCommand historyCommand = new HistoryCommand(shellEnvironment);
@@ -31,14 +57,60 @@ public class Main {
         }
         shellEnvironment.registerBuiltinCommand("history", historyCommand);
 
-        // start repl here!
+        // batch mode: -c "cmd", a script file, or stdin that is not a terminal (unless -i) - no JLine, no history
         CodeCraftersShellEnvironment env = getEnvironment();
-        new CodeCraftersShell(env, new CodeCraftersShellCompleter(env)).repl();
+        boolean forceInteractive = args.length >= 1 && args[0].equals("-i");
+        if (args.length >= 1 && args[0].equals("-c")) {
+            if (args.length < 2) {
+                System.err.println("-c: option requires an argument");
+                System.exit(2);
+            }
+            new CodeCraftersShell(env).runBatch(new BufferedReader(new StringReader(args[1])));
+            return;
+        }
+        if (args.length >= 1 && !forceInteractive) {
+            try (BufferedReader scriptReader = Files.newBufferedReader(Path.of(args[0]))) {
+                new CodeCraftersShell(env).runBatch(scriptReader);
+            }
+            return;
+        }
+        Console console = System.console();
+        if (!forceInteractive && (console == null || !console.isTerminal())) {
+            // the script is read ahead from stdin, so commands get an empty stdin rather than a part of the script
+            new CodeCraftersShell(env).runBatch(new BufferedReader(
+                    Channels.newReader(Channels.newChannel(System.in), StandardCharsets.UTF_8),
+                    64 * 1024
+            ), InputStream.nullInputStream());
+            return;
+        }
 
-        // if history file exists, then write history to it on closing
+        // if history file is set, append lines to it as they are accepted (and flush what's left if killed)
+        HistoryFileWriter historyFileWriter = null;
         if (histFileOptional.isPresent()) {
-            boolean appendIfExists = Files.exists(Path.of(histFileOptional.get()));
-            historyCommand.writeHistoryToFile(appendIfExists, shellEnvironment.getHistoryCopy(), histFileOptional.get());
+            historyFileWriter = new HistoryFileWriter(
+                    shellEnvironment.getHistory(),
+                    Path.of(histFileOptional.get()),
+                    shellEnvironment.getHistory().endIndex(),
+                    shellEnvironment.getHistoryFileSize(),
+                    shellEnvironment.isHistoryEraseDups()
+            );
+            HistoryFileWriter writerToClose = historyFileWriter;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    writerToClose.close();
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                }
+            }));
+            shellEnvironment.setHistoryFileWriter(historyFileWriter);
+            historyFileWriter.start();
+        }
+
+        // start repl here!
+        new CodeCraftersShell(env).repl();
+
+        if (historyFileWriter != null) {
+            historyFileWriter.close();
         }
     }
 }
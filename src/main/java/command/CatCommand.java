@@ -0,0 +1,76 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Concatenates files (or stdin, for no files or {@code -}) to its output, without starting a process.
+ *
+ * Into a redirected file ({@code cat a b > c}) files are copied by the kernel with {@link FileChannel#transferTo},
+ * anywhere else they're written from memory-mapped windows. Options are left to the system cat.
+ */
+public class CatCommand implements CodeCraftersShellCommand {
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public CatCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        // no options are implemented, those of the system cat (-n, -A...) are left to it
+        if (Arrays.stream(args).anyMatch(UtilityFallback::isOption)
+                && UtilityFallback.execute(shellEnvironment, "cat", inputStream, outputStream, errorStream, args)) {
+            return;
+        }
+
+        PrintStream printStreamError = new PrintStream(errorStream);
+        try {
+            if (args.length == 0) {
+                catInput(inputStream, outputStream);
+            }
+            for (String arg : args) {
+                if (arg.equals("-")) {
+                    catInput(inputStream, outputStream);
+                    continue;
+                }
+
+                FileChannel channel;
+                try {
+                    channel = FileInput.open(shellEnvironment, arg);
+                } catch (IOException e) {
+                    outputStream.flush();
+                    printStreamError.println("cat: " + e.getMessage());
+                    continue;
+                }
+                try (channel) {
+                    FileInput.copy(channel, 0, Long.MAX_VALUE, outputStream);
+                }
+            }
+        } finally {
+            outputStream.flush();
+        }
+    }
+
+    private static void catInput(InputStream inputStream, OutputStream outputStream) throws IOException {
+        // redirected stdin is a file too
+        FileChannel channel = FileInput.channel(inputStream);
+        if (channel != null) {
+            FileInput.copy(channel, channel.position(), Long.MAX_VALUE, outputStream);
+            return;
+        }
+        FileInput.scan(inputStream, bytes -> {
+            FileInput.write(bytes, outputStream);
+            // whatever came in shows up right away (e.g. typed lines)
+            outputStream.flush();
+            return true;
+        });
+    }
+}
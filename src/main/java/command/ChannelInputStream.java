@@ -0,0 +1,50 @@
+package command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Stream reading a file opened by a redirection, which builtins can unwrap to get at the file itself
+ * (to map it, or seek in it) instead of reading through the stream.
+ *
+ * Closing the stream closes the channel.
+ */
+public final class ChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    public ChannelInputStream(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0)
+            return 0;
+        return channel.read(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Math.max(channel.size() - channel.position(), 0), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,45 @@
+package command;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Stream writing to a file opened by a redirection, which builtins can unwrap to get at the file itself
+ * (e.g. to {@link FileChannel#transferTo} into it, without copying through the JVM).
+ *
+ * Closing the stream closes the channel.
+ */
+public final class ChannelOutputStream extends OutputStream {
+
+    private final FileChannel channel;
+
+    public ChannelOutputStream(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,109 @@
+package command;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Targets of a command's stdin, stdout and stderr after its redirections, along with the files they opened.
+ *
+ * Builtins get streams over the opened files (which they can unwrap to the file's channel), external commands get
+ * the files handed to their process directly.
+ * Two descriptors duplicated from one another (e.g. by {@code 2>&1}) share the same target instance.
+ * Closing closes every opened file, including those of descriptors that aren't passed on.
+ */
+public final class CommandStreams implements Closeable {
+
+    public static final CommandStreams DEFAULT = new CommandStreams(
+            StreamTarget.INPUT, StreamTarget.OUTPUT, StreamTarget.ERROR, List.of()
+    );
+
+    private final StreamTarget input;
+    private final StreamTarget output;
+    private final StreamTarget error;
+    private final List<StreamTarget> openedTargets;
+
+    public CommandStreams(StreamTarget input, StreamTarget output, StreamTarget error, List<StreamTarget> openedTargets) {
+        this.input = input;
+        this.output = output;
+        this.error = error;
+        this.openedTargets = List.copyOf(openedTargets);
+    }
+
+    public StreamTarget getInput() {
+        return input;
+    }
+
+    public StreamTarget getOutput() {
+        return output;
+    }
+
+    public StreamTarget getError() {
+        return error;
+    }
+
+    /**
+     * Checks if streams are the ones the command is run with, i.e. there were no redirections
+     * @return true if nothing is redirected
+     */
+    public boolean isDefault() {
+        return input == StreamTarget.INPUT && output == StreamTarget.OUTPUT && error == StreamTarget.ERROR
+                && openedTargets.isEmpty();
+    }
+
+    /**
+     * Gets stream a builtin reads stdin from
+     * @param inputStream stdin the command is run with
+     * @return input stream
+     */
+    public InputStream input(InputStream inputStream) {
+        return input.getKind() == StreamTarget.Kind.FILE ? new ChannelInputStream(input.getChannel()) : inputStream;
+    }
+
+    /**
+     * Gets stream a builtin writes stdout to
+     * @param outputStream stdout the command is run with
+     * @param errorStream stderr the command is run with
+     * @return output stream
+     */
+    public OutputStream output(OutputStream outputStream, OutputStream errorStream) {
+        return outputStream(output, outputStream, errorStream);
+    }
+
+    /**
+     * Gets stream a builtin writes stderr to
+     * @param outputStream stdout the command is run with
+     * @param errorStream stderr the command is run with
+     * @return error stream
+     */
+    public OutputStream error(OutputStream outputStream, OutputStream errorStream) {
+        return outputStream(error, outputStream, errorStream);
+    }
+
+    private static OutputStream outputStream(StreamTarget target, OutputStream outputStream, OutputStream errorStream) {
+        return switch (target.getKind()) {
+            case OUTPUT -> outputStream;
+            case ERROR -> errorStream;
+            // streams over channels aren't closed by the command, the channel is closed with these streams
+            case FILE -> new ChannelOutputStream(target.getChannel());
+            case INPUT -> throw new IllegalStateException("stdin is not an output target");
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException closeException = null;
+        for (StreamTarget target : openedTargets) {
+            try {
+                target.close();
+            } catch (IOException e) {
+                if (closeException == null) closeException = e;
+            }
+        }
+        if (closeException != null) {
+            throw closeException;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package command;
+
+import java.io.PrintStream;
+
+/**
+ * Options of head & tail saying how much they output: {@code -n N} (or {@code -N}) lines, or {@code -c N} bytes.
+ * Options come before the files, values either attached ({@code -n5}) or as next arg ({@code -n 5}).
+ */
+final class CountOptions {
+
+    private static final long DEFAULT_LINES = 10;
+
+    private final boolean bytes;
+    private final long count;
+    private final int firstOperand;
+
+    private CountOptions(boolean bytes, long count, int firstOperand) {
+        this.bytes = bytes;
+        this.count = count;
+        this.firstOperand = firstOperand;
+    }
+
+    /**
+     * Parses options of a command
+     * @param command name of command, for error messages
+     * @param args arguments of command
+     * @param printStreamError where errors are printed
+     * @return options, or null if they're invalid (error was printed)
+     */
+    static CountOptions parse(String command, String[] args, PrintStream printStreamError) {
+        boolean bytes = false;
+        long count = DEFAULT_LINES;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-") && args[i].length() > 1; i++) {
+            if (args[i].equals("--")) { i++; break; }
+
+            char option = args[i].charAt(1);
+            String value;
+            if (Character.isDigit(option)) {
+                bytes = false;
+                value = args[i].substring(1);
+            } else if (option == 'n' || option == 'c') {
+                bytes = option == 'c';
+                value = args[i].length() > 2 ? args[i].substring(2) : i + 1 < args.length ? args[++i] : null;
+                if (value == null) {
+                    printStreamError.println(command + ": option requires an argument -- '" + option + "'");
+                    return null;
+                }
+            } else {
+                printStreamError.println(command + ": invalid option -- '" + option + "'");
+                return null;
+            }
+
+            try {
+                count = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                count = -1;
+            }
+            if (count < 0) {
+                printStreamError.println(command + ": invalid number of " + (bytes ? "bytes" : "lines") + ": '" + value + "'");
+                return null;
+            }
+        }
+        return new CountOptions(bytes, count, i);
+    }
+
+    /**
+     * Checks if args only use what these options implement. Anything else - other options ({@code tail -f}),
+     * counts that aren't plain numbers ({@code tail -n +5}, {@code head -n -5}, {@code -c 1K}) or options after
+     * the files - is left to the system utility
+     * @param args arguments of command
+     * @return true if supported
+     */
+    static boolean isSupported(String[] args) {
+        int i = 0;
+        for (; i < args.length && UtilityFallback.isOption(args[i]); i++) {
+            if (args[i].equals("--")) { i++; break; }
+
+            char option = args[i].charAt(1);
+            String value;
+            if (Character.isDigit(option)) {
+                value = args[i].substring(1);
+            } else if (option == 'n' || option == 'c') {
+                value = args[i].length() > 2 ? args[i].substring(2) : i + 1 < args.length ? args[++i] : null;
+            } else {
+                return false;
+            }
+            if (value == null || !value.matches("[0-9]+")) {
+                return false;
+            }
+        }
+        return !UtilityFallback.hasTrailingOption(args, i);
+    }
+
+    /**
+     * Checks if count is in bytes
+     * @return true for bytes, false for lines
+     */
+    boolean isBytes() {
+        return bytes;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets index of first arg after the options
+     * @return index of first file name
+     */
+    int getFirstOperand() {
+        return firstOperand;
+    }
+}
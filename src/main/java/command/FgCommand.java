@@ -0,0 +1,37 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+import environment.Job;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Optional;
+
+public class FgCommand implements CodeCraftersShellCommand {
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public FgCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        PrintStream printStream = new PrintStream(outputStream);
+        String spec = args.length > 0 ? args[0] : "%+";
+
+        Optional<Job> jobOptional = shellEnvironment.getJobTable().find(spec);
+        if (jobOptional.isEmpty()) {
+            new PrintStream(errorStream).println("fg: " + (args.length > 0 ? spec : "current") + ": no such job");
+            return;
+        }
+
+        // the job keeps its streams, so bringing it to the foreground means waiting for it
+        Job job = jobOptional.get();
+        printStream.println(job.getCommandLine());
+        printStream.flush();
+        job.await();
+        shellEnvironment.getJobTable().remove(job);
+    }
+}
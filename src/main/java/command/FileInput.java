@@ -0,0 +1,179 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reading of files (and stdin) for the builtins that work on file contents, like cat and wc.
+ *
+ * Files are read through their channel: regions of at least {@link #MAP_THRESHOLD} bytes are memory-mapped a window
+ * at a time, smaller ones (where setting up a mapping costs more than it saves) are read into a buffer.
+ * Whatever is past the size the file had when opened (e.g. files in /proc, which report size 0) is read too.
+ */
+final class FileInput {
+
+    static final int MAP_THRESHOLD = 64 * 1024;
+    static final int WINDOW_SIZE = 16 * 1024 * 1024;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Gets bytes of input a chunk at a time, until it has seen enough
+     */
+    @FunctionalInterface
+    interface Scanner {
+        /**
+         * @param bytes next bytes of input, from position to limit
+         * @return true to go on, false if no more input is needed
+         */
+        boolean scan(ByteBuffer bytes) throws IOException;
+    }
+
+    private FileInput() {}
+
+    /**
+     * Opens a file argument of a command for reading
+     * @param shellEnvironment environment, relative names are resolved against its current directory
+     * @param name file name as given
+     * @return open channel
+     * @throws IOException with a message ready to show the user, e.g. {@code x: No such file or directory}
+     */
+    static FileChannel open(CodeCraftersShellEnvironment shellEnvironment, String name) throws IOException {
+        Path file = Path.of(name);
+        if (!file.isAbsolute()) {
+            file = shellEnvironment.getCurrentDirectory().toPath().resolve(file);
+        }
+        if (Files.isDirectory(file)) {
+            throw new IOException(name + ": Is a directory");
+        }
+
+        try {
+            return FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new IOException(name + ": No such file or directory", e);
+        } catch (AccessDeniedException e) {
+            throw new IOException(name + ": Permission denied", e);
+        } catch (FileSystemException e) {
+            throw new IOException(name + ": " + (e.getReason() != null ? e.getReason() : e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Gets channel of a stream reading a redirected file
+     * @param inputStream stream a command reads
+     * @return channel, or null if stream isn't over a file
+     */
+    static FileChannel channel(InputStream inputStream) {
+        return inputStream instanceof ChannelInputStream channelInputStream ? channelInputStream.getChannel() : null;
+    }
+
+    /**
+     * Passes input to a scanner, through the file's channel if stream is over a redirected file
+     * @param inputStream stream to read
+     * @param scanner scanner to pass input to
+     * @throws IOException if reading fails
+     */
+    static void scan(InputStream inputStream, Scanner scanner) throws IOException {
+        FileChannel channel = channel(inputStream);
+        if (channel != null) {
+            scan(channel, channel.position(), scanner);
+            return;
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            if (n > 0 && !scanner.scan(ByteBuffer.wrap(buffer, 0, n))) return;
+        }
+    }
+
+    /**
+     * Passes a file to a scanner, from a position to its end
+     * @param channel channel of file
+     * @param position where to start
+     * @param scanner scanner to pass file to
+     * @throws IOException if reading fails
+     */
+    static void scan(FileChannel channel, long position, Scanner scanner) throws IOException {
+        long size = channel.size();
+        if (size - position >= MAP_THRESHOLD) {
+            while (position < size) {
+                int length = (int) Math.min(WINDOW_SIZE, size - position);
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+                if (!scanner.scan(window)) return;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        int n;
+        while ((n = channel.read(buffer.clear(), position)) != -1) {
+            position += n;
+            if (n > 0 && !scanner.scan(buffer.flip())) return;
+        }
+    }
+
+    /**
+     * Copies a region of a file to an output stream. Into a redirected file it goes by {@link FileChannel#transferTo},
+     * so the kernel copies it (copy_file_range/sendfile) without it passing through the JVM.
+     * @param channel channel of file
+     * @param position where region starts
+     * @param end where region ends, {@link Long#MAX_VALUE} for end of file
+     * @param outputStream stream to copy to
+     * @throws IOException if reading or writing fails
+     */
+    static void copy(FileChannel channel, long position, long end, OutputStream outputStream) throws IOException {
+        if (outputStream instanceof ChannelOutputStream channelOutputStream) {
+            FileChannel target = channelOutputStream.getChannel();
+            long transferEnd = Math.min(end, channel.size());
+            while (position < transferEnd) {
+                long n = channel.transferTo(position, transferEnd - position, target);
+                if (n <= 0) break; // file got shorter
+                position += n;
+            }
+            if (position >= end) return;
+        }
+
+        // anything else (or what's past the file's size) is written from the mapped windows or read buffers
+        long[] remaining = { end - position };
+        scan(channel, position, bytes -> {
+            if (bytes.remaining() > remaining[0]) {
+                bytes.limit(bytes.position() + (int) remaining[0]);
+            }
+            remaining[0] -= bytes.remaining();
+            write(bytes, outputStream);
+            return remaining[0] > 0;
+        });
+    }
+
+    /**
+     * Writes bytes to an output stream
+     * @param bytes bytes from position to limit, which is moved to limit
+     * @param outputStream stream to write to
+     * @throws IOException if writing fails
+     */
+    static void write(ByteBuffer bytes, OutputStream outputStream) throws IOException {
+        if (bytes.hasArray()) {
+            outputStream.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            bytes.position(bytes.limit());
+            return;
+        }
+
+        byte[] chunk = new byte[Math.min(BUFFER_SIZE, bytes.remaining())];
+        while (bytes.hasRemaining()) {
+            int n = Math.min(chunk.length, bytes.remaining());
+            bytes.get(chunk, 0, n);
+            outputStream.write(chunk, 0, n);
+        }
+    }
+}
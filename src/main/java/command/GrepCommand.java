@@ -0,0 +1,451 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Prints lines matching a pattern ({@code grep [-cinvGEF] PATTERN [FILE]...}), without starting a process.
+ * Patterns are basic regular expressions, extended ones with -E or fixed strings with -F, translated by
+ * {@link PosixRegex}. Other options (-e, -w, -r...) are left to the system grep.
+ *
+ * A file is searched a window at a time: each (memory-mapped) window ends at a newline, is split at newlines into
+ * chunks that are searched in parallel on the fork/join pool, and their matches are then written in file order.
+ * Stdin (unless redirected from a file) is searched as it comes, on the calling thread.
+ */
+public class GrepCommand implements CodeCraftersShellCommand {
+
+    private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+    // chunks searched by one task - windows at most this big aren't split at all
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    // chars with a meaning in basic & extended expressions - patterns without any are fixed strings
+    private static final String BASIC_SPECIAL_CHARS = "\\^$.*[";
+    private static final String EXTENDED_SPECIAL_CHARS = "\\^$.|?*+()[]{}";
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public GrepCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        PrintStream printStreamError = new PrintStream(errorStream);
+
+        // options come before the pattern, e.g. -in or -i -n - the last of -G, -E and -F wins
+        boolean fixed = false, extended = false, ignoreCase = false, invert = false, countOnly = false, lineNumbers = false;
+        int i = 0;
+        for (; i < args.length && UtilityFallback.isOption(args[i]); i++) {
+            if (args[i].equals("--")) { i++; break; }
+            for (char option : args[i].substring(1).toCharArray()) {
+                switch (option) {
+                    case 'G' -> fixed = extended = false;
+                    case 'E' -> { fixed = false; extended = true; }
+                    case 'F' -> { fixed = true; extended = false; }
+                    case 'i' -> ignoreCase = true;
+                    case 'v' -> invert = true;
+                    case 'c' -> countOnly = true;
+                    case 'n' -> lineNumbers = true;
+                    default -> {
+                        if (!UtilityFallback.execute(shellEnvironment, "grep", inputStream, outputStream, errorStream, args)) {
+                            printStreamError.println("grep: invalid option -- '" + option + "'");
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+        if (i == args.length) {
+            printStreamError.println("Usage: grep [OPTION]... PATTERNS [FILE]...");
+            return;
+        }
+        if (UtilityFallback.hasTrailingOption(args, i + 1)
+                && UtilityFallback.execute(shellEnvironment, "grep", inputStream, outputStream, errorStream, args)) {
+            return;
+        }
+
+        Supplier<LineMatcher> matchers;
+        try {
+            matchers = lineMatchers(args[i], fixed, extended, ignoreCase);
+        } catch (PatternSyntaxException e) {
+            printStreamError.println("grep: " + e.getDescription());
+            return;
+        }
+
+        String[] names = i + 1 < args.length ? Arrays.copyOfRange(args, i + 1, args.length) : new String[] { "-" };
+        BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream, FileInput.BUFFER_SIZE);
+        try {
+            for (String name : names) {
+                // with more than one file, each line (or count) says which file it's from
+                String prefix = names.length > 1 ? (name.equals("-") ? "(standard input)" : name) + ":" : "";
+                Output output = new Output(bufferedOutputStream, prefix, lineNumbers, countOnly);
+                if (name.equals("-")) {
+                    FileChannel channel = FileInput.channel(inputStream);
+                    if (channel != null) {
+                        searchFile(channel, channel.position(), matchers, invert, output);
+                    } else {
+                        searchStream(inputStream, matchers, invert, output);
+                    }
+                } else {
+                    FileChannel channel;
+                    try {
+                        channel = FileInput.open(shellEnvironment, name);
+                    } catch (IOException e) {
+                        bufferedOutputStream.flush();
+                        printStreamError.println("grep: " + e.getMessage());
+                        continue;
+                    }
+                    try (channel) {
+                        searchFile(channel, 0, matchers, invert, output);
+                    }
+                }
+                output.finish();
+            }
+        } finally {
+            bufferedOutputStream.flush();
+        }
+    }
+
+    private static Supplier<LineMatcher> lineMatchers(String pattern, boolean fixed, boolean extended, boolean ignoreCase) {
+        byte[] patternBytes = pattern.getBytes(StandardCharsets.UTF_8);
+        // fixed strings (and patterns without any special chars) are matched on the bytes - ignoring case too,
+        // as long as only ASCII has a case to ignore
+        String specialChars = extended ? EXTENDED_SPECIAL_CHARS : BASIC_SPECIAL_CHARS;
+        boolean literal = fixed || pattern.chars().noneMatch(c -> specialChars.indexOf(c) >= 0);
+        if (literal && (!ignoreCase || pattern.chars().allMatch(c -> c < 0x80))) {
+            FixedLineMatcher matcher = new FixedLineMatcher(patternBytes, ignoreCase);
+            return () -> matcher;
+        }
+
+        int flags = ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0;
+        String regex = fixed ? Pattern.quote(pattern)
+                : extended ? PosixRegex.fromExtended(pattern)
+                : PosixRegex.fromBasic(pattern);
+        Pattern compiled = Pattern.compile(regex, flags);
+        return () -> new RegexLineMatcher(compiled);
+    }
+
+    /**
+     * Searches a file (from a position) a window at a time, each window in parallel chunks
+     */
+    private static void searchFile(FileChannel channel,
+                                   long position,
+                                   Supplier<LineMatcher> matchers,
+                                   boolean invert,
+                                   Output output) throws IOException {
+        long size = channel.size();
+        // files that don't know their size (e.g. in /proc) can only be read as they come
+        if (size == 0) {
+            searchStream(Channels.newInputStream(channel), matchers, invert, output);
+            return;
+        }
+
+        while (position < size) {
+            int length = (int) Math.min(WINDOW_SIZE, size - position);
+            ByteBuffer window = length >= FileInput.MAP_THRESHOLD
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, position, length)
+                    : read(channel, position, length);
+
+            // window ends after its last full line, unless that's the end of the file (or a line is longer than it)
+            int end = length;
+            if (position + length < size) {
+                int lastNewline = lastIndexOf(window, end);
+                if (lastNewline >= 0) end = lastNewline + 1;
+            }
+
+            List<ChunkResult> results = end > CHUNK_SIZE
+                    ? ForkJoinPool.commonPool().invoke(new SearchTask(window, 0, end, matchers, invert))
+                    : List.of(search(window, 0, end, matchers.get(), invert));
+            output.write(window, results);
+            position += end;
+        }
+    }
+
+    /**
+     * Searches a stream as it comes, a buffer of full lines at a time
+     */
+    private static void searchStream(InputStream inputStream,
+                                     Supplier<LineMatcher> matchers,
+                                     boolean invert,
+                                     Output output) throws IOException {
+        LineMatcher matcher = matchers.get();
+        byte[] buffer = new byte[FileInput.BUFFER_SIZE];
+        int length = 0;
+        int n;
+        while ((n = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += n;
+            ByteBuffer bytes = ByteBuffer.wrap(buffer);
+            int end = lastIndexOf(bytes, length) + 1;
+            if (end == 0) {
+                // no full line yet - make room for the rest of it
+                if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                continue;
+            }
+
+            output.write(bytes, List.of(search(bytes, 0, end, matcher, invert)));
+            output.flush();
+            System.arraycopy(buffer, end, buffer, 0, length - end);
+            length -= end;
+        }
+        // last line without a newline
+        if (length > 0) {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer);
+            output.write(bytes, List.of(search(bytes, 0, length, matcher, invert)));
+        }
+    }
+
+    /**
+     * Searches lines from start up to end (which is the end of a line)
+     */
+    private static ChunkResult search(ByteBuffer bytes, int start, int end, LineMatcher matcher, boolean invert) {
+        ChunkResult result = new ChunkResult();
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = indexOf(bytes, lineStart, end);
+            if (lineEnd < 0) lineEnd = end;
+            result.lines++;
+            if (matcher.matches(bytes, lineStart, lineEnd) != invert) {
+                result.add(lineStart, lineEnd);
+            }
+            lineStart = lineEnd + 1;
+        }
+        return result;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1) {
+            // read until full or end of file
+        }
+        return buffer.flip();
+    }
+
+    private static int indexOf(ByteBuffer bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes.get(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer bytes, int to) {
+        for (int i = to - 1; i >= 0; i--) {
+            if (bytes.get(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a line matches. Not thread-safe, each task gets its own.
+     */
+    private interface LineMatcher {
+        boolean matches(ByteBuffer bytes, int start, int end);
+    }
+
+    /**
+     * Finds a fixed string in a line's bytes, ignoring case of ASCII letters if asked to
+     */
+    private static final class FixedLineMatcher implements LineMatcher {
+
+        private final byte[] pattern;
+        private final boolean ignoreCase;
+
+        FixedLineMatcher(byte[] pattern, boolean ignoreCase) {
+            this.pattern = ignoreCase ? toLowerCase(pattern) : pattern;
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer bytes, int start, int end) {
+            if (pattern.length == 0) return true;
+
+            byte first = pattern[0];
+            for (int i = start, last = end - pattern.length; i <= last; i++) {
+                if (fold(bytes.get(i)) != first) continue;
+                int j = 1;
+                while (j < pattern.length && fold(bytes.get(i + j)) == pattern[j]) j++;
+                if (j == pattern.length) return true;
+            }
+            return false;
+        }
+
+        private byte fold(byte b) {
+            return ignoreCase && b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+        }
+
+        private static byte[] toLowerCase(byte[] bytes) {
+            byte[] lowerCase = bytes.clone();
+            for (int i = 0; i < lowerCase.length; i++) {
+                if (lowerCase[i] >= 'A' && lowerCase[i] <= 'Z') lowerCase[i] += 'a' - 'A';
+            }
+            return lowerCase;
+        }
+    }
+
+    /**
+     * Matches a regular expression anywhere in a line, decoding it (as UTF-8) into a reused buffer
+     */
+    private static final class RegexLineMatcher implements LineMatcher {
+
+        private final Matcher matcher;
+        private final CharsetDecoder decoder;
+        private CharBuffer chars;
+
+        RegexLineMatcher(Pattern pattern) {
+            this.matcher = pattern.matcher("");
+            this.decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.chars = CharBuffer.allocate(256);
+        }
+
+        @Override
+        public boolean matches(ByteBuffer bytes, int start, int end) {
+            // UTF-8 never decodes to more chars than it has bytes
+            if (chars.capacity() < end - start) {
+                chars = CharBuffer.allocate(Math.max(end - start, chars.capacity() * 2));
+            }
+            chars.clear();
+            decoder.reset();
+            decoder.decode(bytes.slice(start, end - start), chars, true);
+            decoder.flush(chars);
+            return matcher.reset(chars.flip()).find();
+        }
+    }
+
+    /**
+     * Searches lines of a region, splitting it at newlines into halves searched in parallel while it's large
+     */
+    private static final class SearchTask extends RecursiveTask<List<ChunkResult>> {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        // tasks are never serialized, their buffer & matchers only live for a search
+        private final transient ByteBuffer bytes;
+        private final int start;
+        private final int end;
+        private final transient Supplier<LineMatcher> matchers;
+        private final boolean invert;
+
+        SearchTask(ByteBuffer bytes, int start, int end, Supplier<LineMatcher> matchers, boolean invert) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+            this.matchers = matchers;
+            this.invert = invert;
+        }
+
+        @Override
+        protected List<ChunkResult> compute() {
+            int split = end - start > CHUNK_SIZE ? indexOf(bytes, start + (end - start) / 2, end) + 1 : 0;
+            if (split <= 0 || split >= end) {
+                return List.of(search(bytes, start, end, matchers.get(), invert));
+            }
+
+            SearchTask left = new SearchTask(bytes, start, split, matchers, invert);
+            left.fork();
+            List<ChunkResult> rightResults = new SearchTask(bytes, split, end, matchers, invert).compute();
+            List<ChunkResult> results = new ArrayList<>(left.join());
+            results.addAll(rightResults);
+            return results;
+        }
+    }
+
+    /**
+     * Lines of a chunk that are output (matching, or not matching with -v), and how many lines the chunk has
+     */
+    private static final class ChunkResult {
+
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private long[] lineNumbers = new long[16];
+        private int count;
+        private long lines;
+
+        void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                lineNumbers = Arrays.copyOf(lineNumbers, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            lineNumbers[count] = lines;
+            count++;
+        }
+    }
+
+    /**
+     * Writes results of an input's chunks in order, numbering lines across chunks
+     */
+    private static final class Output {
+
+        private final OutputStream outputStream;
+        private final byte[] prefix;
+        private final boolean lineNumbers;
+        private final boolean countOnly;
+        private long lines;
+        private long count;
+        // lines are copied out of the (possibly mapped) input through here
+        private byte[] line = new byte[256];
+
+        Output(OutputStream outputStream, String prefix, boolean lineNumbers, boolean countOnly) {
+            this.outputStream = outputStream;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+            this.lineNumbers = lineNumbers;
+            this.countOnly = countOnly;
+        }
+
+        void write(ByteBuffer bytes, List<ChunkResult> results) throws IOException {
+            for (ChunkResult result : results) {
+                count += result.count;
+                if (!countOnly) {
+                    for (int i = 0; i < result.count; i++) {
+                        outputStream.write(prefix);
+                        if (lineNumbers) {
+                            outputStream.write((lines + result.lineNumbers[i] + ":").getBytes(StandardCharsets.US_ASCII));
+                        }
+                        int length = result.ends[i] - result.starts[i];
+                        if (line.length < length) line = new byte[Math.max(length, line.length * 2)];
+                        bytes.get(result.starts[i], line, 0, length);
+                        outputStream.write(line, 0, length);
+                        outputStream.write('\n');
+                    }
+                }
+                lines += result.lines;
+            }
+        }
+
+        void flush() throws IOException {
+            outputStream.flush();
+        }
+
+        void finish() throws IOException {
+            if (countOnly) {
+                outputStream.write(prefix);
+                outputStream.write((count + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Outputs the first lines (or bytes) of files, or of stdin for no files or {@code -}, without starting a process.
+ *
+ * Input is read a chunk at a time and reading stops as soon as there's enough: files are mapped, so only the pages
+ * holding what's output are ever read, and upstream of a pipeline sees its pipe closed once head returns.
+ */
+public class HeadCommand implements CodeCraftersShellCommand {
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public HeadCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        if (!CountOptions.isSupported(args)
+                && UtilityFallback.execute(shellEnvironment, "head", inputStream, outputStream, errorStream, args)) {
+            return;
+        }
+
+        PrintStream printStream = new PrintStream(outputStream);
+        PrintStream printStreamError = new PrintStream(errorStream);
+        CountOptions options = CountOptions.parse("head", args, printStreamError);
+        if (options == null) {
+            return;
+        }
+
+        int files = args.length - options.getFirstOperand();
+        try {
+            if (files == 0) {
+                head(inputStream, options, outputStream);
+            }
+            // with more than one file, each one gets a header
+            for (int i = options.getFirstOperand(); i < args.length; i++) {
+                if (files > 1) {
+                    if (i > options.getFirstOperand()) printStream.println();
+                    printStream.println("==> " + (args[i].equals("-") ? "standard input" : args[i]) + " <==");
+                }
+                if (args[i].equals("-")) {
+                    head(inputStream, options, outputStream);
+                    continue;
+                }
+
+                FileChannel channel;
+                try {
+                    channel = FileInput.open(shellEnvironment, args[i]);
+                } catch (IOException e) {
+                    printStream.flush();
+                    printStreamError.println("head: " + e.getMessage());
+                    continue;
+                }
+                try (channel) {
+                    FileInput.scan(channel, 0, headScanner(options, outputStream));
+                }
+            }
+        } finally {
+            printStream.flush();
+        }
+    }
+
+    private static void head(InputStream inputStream, CountOptions options, OutputStream outputStream) throws IOException {
+        FileInput.scan(inputStream, headScanner(options, outputStream));
+    }
+
+    /**
+     * Writes bytes it's passed up to the count, then asks for no more
+     */
+    private static FileInput.Scanner headScanner(CountOptions options, OutputStream outputStream) {
+        long[] remaining = { options.getCount() };
+        return bytes -> {
+            if (remaining[0] == 0) return false;
+
+            int end = bytes.limit();
+            if (options.isBytes()) {
+                end = (int) Math.min(end, bytes.position() + remaining[0]);
+                remaining[0] -= end - bytes.position();
+            } else {
+                for (int i = bytes.position(); i < bytes.limit(); i++) {
+                    if (bytes.get(i) == '\n' && --remaining[0] == 0) {
+                        end = i + 1;
+                        break;
+                    }
+                }
+            }
+            bytes.limit(end);
+            FileInput.write(bytes, outputStream);
+            outputStream.flush();
+            return remaining[0] > 0;
+        };
+    }
+}
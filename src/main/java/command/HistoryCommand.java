@@ -1,7 +1,12 @@
 package command;
 
 import environment.CodeCraftersShellEnvironment;
+import environment.HistoryFileWriter;
+import environment.HistoryStore;
+import metrics.HistoryIoEvent;
+import metrics.ShellMetrics;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,6 +15,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class HistoryCommand implements CodeCraftersShellCommand {
 
@@ -22,63 +28,100 @@ public class HistoryCommand implements CodeCraftersShellCommand {
     @Override
     public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
         // if there are arguments, and first is the number of history lines
-        List<String> history = shellEnvironment.getHistoryCopy();
-        PrintStream printStream = new PrintStream(outputStream);
+        HistoryStore history = shellEnvironment.getHistory();
 
         // -r flag implies reading from line in args[1] & not doing anything else
         if (args != null && args.length >= 2 && args[0].equals("-r")) {
-            readHistoryFromFile(args[1]);
+            HistoryFileWriter historyFileWriter = shellEnvironment.getHistoryFileWriter();
+            if (historyFileWriter == null) {
+                readHistoryFromFile(args[1]);
+                return;
+            }
+            // lines from before are still to be written, the ones read back are already in a file
+            historyFileWriter.flush();
+            historyFileWriter.holdingWrites(() -> readHistoryFromFile(args[1]));
             return;
         }
 
         // -w (-a does same but append) flag implies writing from history to file path in args[1] & not doing anything else
         if (args != null && args.length >= 2 && (args[0].equals("-w") || args[0].equals("-a"))) {
-            writeHistoryToFile(args[0].equals("-a"), history, args[1]);
+            boolean appendMode = args[0].equals("-a");
+            HistoryFileWriter historyFileWriter = shellEnvironment.getHistoryFileWriter();
+            if (historyFileWriter == null) {
+                writeHistoryToFile(appendMode, history, args[1]);
+                return;
+            }
+            // appending to the history file is what the writer does anyway - elsewhere, it shares its append index
+            if (appendMode && isSameFile(historyFileWriter.getHistoryFile(), args[1])) {
+                historyFileWriter.flush();
+                return;
+            }
+            historyFileWriter.holdingWrites(() -> writeHistoryToFile(appendMode, history, args[1]));
             return;
         }
 
-        // if argument is number, then limit
-        int start = 0;
+        // if argument is number, then limit (lines erased as duplicates don't count)
+        int end = history.endIndex();
+        int start = history.firstIndex();
         if (args != null && args.length >= 1 && args[0].matches("[0-9]+")) {
             int limit = Integer.parseInt(args[0]);
-            start = Math.max(history.size() - limit, 0);
+            int first = start;
+            start = end;
+            for (int found = 0; found < limit && start > first; ) {
+                if (history.get(--start) != null) found++;
+            }
         }
 
-        for (int i = start; i < history.size(); i++) {
-            printStream.printf("\t%d %s\n", i + 1, history.get(i));
+        // lines are read straight from the store & written in buffered batches, numbers stay the same after evictions
+        PrintStream printStream = new PrintStream(new BufferedOutputStream(outputStream, 64 * 1024));
+        for (int i = start; i < end; i++) {
+            String line = history.get(i);
+            if (line == null) continue;
+            printStream.append('\t').append(Integer.toString(i + 1)).append(' ').append(line).append('\n');
         }
+        printStream.flush();
     }
 
-    public void writeHistoryToFile(boolean appendMode, List<String> history, String historyFilePath) throws IOException {
-        int appendStart = Math.min(shellEnvironment.getHistoryAppendIndex(), history.size());
+    private static boolean isSameFile(Path historyFile, String path) {
+        return historyFile.toAbsolutePath().normalize().equals(Path.of(path).toAbsolutePath().normalize());
+    }
+
+    public void writeHistoryToFile(boolean appendMode, HistoryStore history, String historyFilePath) throws IOException {
+        int end = history.endIndex();
+        int appendStart = Math.clamp(shellEnvironment.getHistoryAppendIndex(), history.firstIndex(), end);
 
         if (appendMode) { // append mode
-            List<String> toAppend = history.subList(appendStart, history.size());
-            Files.write(
-                    Path.of(historyFilePath),
-                    toAppend,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.APPEND
-            );
+            List<String> toAppend = history.slice(appendStart, end);
+            HistoryFileWriter.appendLines(Path.of(historyFilePath), toAppend, true);
         } else { // it's write mode
             Files.write(
                     Path.of(historyFilePath),
-                    history,
+                    history.slice(history.firstIndex(), end),
                     StandardOpenOption.CREATE,
                     StandardOpenOption.TRUNCATE_EXISTING
             );
         }
-        shellEnvironment.setHistoryAppendIndex(history.size());
+        shellEnvironment.setHistoryAppendIndex(end);
     }
 
     public void readHistoryFromFile(String historyFilePath) throws IOException {
-        Files
-                .readAllLines(Path.of(historyFilePath))
-                .forEach(line -> {
-                    line = line.trim();
-                    if (!line.isBlank()) shellEnvironment.addToHistory(line);
-                });
-        shellEnvironment.setHistoryAppendIndex(shellEnvironment.getHistoryCopy().size());
-        return;
+        long start = System.nanoTime();
+        HistoryIoEvent event = new HistoryIoEvent();
+        event.begin();
+        int before = shellEnvironment.getHistory().endIndex();
+
+        // stream lines instead of reading the whole file into a list first
+        try (Stream<String> lines = Files.lines(Path.of(historyFilePath))) {
+            lines.forEach(line -> {
+                line = line.trim();
+                if (!line.isBlank()) shellEnvironment.addToHistory(line);
+            });
+        }
+
+        int read = shellEnvironment.getHistory().endIndex() - before;
+        ShellMetrics.add(ShellMetrics.Counter.HISTORY_LINES_READ, read);
+        ShellMetrics.record(ShellMetrics.Timer.HISTORY_READ, start);
+        event.complete("read", historyFilePath, read, 0);
+        shellEnvironment.setHistoryAppendIndex(shellEnvironment.getHistory().endIndex());
     }
 }
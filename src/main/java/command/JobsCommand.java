@@ -0,0 +1,25 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class JobsCommand implements CodeCraftersShellCommand {
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public JobsCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) {
+        PrintStream printStream = new PrintStream(outputStream);
+
+        // finished jobs are listed once, then forgotten
+        shellEnvironment.getJobTable().reportAll().forEach(printStream::println);
+        printStream.flush();
+    }
+}
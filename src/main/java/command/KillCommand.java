@@ -0,0 +1,63 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+import environment.Job;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Optional;
+
+public class KillCommand implements CodeCraftersShellCommand {
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public KillCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) {
+        PrintStream printStreamError = new PrintStream(errorStream);
+
+        // only TERM & KILL can be sent through process handles
+        int first = 0;
+        boolean forcibly = false;
+        if (args.length > 0 && args[0].startsWith("-")) {
+            switch (args[0].substring(1)) {
+                case "9", "KILL", "SIGKILL" -> forcibly = true;
+                case "15", "TERM", "SIGTERM" -> forcibly = false;
+                default -> {
+                    printStreamError.println("kill: " + args[0].substring(1) + ": invalid signal specification");
+                    return;
+                }
+            }
+            first = 1;
+        }
+        if (args.length == first) {
+            printStreamError.println("kill: usage: kill [-TERM | -KILL] pid | jobspec ...");
+            return;
+        }
+
+        for (int i = first; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("%")) {
+                Optional<Job> job = shellEnvironment.getJobTable().find(arg);
+                if (job.isPresent()) job.get().kill(forcibly);
+                else printStreamError.println("kill: " + arg + ": no such job");
+                continue;
+            }
+
+            Optional<ProcessHandle> process;
+            try {
+                process = ProcessHandle.of(Long.parseLong(arg));
+            } catch (NumberFormatException e) {
+                printStreamError.println("kill: " + arg + ": arguments must be process or job IDs");
+                continue;
+            }
+            if (process.isEmpty() || !(forcibly ? process.get().destroyForcibly() : process.get().destroy())) {
+                printStreamError.println("kill: (" + arg + ") - No such process");
+            }
+        }
+    }
+}
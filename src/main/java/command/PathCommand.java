@@ -1,91 +1,274 @@
 package command;
 
+import environment.ExecutionTrace;
+import environment.Job;
+import metrics.ShellMetrics;
+import metrics.SpawnEvent;
+
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class PathCommand implements CodeCraftersShellCommand {
     private final Path cmdPath;
     private final File currentWorkDirectoryFile;
+    private final Executor transferExecutor;
 
-    public PathCommand(Path cmdPath, File currentWorkDirectoryFile) {
+    public PathCommand(Path cmdPath, File currentWorkDirectoryFile, Executor transferExecutor) {
         this.cmdPath = cmdPath;
         this.currentWorkDirectoryFile = currentWorkDirectoryFile;
+        this.transferExecutor = transferExecutor;
     }
 
     @Override
     public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
-        // form args
-        List<String> argsList = new ArrayList<>(args.length + 1);
-        argsList.add(cmdPath.getFileName().toString());
-        argsList.addAll(Arrays.asList(args));
+        execute(CommandStreams.DEFAULT, inputStream, outputStream, errorStream, args);
+    }
+
+    /**
+     * Runs command with redirected streams, redirected files are handed to the process directly
+     * @param streams targets of the command's streams after redirections
+     * @param inputStream stdin the command is run with
+     * @param outputStream stdout the command is run with
+     * @param errorStream stderr the command is run with
+     * @param args arguments of command
+     * @throws Exception if process can't be started or waiting is interrupted
+     */
+    public void execute(CommandStreams streams,
+                        InputStream inputStream,
+                        OutputStream outputStream,
+                        OutputStream errorStream,
+                        String... args) throws Exception {
+        executePipeline(List.of(this), List.<String[]>of(args), List.of(streams), transferExecutor, inputStream, outputStream, errorStream);
+    }
+
+    /**
+     * Runs external commands as a single pipeline where consecutive processes are connected directly by OS pipes,
+     * so data flowing between them never goes through the JVM. Redirected files are handed to the processes too.
+     * The shell only transfers the first process' input, the last process' output and the error output of each
+     * process, when they're connected to a shell stream that can't be inherited.
+     * Only the first process' input and the last process' output may be redirected, the others are the OS pipes.
+     * @param commands commands to run, in pipeline order
+     * @param commandArgs arguments of each command
+     * @param commandStreams targets of each command's streams after redirections
+     * @param transferExecutor executor running the stream transfers
+     * @param inputStream input of first command
+     * @param outputStream output of last command
+     * @param errorStream error output of all commands
+     * @throws Exception if processes can't be started or waiting is interrupted
+     */
+    public static void executePipeline(List<PathCommand> commands,
+                                       List<String[]> commandArgs,
+                                       List<CommandStreams> commandStreams,
+                                       Executor transferExecutor,
+                                       InputStream inputStream,
+                                       OutputStream outputStream,
+                                       OutputStream errorStream) throws Exception {
+        int last = commands.size() - 1;
+
+        // create processes at their current working directory - in between them, default redirects are pipes
+        List<ProcessBuilder> processBuilders = new ArrayList<>(commands.size());
+        for (int i = 0; i <= last; i++) {
+            CommandStreams streams = commandStreams.get(i);
+            ProcessBuilder processBuilder = commands.get(i).processBuilder(commandArgs.get(i));
+            if (i == 0) {
+                processBuilder.redirectInput(inputRedirect(streams.getInput(), inputStream));
+            }
+            if (i == last) {
+                processBuilder.redirectOutput(outputRedirect(streams.getOutput(), 1, outputStream, errorStream));
+            }
+            // stderr copied from stdout (or the other way around) goes wherever stdout goes
+            if (streams.getError() == streams.getOutput()) {
+                processBuilder.redirectErrorStream(true);
+            } else {
+                processBuilder.redirectError(outputRedirect(streams.getError(), 2, outputStream, errorStream));
+            }
+            processBuilders.add(processBuilder);
+        }
 
-        // create process at current working directory
-        ProcessBuilder processBuilder = new ProcessBuilder(argsList).directory(currentWorkDirectoryFile);
-        boolean inheritInput = inputStream == System.in;
-        boolean inheritOutput = outputStream == System.out;
-        boolean inheritError = errorStream == System.err;
-        if (inheritInput) {
-            processBuilder.redirectInput(ProcessBuilder.Redirect.INHERIT);
+        // anything the shell buffered must come out before the processes write to the same descriptors
+        if (outputStream == System.out) {
+            System.out.flush();
+        }
+        if (errorStream == System.err) {
+            System.err.flush();
         }
-        if (inheritOutput) {
-            processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        // nothing for the shell to transfer - posix_spawn can start them, if enabled
+        long spawnStart = System.nanoTime();
+        SpawnEvent spawnEvent = new SpawnEvent();
+        spawnEvent.begin();
+        if (PosixSpawner.isEnabled() && PosixSpawner.canSpawn(processBuilders)) {
+            spawnPipeline(processBuilders, spawnStart, spawnEvent);
+            return;
         }
-        if (inheritError) {
-            processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        List<Process> processes;
+        try {
+            processes = processBuilders.size() == 1
+                    ? List.of(processBuilders.getFirst().start())
+                    : ProcessBuilder.startPipeline(processBuilders);
+        } catch (IOException e) {
+            recordSpawn(processBuilders, "ProcessBuilder", true, spawnStart, spawnEvent);
+            throw e;
         }
-        Process process = processBuilder.start();
-
-        // transfer concurrently between shell streams and process streams
-        Thread stdInThread = null;
-        if (!inheritInput) {
-            stdInThread = new Thread(() -> {
-                try (OutputStream processInputStream = process.getOutputStream()) {
-                    byte[] buffer = new byte[8192];
-                    int n;
-                    while ((n = inputStream.read(buffer)) != -1) {
-                        processInputStream.write(buffer, 0, n);
-                        processInputStream.flush();
-                    }
+        recordSpawn(processBuilders, "ProcessBuilder", false, spawnStart, spawnEvent);
+        long runStart = System.nanoTime();
+        // background jobs track their processes, to report & kill them
+        Job.current().ifPresent(job -> job.addProcesses(processes.stream().map(Process::toHandle).toList()));
+
+        // transfer concurrently between shell streams and process streams at the pipeline boundaries
+        List<CompletableFuture<Void>> transfers = new ArrayList<>();
+        if (processBuilders.getFirst().redirectInput() == ProcessBuilder.Redirect.PIPE) {
+            Process firstProcess = processes.getFirst();
+            transfers.add(CompletableFuture.runAsync(() -> {
+                try (OutputStream processInputStream = firstProcess.getOutputStream()) {
+                    transfer(inputStream, processInputStream);
                 } catch (Exception ignored) {}
-            }, "cmd-stdin-transfer");
-            stdInThread.start();
+            }, transferExecutor));
         }
 
-        Thread stdOutThread = null;
-        if (!inheritOutput) {
-            stdOutThread = new Thread(() -> {
-               try (InputStream in = process.getInputStream()) {
-                   in.transferTo(outputStream);
-               } catch (Exception ignored) {}
-            }, "cmd-stdout-transfer");
-            stdOutThread.start();
+        if (processBuilders.getLast().redirectOutput() == ProcessBuilder.Redirect.PIPE) {
+            OutputStream lastOutputStream = shellStream(commandStreams.get(last).getOutput(), outputStream, errorStream);
+            Process lastProcess = processes.getLast();
+            transfers.add(CompletableFuture.runAsync(() -> {
+                try (InputStream in = lastProcess.getInputStream()) {
+                    transfer(in, lastOutputStream);
+                } catch (Exception ignored) {}
+            }, transferExecutor));
         }
 
-        Thread stdErrThread = null;
-        if (!inheritError) {
-            stdErrThread = new Thread(() -> {
+        for (int i = 0; i <= last; i++) {
+            ProcessBuilder processBuilder = processBuilders.get(i);
+            if (processBuilder.redirectErrorStream() || processBuilder.redirectError() != ProcessBuilder.Redirect.PIPE) {
+                continue;
+            }
+            OutputStream processErrorStream = shellStream(commandStreams.get(i).getError(), outputStream, errorStream);
+            Process process = processes.get(i);
+            transfers.add(CompletableFuture.runAsync(() -> {
                 try (InputStream in = process.getErrorStream()) {
-                    in.transferTo(errorStream);
+                    transfer(in, processErrorStream);
                 } catch (Exception ignored) {}
-            }, "cmd-stderr-transfer");
-            stdErrThread.start();
+            }, transferExecutor));
+        }
+
+        // wait for processes to exit (reaped by the JDK, no thread of ours blocks per process) & transfers to drain
+        try {
+            CompletableFuture.allOf(processes.stream().map(Process::onExit).toArray(CompletableFuture[]::new)).get();
+            ExecutionTrace.record(ExecutionTrace.Phase.RUN, runStart);
+            long drainStart = System.nanoTime();
+            CompletableFuture.allOf(transfers.toArray(CompletableFuture[]::new)).get();
+            ExecutionTrace.record(ExecutionTrace.Phase.DRAIN, drainStart);
+        } catch (InterruptedException e) {
+            // interrupted waiting (e.g. a killed job) - processes must not outlive the pipeline
+            processes.forEach(Process::destroy);
+            throw e;
+        }
+    }
+
+    private static void spawnPipeline(List<ProcessBuilder> processBuilders,
+                                      long spawnStart,
+                                      SpawnEvent spawnEvent) throws Exception {
+        List<PosixSpawner.SpawnedProcess> processes;
+        try {
+            processes = PosixSpawner.spawnPipeline(processBuilders);
+        } catch (IOException e) {
+            recordSpawn(processBuilders, "posix_spawn", true, spawnStart, spawnEvent);
+            throw e;
         }
+        recordSpawn(processBuilders, "posix_spawn", false, spawnStart, spawnEvent);
+        long runStart = System.nanoTime();
+        Job.current().ifPresent(job -> job.addProcesses(
+                processes.stream().flatMap(process -> process.toHandle().stream()).toList()
+        ));
 
-        // join threads after process is finished
-        process.waitFor();
-        if (stdInThread != null) {
-            stdInThread.join();
+        try {
+            CompletableFuture.allOf(processes.stream().map(PosixSpawner.SpawnedProcess::onExit).toArray(CompletableFuture[]::new)).get();
+            ExecutionTrace.record(ExecutionTrace.Phase.RUN, runStart);
+        } catch (InterruptedException e) {
+            processes.forEach(PosixSpawner.SpawnedProcess::destroy);
+            throw e;
         }
-        if (stdOutThread != null) {
-            stdOutThread.join();
+    }
+
+    private static void recordSpawn(List<ProcessBuilder> processBuilders,
+                                    String spawner,
+                                    boolean failed,
+                                    long spawnStart,
+                                    SpawnEvent spawnEvent) {
+        ExecutionTrace.record(ExecutionTrace.Phase.SPAWN, spawnStart);
+        ShellMetrics.record(ShellMetrics.Timer.SPAWN, spawnStart);
+        if (failed) {
+            ShellMetrics.increment(ShellMetrics.Counter.SPAWN_FAILURES);
+        } else {
+            ShellMetrics.add(ShellMetrics.Counter.PROCESSES_SPAWNED, processBuilders.size());
         }
-        if (stdErrThread != null) {
-            stdErrThread.join();
+        if (spawnEvent.isEnabled()) {
+            StringJoiner commands = new StringJoiner(" | ");
+            processBuilders.forEach(processBuilder -> commands.add(String.join(" ", processBuilder.command())));
+            spawnEvent.complete(commands.toString(), failed ? 0 : processBuilders.size(), spawner, failed);
+        }
+    }
+
+    private static ProcessBuilder.Redirect inputRedirect(StreamTarget target, InputStream inputStream) {
+        if (target.getKind() == StreamTarget.Kind.FILE) {
+            return ProcessBuilder.Redirect.from(target.getFile().toFile());
+        }
+        return inputStream == System.in ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE;
+    }
+
+    /**
+     * Redirect for stdout (fd 1) or stderr (fd 2) of a process. Files were already truncated when redirections were
+     * opened, so the process appends to them - descriptors sharing a file then don't overwrite each other.
+     * A shell stream is inherited only by the descriptor it belongs to (e.g. not stdout sent to stderr by 1>&2).
+     */
+    private static ProcessBuilder.Redirect outputRedirect(StreamTarget target,
+                                                          int fd,
+                                                          OutputStream outputStream,
+                                                          OutputStream errorStream) {
+        return switch (target.getKind()) {
+            case FILE -> ProcessBuilder.Redirect.appendTo(target.getFile().toFile());
+            case OUTPUT -> fd == 1 && outputStream == System.out ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE;
+            case ERROR -> fd == 2 && errorStream == System.err ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE;
+            case INPUT -> throw new IllegalStateException("stdin is not an output target");
+        };
+    }
+
+    private static OutputStream shellStream(StreamTarget target, OutputStream outputStream, OutputStream errorStream) {
+        return target.getKind() == StreamTarget.Kind.ERROR ? errorStream : outputStream;
+    }
+
+    /**
+     * Copies until end of input, flushing after every chunk so output shows up as soon as the process writes it.
+     * Process streams are synchronized, so unlike {@link InputStream#transferTo} no lock is held while writing
+     * (a write may park on a full pipe, which would otherwise pin a virtual thread's carrier)
+     */
+    private static void transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        long transferred = 0;
+        int n;
+        try {
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                out.flush();
+                transferred += n;
+            }
+        } finally {
+            ShellMetrics.add(ShellMetrics.Counter.TRANSFER_BYTES, transferred);
         }
     }
+
+    private ProcessBuilder processBuilder(String... args) {
+        List<String> argsList = new ArrayList<>(args.length + 1);
+        argsList.add(cmdPath.getFileName().toString());
+        argsList.addAll(Arrays.asList(args));
+        return new ProcessBuilder(argsList).directory(currentWorkDirectoryFile);
+    }
 }
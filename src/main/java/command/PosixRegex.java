@@ -0,0 +1,309 @@
+package command;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Translates POSIX regular expressions, as grep takes them, into Java ones.
+ *
+ * Basic expressions (grep's default) have {@code \( \) \{ \} \| \+ \?} as operators and the unescaped chars as
+ * literals, extended ones (-E) the other way around. Both get GNU's extensions ({@code \< \> \b \w \s}...),
+ * bracket expressions with character classes ({@code [[:digit:]]}), and GNU's leniency: a repetition starting an
+ * expression is literal in a basic one (ignored in an extended one), and so are {@code ^} and {@code $} in a basic
+ * one where they can't be anchors.
+ */
+final class PosixRegex {
+
+    // chars with a meaning to java.util.regex, escaped when they're meant literally
+    private static final String JAVA_SPECIAL_CHARS = "\\^$.|?*+()[]{}";
+    private static final Map<String, String> CHARACTER_CLASSES = Map.ofEntries(
+            Map.entry("alpha", "\\p{Alpha}"),
+            Map.entry("digit", "0-9"),
+            Map.entry("alnum", "\\p{Alnum}"),
+            Map.entry("upper", "\\p{Upper}"),
+            Map.entry("lower", "\\p{Lower}"),
+            Map.entry("space", "\\s\\x0B"),
+            Map.entry("blank", " \\t"),
+            Map.entry("punct", "\\p{Punct}"),
+            Map.entry("print", "\\p{Print}"),
+            Map.entry("graph", "\\p{Graph}"),
+            Map.entry("cntrl", "\\p{Cntrl}"),
+            Map.entry("xdigit", "0-9A-Fa-f")
+    );
+
+    private final String pattern;
+    private final boolean extended;
+    private final StringBuilder regex;
+    // where in regex the open groups start, and the last atom (what a repetition applies to)
+    private final Deque<Integer> groupStarts;
+    private int atomStart;
+    private boolean repeated;
+    private int position;
+
+    private PosixRegex(String pattern, boolean extended) {
+        this.pattern = pattern;
+        this.extended = extended;
+        this.regex = new StringBuilder(pattern.length() + 16);
+        this.groupStarts = new ArrayDeque<>();
+    }
+
+    /**
+     * Translates a basic regular expression
+     * @param pattern expression as given to grep
+     * @return equivalent java.util.regex expression
+     * @throws PatternSyntaxException if pattern is invalid, with grep's description
+     */
+    static String fromBasic(String pattern) {
+        return new PosixRegex(pattern, false).translate();
+    }
+
+    /**
+     * Translates an extended regular expression
+     * @param pattern expression as given to grep -E
+     * @return equivalent java.util.regex expression
+     * @throws PatternSyntaxException if pattern is invalid, with grep's description
+     */
+    static String fromExtended(String pattern) {
+        return new PosixRegex(pattern, true).translate();
+    }
+
+    private String translate() {
+        // whether the next char starts an expression (start of pattern, group or alternative), where * is literal
+        boolean atStart = true;
+        for (; position < pattern.length(); position++) {
+            char c = pattern.charAt(position);
+            boolean startsExpression = false;
+            if (c == '\\') {
+                if (++position == pattern.length()) {
+                    throw new PatternSyntaxException("Trailing backslash", pattern, position - 1);
+                }
+                char escaped = pattern.charAt(position);
+                if (!extended && isOperator(escaped)) {
+                    startsExpression = operator(escaped, atStart);
+                } else {
+                    escape(escaped);
+                }
+            } else if (extended && isOperator(c)) {
+                startsExpression = operator(c, atStart);
+            } else {
+                switch (c) {
+                    case '[' -> {
+                        atom();
+                        bracket();
+                    }
+                    case '.' -> {
+                        atom();
+                        regex.append('.');
+                    }
+                    case '*' -> {
+                        if (!atStart) repetition("*");
+                        else if (!extended) literal(c);
+                        startsExpression = atStart && extended;
+                    }
+                    case '^' -> {
+                        // in a basic expression, only an anchor where an expression starts
+                        if (extended || atStart) anchor('^');
+                        else literal(c);
+                        startsExpression = atStart;
+                    }
+                    case '$' -> {
+                        if (extended || endsExpression(position + 1)) anchor('$');
+                        else literal(c);
+                    }
+                    default -> literal(c);
+                }
+            }
+            atStart = startsExpression;
+        }
+        if (!groupStarts.isEmpty()) {
+            throw new PatternSyntaxException("Unmatched ( or \\(", pattern, pattern.length());
+        }
+        return regex.toString();
+    }
+
+    private static boolean isOperator(char c) {
+        return "(){}|+?".indexOf(c) >= 0;
+    }
+
+    /**
+     * Appends a group, alternation, interval or repetition
+     * @return true if an expression starts after it
+     */
+    private boolean operator(char c, boolean atStart) {
+        switch (c) {
+            case '(' -> {
+                groupStarts.push(regex.length());
+                regex.append('(');
+                return true;
+            }
+            case ')' -> {
+                if (groupStarts.isEmpty()) {
+                    // GNU takes an unmatched ) of an extended expression literally
+                    if (!extended) throw new PatternSyntaxException("Unmatched ) or \\)", pattern, position);
+                    literal(c);
+                    return false;
+                }
+                regex.append(')');
+                atomStart = groupStarts.pop();
+                repeated = false;
+                return false;
+            }
+            case '|' -> {
+                regex.append('|');
+                return true;
+            }
+            case '{' -> {
+                int end = intervalEnd(position + 1);
+                if (end < 0 || (atStart && !extended)) {
+                    if (!extended && !atStart) throw new PatternSyntaxException("Unmatched \\{", pattern, position);
+                    literal(c); // not an interval, just a brace
+                    return false;
+                }
+                String bounds = pattern.substring(position + 1, end);
+                // java needs a lower bound
+                if (!atStart) repetition("{" + (bounds.startsWith(",") ? "0" : "") + bounds + "}");
+                position = extended ? end : end + 1;
+                return atStart;
+            }
+            case '}' -> {
+                literal(c);
+                return false;
+            }
+            default -> { // + and ?
+                if (!atStart) repetition(String.valueOf(c));
+                else if (!extended) literal(c);
+                return atStart && extended;
+            }
+        }
+    }
+
+    /**
+     * Appends a repetition of the last atom. Java would take a repetition of a repetition as lazy ({@code +?}),
+     * possessive ({@code *+}) or invalid ({@code **}), so the repeated atom is grouped first
+     */
+    private void repetition(String repetition) {
+        if (repeated) {
+            regex.insert(atomStart, "(?:").append(')');
+        }
+        regex.append(repetition);
+        repeated = true;
+    }
+
+    /**
+     * Marks the start of an atom at the end of the regex
+     */
+    private void atom() {
+        atomStart = regex.length();
+        repeated = false;
+    }
+
+    private void anchor(char c) {
+        atom();
+        regex.append(c);
+    }
+
+    /**
+     * Finds end of an interval's bounds ({@code m}, {@code m,} {@code ,n} or {@code m,n}) starting at an index
+     * @return index of closing brace (of its backslash in a basic expression), or -1 if it isn't an interval
+     */
+    private int intervalEnd(int from) {
+        int i = from;
+        while (i < pattern.length() && (Character.isDigit(pattern.charAt(i)) || pattern.charAt(i) == ',')) i++;
+        if (!pattern.substring(from, i).matches("[0-9]+(,[0-9]*)?|,[0-9]+")) return -1;
+        if (extended) {
+            return i < pattern.length() && pattern.charAt(i) == '}' ? i : -1;
+        }
+        return i + 1 < pattern.length() && pattern.charAt(i) == '\\' && pattern.charAt(i + 1) == '}' ? i : -1;
+    }
+
+    /**
+     * Checks if a {@code $} before this index ends an expression (end of pattern, group or alternative)
+     */
+    private boolean endsExpression(int next) {
+        if (next == pattern.length()) return true;
+        if (extended) return pattern.charAt(next) == ')' || pattern.charAt(next) == '|';
+        return next + 1 < pattern.length() && pattern.charAt(next) == '\\'
+                && (pattern.charAt(next + 1) == ')' || pattern.charAt(next + 1) == '|');
+    }
+
+    /**
+     * Appends an escaped char - GNU's word & space classes and back-references, anything else is literal
+     */
+    private void escape(char c) {
+        atom();
+        switch (c) {
+            case '<' -> regex.append("\\b(?=\\w)");
+            case '>' -> regex.append("\\b(?<=\\w)");
+            case '`' -> regex.append("\\A");
+            case '\'' -> regex.append("\\z");
+            case 'b', 'B', 'w', 'W', 's', 'S' -> regex.append('\\').append(c);
+            default -> {
+                if (c >= '1' && c <= '9') {
+                    regex.append('\\').append(c);
+                } else {
+                    literal(c);
+                }
+            }
+        }
+    }
+
+    private void literal(char c) {
+        atom();
+        if (JAVA_SPECIAL_CHARS.indexOf(c) >= 0) regex.append('\\');
+        regex.append(c);
+    }
+
+    /**
+     * Appends the bracket expression starting at the current position, which is left at its closing bracket.
+     * Backslashes are literal in it, a {@code ]} right after the opening one (or its negation) is part of it
+     */
+    private void bracket() {
+        int open = position;
+        int i = open + 1;
+        regex.append('[');
+        if (i < pattern.length() && pattern.charAt(i) == '^') {
+            regex.append('^');
+            i++;
+        }
+        boolean first = true;
+        for (; i < pattern.length(); i++, first = false) {
+            char c = pattern.charAt(i);
+            if (c == ']' && !first) {
+                regex.append(']');
+                position = i;
+                return;
+            }
+            if (c == '[' && i + 1 < pattern.length() && ":=.".indexOf(pattern.charAt(i + 1)) >= 0) {
+                char kind = pattern.charAt(i + 1);
+                int close = pattern.indexOf(kind + "]", i + 2);
+                if (close < 0) break;
+                String name = pattern.substring(i + 2, close);
+                if (kind == ':') {
+                    String characterClass = CHARACTER_CLASSES.get(name);
+                    if (characterClass == null) {
+                        throw new PatternSyntaxException("Invalid character class name", pattern, i);
+                    }
+                    regex.append(characterClass);
+                } else {
+                    // equivalence classes & collating symbols are just their chars, as in the C locale
+                    name.chars().forEach(symbol -> bracketLiteral((char) symbol));
+                }
+                i = close + 1;
+                continue;
+            }
+            if (c == '-' && !first && i + 1 < pattern.length() && pattern.charAt(i + 1) != ']') {
+                regex.append('-');
+                continue;
+            }
+            bracketLiteral(c);
+        }
+        throw new PatternSyntaxException("Unmatched [, [^, [:, [., or [=", pattern, open);
+    }
+
+    private void bracketLiteral(char c) {
+        if ("\\[]&^-".indexOf(c) >= 0) regex.append('\\');
+        regex.append(c);
+    }
+}
@@ -0,0 +1,432 @@
+package command;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * Starts external commands with posix_spawnp(3), called through the Foreign Function & Memory API.
+ *
+ * ProcessBuilder starts every process through a helper (jspawnhelper) which then execs the command, and hands the
+ * JVM streams to every descriptor it doesn't inherit. When none of a pipeline's descriptors need the shell - they're
+ * inherited, files, or pipes between its processes - that isn't needed: posix_spawn (vfork & exec under glibc, so a
+ * large heap's page tables aren't copied) starts the command itself, with file actions setting up descriptors and
+ * working directory. Exits are reaped like the JDK does, by a small-stack thread waiting on each process.
+ *
+ * Only used on Linux, when enabled with CODECRAFTERS_SHELL_SPAWNER=posix_spawn and libc has everything needed
+ * (glibc 2.29+ for posix_spawn_file_actions_addchdir_np). Otherwise, or when the shell has to transfer a
+ * descriptor's data, callers use ProcessBuilder.
+ */
+public final class PosixSpawner {
+
+    private static final boolean ENABLED = Optional.ofNullable(System.getenv("CODECRAFTERS_SHELL_SPAWNER"))
+            .map("posix_spawn"::equalsIgnoreCase)
+            .orElse(false);
+
+    // Linux (x86_64 & aarch64) values
+    private static final int O_RDONLY = 0;
+    private static final int O_WRONLY = 01;
+    private static final int O_CREAT = 0100;
+    private static final int O_TRUNC = 01000;
+    private static final int O_APPEND = 02000;
+    private static final int O_CLOEXEC = 02000000;
+    private static final short POSIX_SPAWN_SETSIGDEF = 0x04;
+    private static final short POSIX_SPAWN_SETSIGMASK = 0x08;
+    private static final int SIGPIPE = 13;
+    // opaque glibc types, allocated with room to spare
+    private static final long FILE_ACTIONS_SIZE = 256;
+    private static final long SPAWNATTR_SIZE = 512;
+    private static final long SIGSET_SIZE = 128;
+
+    private static final ExecutorService REAPER = Executors.newCachedThreadPool(
+            Thread.ofPlatform()
+                    .name("process-reaper-", 0)
+                    .daemon(true)
+                    .stackSize(128 * 1024)
+                    .inheritInheritableThreadLocals(false) // pooled, mustn't keep the job or trace it was created for
+                    .factory()
+    );
+
+    private PosixSpawner() {}
+
+    /**
+     * A process started by posix_spawn
+     */
+    public static final class SpawnedProcess {
+
+        // pid_t, as posix_spawn returned it
+        private final int pid;
+        private final ProcessHandle handle;
+        private final CompletableFuture<Integer> onExit;
+
+        private SpawnedProcess(int pid) {
+            this.pid = pid;
+            // taken before the reaper can reap it, so the handle is for this process and not a later one with its pid
+            this.handle = ProcessHandle.of(pid).orElse(null);
+            this.onExit = CompletableFuture.supplyAsync(() -> Natives.waitFor(pid), REAPER);
+        }
+
+        public long pid() {
+            return pid;
+        }
+
+        /**
+         * Gets a handle to the process
+         * @return handle, or empty if the process was gone by the time it was started
+         */
+        public Optional<ProcessHandle> toHandle() {
+            return Optional.ofNullable(handle);
+        }
+
+        /**
+         * Gets exit of the process
+         * @return future completed with exit status (128 + signal number if killed by a signal) once it exits
+         */
+        public CompletableFuture<Integer> onExit() {
+            return onExit;
+        }
+
+        public void destroy() {
+            if (handle != null && !onExit.isDone()) {
+                handle.destroy();
+            }
+        }
+    }
+
+    /**
+     * Checks if posix_spawn can be called
+     * @return true if processes can be spawned
+     */
+    public static boolean isAvailable() {
+        return Natives.AVAILABLE;
+    }
+
+    /**
+     * Checks if external commands are to be spawned with posix_spawn
+     * @return true if enabled (CODECRAFTERS_SHELL_SPAWNER=posix_spawn) and available
+     */
+    public static boolean isEnabled() {
+        return ENABLED && Natives.AVAILABLE;
+    }
+
+    /**
+     * Checks if a pipeline can be spawned: every descriptor is inherited, a file, or a pipe to the next process
+     * @param processBuilders processes of pipeline, in order
+     * @return true if {@link #spawnPipeline(List)} can start them
+     */
+    public static boolean canSpawn(List<ProcessBuilder> processBuilders) {
+        if (!isAvailable()) {
+            return false;
+        }
+
+        int last = processBuilders.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            ProcessBuilder processBuilder = processBuilders.get(i);
+            ProcessBuilder.Redirect.Type input = processBuilder.redirectInput().type();
+            ProcessBuilder.Redirect.Type output = processBuilder.redirectOutput().type();
+            ProcessBuilder.Redirect.Type error = processBuilder.redirectError().type();
+
+            if (i == 0 ? input == ProcessBuilder.Redirect.Type.PIPE : input != ProcessBuilder.Redirect.Type.PIPE) return false;
+            if (i == last ? output == ProcessBuilder.Redirect.Type.PIPE : output != ProcessBuilder.Redirect.Type.PIPE) return false;
+            if (!processBuilder.redirectErrorStream() && error == ProcessBuilder.Redirect.Type.PIPE) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Spawns a pipeline, connecting each process' stdout to the next one's stdin, like
+     * {@link ProcessBuilder#startPipeline(List)}. If a process can't be started, those already started are destroyed.
+     * @param processBuilders processes of pipeline, in order - see {@link #canSpawn(List)}
+     * @return processes started, in order
+     * @throws IOException if a process can't be started (e.g. command or a redirected file doesn't exist)
+     */
+    public static List<SpawnedProcess> spawnPipeline(List<ProcessBuilder> processBuilders) throws IOException {
+        if (!canSpawn(processBuilders)) {
+            throw new IllegalArgumentException("pipeline can't be spawned, it needs streams or posix_spawn is unavailable");
+        }
+
+        int last = processBuilders.size() - 1;
+        List<SpawnedProcess> processes = new ArrayList<>(processBuilders.size());
+        int[] pipe = null;
+        int previousRead = -1;
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment envp = strings(arena, environment(processBuilders.getFirst()));
+            MemorySegment attributes = spawnAttributes(arena);
+            try {
+                for (int i = 0; i <= last; i++) {
+                    pipe = i < last ? Natives.pipe(arena) : null;
+                    processes.add(spawn(arena, processBuilders.get(i), previousRead, pipe != null ? pipe[1] : -1, attributes, envp));
+
+                    // parent keeps only the read end, for the next process
+                    if (previousRead != -1) Natives.close(previousRead);
+                    if (pipe != null) Natives.close(pipe[1]);
+                    previousRead = pipe != null ? pipe[0] : -1;
+                    pipe = null;
+                }
+            } finally {
+                Natives.call(Natives.SPAWNATTR_DESTROY, attributes);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (previousRead != -1) Natives.close(previousRead);
+            if (pipe != null) { Natives.close(pipe[0]); Natives.close(pipe[1]); }
+            processes.forEach(SpawnedProcess::destroy);
+            throw e;
+        }
+        return processes;
+    }
+
+    private static SpawnedProcess spawn(Arena arena,
+                                        ProcessBuilder processBuilder,
+                                        int inputFd,
+                                        int outputFd,
+                                        MemorySegment attributes,
+                                        MemorySegment envp) throws IOException {
+        List<String> command = processBuilder.command();
+        File directory = processBuilder.directory();
+
+        MemorySegment fileActions = arena.allocate(FILE_ACTIONS_SIZE, 16);
+        Natives.call(Natives.FILE_ACTIONS_INIT, fileActions);
+        try {
+            // descriptors first, so relative redirected files are relative to the shell's process like ProcessBuilder's
+            redirect(arena, fileActions, 0, processBuilder.redirectInput(), inputFd);
+            redirect(arena, fileActions, 1, processBuilder.redirectOutput(), outputFd);
+            if (processBuilder.redirectErrorStream()) {
+                Natives.call(Natives.FILE_ACTIONS_ADDDUP2, fileActions, 1, 2);
+            } else {
+                redirect(arena, fileActions, 2, processBuilder.redirectError(), -1);
+            }
+            if (Natives.FILE_ACTIONS_ADDCLOSEFROM != null) {
+                // nothing else the JVM has open leaks into the command
+                Natives.call(Natives.FILE_ACTIONS_ADDCLOSEFROM, fileActions, 3);
+            }
+            if (directory != null) {
+                Natives.call(Natives.FILE_ACTIONS_ADDCHDIR, fileActions, arena.allocateFrom(directory.getPath()));
+            }
+
+            MemorySegment pid = arena.allocate(JAVA_INT);
+            // command is looked up in PATH, as ProcessBuilder does
+            int error = (int) Natives.invoke(Natives.POSIX_SPAWNP,
+                    pid, arena.allocateFrom(command.getFirst()), fileActions, attributes, strings(arena, command), envp);
+            if (error != 0) {
+                throw new IOException("Cannot run program \"" + command.getFirst() + "\": error=" + error + ", "
+                        + Natives.strerror(error));
+            }
+            return new SpawnedProcess(pid.get(JAVA_INT, 0));
+        } finally {
+            Natives.call(Natives.FILE_ACTIONS_DESTROY, fileActions);
+        }
+    }
+
+    private static void redirect(Arena arena,
+                                 MemorySegment fileActions,
+                                 int fd,
+                                 ProcessBuilder.Redirect redirect,
+                                 int pipeFd) {
+        switch (redirect.type()) {
+            case PIPE -> Natives.call(Natives.FILE_ACTIONS_ADDDUP2, fileActions, pipeFd, fd);
+            case READ -> addOpen(arena, fileActions, fd, redirect.file(), O_RDONLY);
+            case WRITE -> addOpen(arena, fileActions, fd, redirect.file(), O_WRONLY | O_CREAT | O_TRUNC);
+            case APPEND -> addOpen(arena, fileActions, fd, redirect.file(), O_WRONLY | O_CREAT | O_APPEND);
+            case INHERIT -> {}
+        }
+    }
+
+    private static void addOpen(Arena arena, MemorySegment fileActions, int fd, File file, int flags) {
+        Natives.call(Natives.FILE_ACTIONS_ADDOPEN, fileActions, fd, arena.allocateFrom(file.getPath()), flags, 0666);
+    }
+
+    /**
+     * Spawn attributes: an empty signal mask & default SIGPIPE, whatever the spawning thread has
+     */
+    private static MemorySegment spawnAttributes(Arena arena) {
+        MemorySegment attributes = arena.allocate(SPAWNATTR_SIZE, 16);
+        Natives.call(Natives.SPAWNATTR_INIT, attributes);
+
+        MemorySegment signals = arena.allocate(SIGSET_SIZE, 16);
+        Natives.call(Natives.SIGEMPTYSET, signals);
+        Natives.call(Natives.SPAWNATTR_SETSIGMASK, attributes, signals);
+        Natives.call(Natives.SIGADDSET, signals, SIGPIPE);
+        Natives.call(Natives.SPAWNATTR_SETSIGDEFAULT, attributes, signals);
+        Natives.call(Natives.SPAWNATTR_SETFLAGS, attributes, (short) (POSIX_SPAWN_SETSIGMASK | POSIX_SPAWN_SETSIGDEF));
+        return attributes;
+    }
+
+    private static List<String> environment(ProcessBuilder processBuilder) {
+        List<String> environment = new ArrayList<>();
+        for (Map.Entry<String, String> variable : processBuilder.environment().entrySet()) {
+            environment.add(variable.getKey() + "=" + variable.getValue());
+        }
+        return environment;
+    }
+
+    /**
+     * Allocates a NULL terminated array of C strings, as argv & envp are
+     */
+    private static MemorySegment strings(Arena arena, List<String> strings) {
+        MemorySegment array = arena.allocate(ADDRESS.byteSize() * (strings.size() + 1), ADDRESS.byteAlignment());
+        for (int i = 0; i < strings.size(); i++) {
+            array.setAtIndex(ADDRESS, i, arena.allocateFrom(strings.get(i)));
+        }
+        array.setAtIndex(ADDRESS, strings.size(), MemorySegment.NULL);
+        return array;
+    }
+
+    /**
+     * Downcall handles to libc, looked up once. If anything required is missing, the spawner isn't available.
+     */
+    private static final class Natives {
+
+        static final boolean AVAILABLE;
+        static final MethodHandle POSIX_SPAWNP;
+        static final MethodHandle FILE_ACTIONS_INIT;
+        static final MethodHandle FILE_ACTIONS_DESTROY;
+        static final MethodHandle FILE_ACTIONS_ADDOPEN;
+        static final MethodHandle FILE_ACTIONS_ADDDUP2;
+        static final MethodHandle FILE_ACTIONS_ADDCHDIR;
+        static final MethodHandle FILE_ACTIONS_ADDCLOSEFROM; // glibc 2.34+, optional
+        static final MethodHandle SPAWNATTR_INIT;
+        static final MethodHandle SPAWNATTR_DESTROY;
+        static final MethodHandle SPAWNATTR_SETFLAGS;
+        static final MethodHandle SPAWNATTR_SETSIGMASK;
+        static final MethodHandle SPAWNATTR_SETSIGDEFAULT;
+        static final MethodHandle SIGEMPTYSET;
+        static final MethodHandle SIGADDSET;
+        static final MethodHandle PIPE2;
+        static final MethodHandle CLOSE;
+        static final MethodHandle WAITPID;
+        static final MethodHandle STRERROR;
+
+        static {
+            MethodHandle[] handles = new MethodHandle[18];
+            boolean available = System.getProperty("os.name", "").startsWith("Linux");
+            if (available) {
+                try {
+                    Linker linker = Linker.nativeLinker();
+                    SymbolLookup libc = linker.defaultLookup();
+                    handles[0] = downcall(linker, libc, "posix_spawnp", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+                    handles[1] = downcall(linker, libc, "posix_spawn_file_actions_init", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+                    handles[2] = downcall(linker, libc, "posix_spawn_file_actions_destroy", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+                    handles[3] = downcall(linker, libc, "posix_spawn_file_actions_addopen", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+                    handles[4] = downcall(linker, libc, "posix_spawn_file_actions_adddup2", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+                    handles[5] = downcall(linker, libc, "posix_spawn_file_actions_addchdir_np", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+                    handles[6] = libc.find("posix_spawn_file_actions_addclosefrom_np")
+                            .map(symbol -> linker.downcallHandle(symbol, FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT)))
+                            .orElse(null);
+                    handles[7] = downcall(linker, libc, "posix_spawnattr_init", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+                    handles[8] = downcall(linker, libc, "posix_spawnattr_destroy", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+                    handles[9] = downcall(linker, libc, "posix_spawnattr_setflags", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_SHORT));
+                    handles[10] = downcall(linker, libc, "posix_spawnattr_setsigmask", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+                    handles[11] = downcall(linker, libc, "posix_spawnattr_setsigdefault", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+                    handles[12] = downcall(linker, libc, "sigemptyset", FunctionDescriptor.of(JAVA_INT, ADDRESS));
+                    handles[13] = downcall(linker, libc, "sigaddset", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+                    handles[14] = downcall(linker, libc, "pipe2", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+                    handles[15] = downcall(linker, libc, "close", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+                    handles[16] = downcall(linker, libc, "waitpid", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+                    handles[17] = downcall(linker, libc, "strerror", FunctionDescriptor.of(ADDRESS, JAVA_INT));
+                } catch (RuntimeException | LinkageError e) {
+                    // missing symbol, or native access denied - ProcessBuilder it is
+                    available = false;
+                }
+            }
+            AVAILABLE = available;
+            POSIX_SPAWNP = handles[0];
+            FILE_ACTIONS_INIT = handles[1];
+            FILE_ACTIONS_DESTROY = handles[2];
+            FILE_ACTIONS_ADDOPEN = handles[3];
+            FILE_ACTIONS_ADDDUP2 = handles[4];
+            FILE_ACTIONS_ADDCHDIR = handles[5];
+            FILE_ACTIONS_ADDCLOSEFROM = handles[6];
+            SPAWNATTR_INIT = handles[7];
+            SPAWNATTR_DESTROY = handles[8];
+            SPAWNATTR_SETFLAGS = handles[9];
+            SPAWNATTR_SETSIGMASK = handles[10];
+            SPAWNATTR_SETSIGDEFAULT = handles[11];
+            SIGEMPTYSET = handles[12];
+            SIGADDSET = handles[13];
+            PIPE2 = handles[14];
+            CLOSE = handles[15];
+            WAITPID = handles[16];
+            STRERROR = handles[17];
+        }
+
+        private static MethodHandle downcall(Linker linker, SymbolLookup libc, String name, FunctionDescriptor descriptor) {
+            return linker.downcallHandle(
+                    libc.find(name).orElseThrow(() -> new UnsatisfiedLinkError(name)),
+                    descriptor
+            );
+        }
+
+        static Object invoke(MethodHandle handle, Object... args) {
+            try {
+                return handle.invokeWithArguments(args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Calls a libc function returning 0 or an error number
+         */
+        static void call(MethodHandle handle, Object... args) {
+            int error = (int) invoke(handle, args);
+            if (error != 0) {
+                throw new IllegalStateException("libc call failed: error=" + error + ", " + strerror(error));
+            }
+        }
+
+        /**
+         * Creates a pipe whose descriptors are closed on exec - processes only get the ends dup'ed to their stdio
+         * @return read & write descriptors
+         */
+        static int[] pipe(Arena arena) throws IOException {
+            MemorySegment fds = arena.allocate(JAVA_INT.byteSize() * 2, JAVA_INT.byteAlignment());
+            if ((int) invoke(PIPE2, fds, O_CLOEXEC) != 0) {
+                throw new IOException("pipe failed");
+            }
+            return new int[] { fds.getAtIndex(JAVA_INT, 0), fds.getAtIndex(JAVA_INT, 1) };
+        }
+
+        static void close(int fd) {
+            invoke(CLOSE, fd);
+        }
+
+        /**
+         * Waits for a process to exit & reaps it
+         * @return exit status, 128 + signal number if killed by a signal
+         */
+        static int waitFor(int pid) {
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment status = arena.allocate(JAVA_INT);
+                if ((int) invoke(WAITPID, pid, status, 0) == -1) {
+                    return -1;
+                }
+                int value = status.get(JAVA_INT, 0);
+                return (value & 0x7f) == 0 ? (value >> 8) & 0xff : 128 + (value & 0x7f);
+            }
+        }
+
+        static String strerror(int error) {
+            MemorySegment message = (MemorySegment) invoke(STRERROR, error);
+            return message.reinterpret(Long.MAX_VALUE).getString(0);
+        }
+    }
+}
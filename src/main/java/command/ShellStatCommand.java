@@ -0,0 +1,29 @@
+package command;
+
+import metrics.ShellMetrics;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Prints the shell's counters & latency histograms ({@code shellstat}), or resets them ({@code shellstat -r})
+ */
+public class ShellStatCommand implements CodeCraftersShellCommand {
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) {
+        if (args.length > 0 && args[0].equals("-r")) {
+            ShellMetrics.reset();
+            return;
+        }
+        if (args.length > 0) {
+            new PrintStream(errorStream).println("shellstat: usage: shellstat [-r]");
+            return;
+        }
+
+        PrintStream printStream = new PrintStream(outputStream);
+        printStream.print(ShellMetrics.snapshot());
+        printStream.flush();
+    }
+}
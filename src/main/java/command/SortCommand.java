@@ -0,0 +1,759 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Sorts lines of files, or of stdin for no files or {@code -} ({@code sort [-nru] [-t SEP] [-k KEY]... [-S SIZE]}),
+ * without starting a process. Lines are split at newlines only and kept as bytes, which compare unsigned (as in the
+ * C locale) and are output unchanged. Other options (-f, -h, -V...), key options besides n & r and -S sizes in other
+ * units (%) are left to the system sort.
+ *
+ * Lines are kept in memory up to a budget ({@code -S}, or CODECRAFTERS_SHELL_SORT_MEMORY bytes, 64 MiB by default).
+ * Input that doesn't fit is cut into runs of half the budget each (less the buffers): a full run is sorted (with a
+ * parallel sort) and spilled to a temp file on the task executor while the next one is read. The runs are then k-way
+ * merged in as many passes as needed, the buffers reading each run and writing the result splitting the budget.
+ */
+public class SortCommand implements CodeCraftersShellCommand {
+
+    private static final long DEFAULT_MEMORY = 64L * 1024 * 1024;
+    private static final long MEMORY = parseMemory(System.getenv("CODECRAFTERS_SHELL_SORT_MEMORY"));
+    // what a line costs besides its bytes: the array's header, and references to it from the run, its sorted copy
+    // & the sort's scratch space
+    private static final int LINE_OVERHEAD = 40;
+    // runs merged at once - more than this (or than the budget has buffers for) are merged into fewer runs first
+    private static final int MAX_MERGE_WIDTH = 64;
+    private static final int MIN_BUFFER = 4 * 1024;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public SortCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        PrintStream printStreamError = new PrintStream(errorStream);
+
+        // options come before the files - flags can be combined (-nr), values attached (-k2) or as next arg (-k 2)
+        KeyOptions options = new KeyOptions();
+        boolean unique = false;
+        Byte separator = null;
+        long memory = MEMORY;
+        List<String> keySpecs = new ArrayList<>();
+        int i = 0;
+        for (; i < args.length && UtilityFallback.isOption(args[i]); i++) {
+            if (args[i].equals("--")) { i++; break; }
+
+            String arg = args[i];
+            for (int j = 1; j < arg.length(); j++) {
+                char option = arg.charAt(j);
+                if (option == 'n' || option == 'r') {
+                    options.set(option);
+                    continue;
+                }
+                if (option == 'u') {
+                    unique = true;
+                    continue;
+                }
+                if (option != 't' && option != 'k' && option != 'S') {
+                    if (!UtilityFallback.execute(shellEnvironment, "sort", inputStream, outputStream, errorStream, args)) {
+                        printStreamError.println("sort: invalid option -- '" + option + "'");
+                    }
+                    return;
+                }
+
+                String value = j + 1 < arg.length() ? arg.substring(j + 1) : i + 1 < args.length ? args[++i] : null;
+                if (value == null) {
+                    printStreamError.println("sort: option requires an argument -- '" + option + "'");
+                    return;
+                }
+                if (option == 't') {
+                    byte[] separatorBytes = value.getBytes(StandardCharsets.UTF_8);
+                    if (separatorBytes.length != 1) {
+                        printStreamError.println("sort: multi-character tab '" + value + "'");
+                        return;
+                    }
+                    separator = separatorBytes[0];
+                } else if (option == 'k') {
+                    if (Key.hasOtherOptions(value)
+                            && UtilityFallback.execute(shellEnvironment, "sort", inputStream, outputStream, errorStream, args)) {
+                        return;
+                    }
+                    keySpecs.add(value);
+                } else {
+                    memory = parseSize(value);
+                    if (memory < 0) {
+                        if (!UtilityFallback.execute(shellEnvironment, "sort", inputStream, outputStream, errorStream, args)) {
+                            printStreamError.println("sort: invalid -S argument '" + value + "'");
+                        }
+                        return;
+                    }
+                }
+                break;
+            }
+        }
+
+        if (UtilityFallback.hasTrailingOption(args, i)
+                && UtilityFallback.execute(shellEnvironment, "sort", inputStream, outputStream, errorStream, args)) {
+            return;
+        }
+
+        List<Key> keys = new ArrayList<>(keySpecs.size());
+        for (String keySpec : keySpecs) {
+            Key key = Key.parse(keySpec, options, separator);
+            if (key == null) {
+                printStreamError.println("sort: invalid field specification '" + keySpec + "'");
+                return;
+            }
+            keys.add(key);
+        }
+        // no keys is the whole line as the key
+        if (keys.isEmpty()) {
+            keys.add(new Key(1, 1, 0, 0, options, separator));
+        }
+
+        Comparator<byte[]> keyComparator = keys.stream()
+                .map(Key::comparator)
+                .reduce(Comparator::thenComparing)
+                .orElseThrow();
+        // lines with equal keys compare as a whole, unless only the first of them is kept anyway
+        Comparator<byte[]> lineComparator = Arrays::compareUnsigned;
+        Comparator<byte[]> comparator = unique
+                ? keyComparator
+                : keyComparator.thenComparing(options.reverse ? lineComparator.reversed() : lineComparator);
+
+        // every file must open before anything is sorted - null for stdin
+        String[] names = i < args.length ? Arrays.copyOfRange(args, i, args.length) : new String[] { "-" };
+        List<FileChannel> channels = new ArrayList<>(names.length);
+        try {
+            for (String name : names) {
+                try {
+                    channels.add(name.equals("-") ? null : FileInput.open(shellEnvironment, name));
+                } catch (IOException e) {
+                    printStreamError.println("sort: cannot read: " + e.getMessage());
+                    return;
+                }
+            }
+
+            try (ExternalSorter sorter = new ExternalSorter(comparator, unique, memory, shellEnvironment.getTaskExecutor())) {
+                for (FileChannel channel : channels) {
+                    // a last line without a newline is still a line of its own
+                    LineSplitter splitter = new LineSplitter(sorter);
+                    if (channel != null) {
+                        FileInput.scan(channel, 0, splitter);
+                    } else {
+                        FileInput.scan(inputStream, splitter);
+                    }
+                    splitter.finish();
+                }
+
+                sorter.finish(outputStream);
+            }
+        } finally {
+            for (FileChannel channel : channels) {
+                if (channel != null) channel.close();
+            }
+        }
+    }
+
+    /**
+     * Parses a size like {@code 100M}: KiB without a unit, or b (bytes), K, M, G, T, P, E (binary) units. A size too
+     * large for a long is the largest one
+     * @return size in bytes, or -1 if it isn't a size sort takes itself (% or other units, or not a number at all) -
+     * those are left to the system sort, which takes or reports them
+     */
+    private static long parseSize(String value) {
+        int digits = 0;
+        while (digits < value.length() && value.charAt(digits) >= '0' && value.charAt(digits) <= '9') digits++;
+        if (digits == 0 || value.length() - digits > 1) return -1;
+
+        int shift = 10;
+        if (digits < value.length()) {
+            char unit = value.charAt(digits);
+            if (unit == 'b') {
+                shift = 0;
+            } else if ("kKmMgGtTPE".indexOf(unit) >= 0) {
+                shift = 10 * ("KMGTPE".indexOf(Character.toUpperCase(unit)) + 1);
+            } else {
+                return -1;
+            }
+        }
+        try {
+            long size = Long.parseLong(value.substring(0, digits));
+            return size > Long.MAX_VALUE >> shift ? Long.MAX_VALUE : size << shift;
+        } catch (NumberFormatException e) { // too many digits for a long
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Parses the default memory budget (CODECRAFTERS_SHELL_SORT_MEMORY)
+     * @param value bytes, may be null
+     * @return budget in bytes - the default if unset, not a number or too large
+     */
+    private static long parseMemory(String value) {
+        if (value == null || !value.matches("[0-9]+")) return DEFAULT_MEMORY;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return DEFAULT_MEMORY;
+        }
+    }
+
+    /**
+     * Splits input at newlines into lines, which are added to a sorter. A line may go on from one chunk of input
+     * into the next.
+     */
+    private static final class LineSplitter implements FileInput.Scanner {
+
+        private final ExternalSorter sorter;
+        private byte[] partial;
+        private int partialLength;
+
+        LineSplitter(ExternalSorter sorter) {
+            this.sorter = sorter;
+            this.partial = new byte[256];
+        }
+
+        @Override
+        public boolean scan(ByteBuffer bytes) throws IOException {
+            int lineStart = bytes.position();
+            int limit = bytes.limit();
+            for (int i = lineStart; i < limit; i++) {
+                if (bytes.get(i) != '\n') continue;
+                byte[] line;
+                if (partialLength == 0) {
+                    line = new byte[i - lineStart];
+                    bytes.get(lineStart, line);
+                } else {
+                    append(bytes, lineStart, i);
+                    line = Arrays.copyOf(partial, partialLength);
+                    partialLength = 0;
+                }
+                sorter.add(line);
+                lineStart = i + 1;
+            }
+            append(bytes, lineStart, limit);
+            return true;
+        }
+
+        /**
+         * Adds the last line, if input doesn't end with a newline
+         */
+        void finish() throws IOException {
+            if (partialLength > 0) {
+                sorter.add(Arrays.copyOf(partial, partialLength));
+                partialLength = 0;
+            }
+        }
+
+        private void append(ByteBuffer bytes, int start, int end) {
+            int length = end - start;
+            if (partialLength + length > partial.length) {
+                partial = Arrays.copyOf(partial, Math.max(partialLength + length, partial.length * 2));
+            }
+            bytes.get(start, partial, partialLength, length);
+            partialLength += length;
+        }
+    }
+
+    /**
+     * Ordering options, of the whole line or of a single key
+     */
+    private static final class KeyOptions {
+
+        private boolean numeric;
+        private boolean reverse;
+
+        void set(char option) {
+            if (option == 'n') numeric = true;
+            else reverse = true;
+        }
+
+        boolean isEmpty() {
+            return !numeric && !reverse;
+        }
+    }
+
+    /**
+     * A sort key, {@code -k F[.C][OPTS][,F[.C][OPTS]]}: from char C of field F (both from 1) up to the end of the
+     * line, or up to char C (0 for its end) of the second field. Fields are split at the separator or, without one,
+     * start where a run of blanks does (so they include their leading blanks, like GNU sort).
+     */
+    private static final class Key {
+
+        private final int startField;
+        private final int startChar;
+        private final int endField;
+        private final int endChar;
+        private final KeyOptions options;
+        private final Byte separator;
+
+        Key(int startField, int startChar, int endField, int endChar, KeyOptions options, Byte separator) {
+            this.startField = startField;
+            this.startChar = startChar;
+            this.endField = endField;
+            this.endChar = endChar;
+            this.options = options;
+            this.separator = separator;
+        }
+
+        /**
+         * Checks if a key has ordering options other than n & r ({@code -k 2b}, {@code -k 3M}...), which the system
+         * sort handles
+         * @param spec key as given to -k
+         * @return true if it has other options
+         */
+        static boolean hasOtherOptions(String spec) {
+            return spec.chars().anyMatch(c -> "bdfghiMRV".indexOf(c) >= 0);
+        }
+
+        /**
+         * Parses a key, which gets the global ordering options if it has none of its own
+         * @return key, or null if spec is invalid
+         */
+        static Key parse(String spec, KeyOptions globalOptions, Byte separator) {
+            KeyOptions keyOptions = new KeyOptions();
+            String[] positions = spec.split(",", -1);
+            if (positions.length > 2) return null;
+
+            int[][] parsed = new int[positions.length][];
+            for (int i = 0; i < positions.length; i++) {
+                String position = positions[i];
+                int optionsStart = position.length();
+                while (optionsStart > 0 && Character.isLetter(position.charAt(optionsStart - 1))) optionsStart--;
+                for (char option : position.substring(optionsStart).toCharArray()) {
+                    if (option != 'n' && option != 'r') return null;
+                    keyOptions.set(option);
+                }
+
+                String[] fieldAndChar = position.substring(0, optionsStart).split("\\.", -1);
+                if (fieldAndChar.length > 2) return null;
+                try {
+                    int field = Integer.parseInt(fieldAndChar[0]);
+                    int character = fieldAndChar.length == 2 ? Integer.parseInt(fieldAndChar[1]) : i == 0 ? 1 : 0;
+                    if (field < 1 || character < (i == 0 ? 1 : 0)) return null;
+                    parsed[i] = new int[] { field, character };
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+
+            int[] end = parsed.length == 2 ? parsed[1] : new int[] { 0, 0 };
+            return new Key(parsed[0][0], parsed[0][1], end[0], end[1],
+                    keyOptions.isEmpty() ? globalOptions : keyOptions, separator);
+        }
+
+        Comparator<byte[]> comparator() {
+            Comparator<byte[]> comparator = (a, b) -> {
+                int aStart = start(a), aEnd = Math.max(end(a), aStart);
+                int bStart = start(b), bEnd = Math.max(end(b), bStart);
+                return options.numeric
+                        ? compareNumbers(a, aStart, aEnd, b, bStart, bEnd)
+                        : Arrays.compareUnsigned(a, aStart, aEnd, b, bStart, bEnd);
+            };
+            return options.reverse ? comparator.reversed() : comparator;
+        }
+
+        private int start(byte[] line) {
+            int fieldStart = fieldStart(line, startField);
+            return Math.min(fieldStart + startChar - 1, fieldEnd(line, fieldStart));
+        }
+
+        private int end(byte[] line) {
+            if (endField == 0) {
+                return line.length;
+            }
+            int fieldStart = fieldStart(line, endField);
+            int fieldEnd = fieldEnd(line, fieldStart);
+            return endChar == 0 ? fieldEnd : Math.min(fieldStart + endChar, fieldEnd);
+        }
+
+        private int fieldStart(byte[] line, int field) {
+            int position = 0;
+            for (int i = 1; i < field && position < line.length; i++) {
+                position = fieldEnd(line, position);
+                if (separator != null && position < line.length) position++;
+            }
+            return Math.min(position, line.length);
+        }
+
+        private int fieldEnd(byte[] line, int fieldStart) {
+            int position = fieldStart;
+            if (separator != null) {
+                while (position < line.length && line[position] != separator) position++;
+                return position;
+            }
+            while (position < line.length && isBlank(line[position])) position++;
+            while (position < line.length && !isBlank(line[position])) position++;
+            return position;
+        }
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Compares the numbers keys start with, like sort -n: after leading blanks an optional minus, digits and an
+     * optional fraction. A key not starting with a number is 0. Digits are compared as text, so any length works.
+     */
+    private static int compareNumbers(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        while (aStart < aEnd && isBlank(a[aStart])) aStart++;
+        while (bStart < bEnd && isBlank(b[bStart])) bStart++;
+        boolean aNegative = aStart < aEnd && a[aStart] == '-';
+        boolean bNegative = bStart < bEnd && b[bStart] == '-';
+        if (aNegative) aStart++;
+        if (bNegative) bStart++;
+
+        int magnitude = compareMagnitudes(a, aStart, aEnd, b, bStart, bEnd);
+        // -0 is 0, so only a non-zero number has a sign
+        int aSign = compareMagnitudes(a, aStart, aEnd, NO_BYTES, 0, 0) == 0 ? 0 : aNegative ? -1 : 1;
+        int bSign = compareMagnitudes(b, bStart, bEnd, NO_BYTES, 0, 0) == 0 ? 0 : bNegative ? -1 : 1;
+        if (aSign != bSign) return Integer.compare(aSign, bSign);
+        return aSign < 0 ? -magnitude : magnitude;
+    }
+
+    private static int compareMagnitudes(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        while (aStart < aEnd && a[aStart] == '0') aStart++;
+        while (bStart < bEnd && b[bStart] == '0') bStart++;
+        int aDigits = digitsEnd(a, aStart, aEnd) - aStart;
+        int bDigits = digitsEnd(b, bStart, bEnd) - bStart;
+        if (aDigits != bDigits) return Integer.compare(aDigits, bDigits);
+        for (int i = 0; i < aDigits; i++) {
+            int diff = a[aStart + i] - b[bStart + i];
+            if (diff != 0) return diff;
+        }
+
+        // fractions digit by digit, a missing digit being 0
+        int aFraction = aStart + aDigits, bFraction = bStart + bDigits;
+        aFraction = aFraction < aEnd && a[aFraction] == '.' ? aFraction + 1 : aEnd;
+        bFraction = bFraction < bEnd && b[bFraction] == '.' ? bFraction + 1 : bEnd;
+        int aFractionEnd = digitsEnd(a, aFraction, aEnd), bFractionEnd = digitsEnd(b, bFraction, bEnd);
+        while (aFraction < aFractionEnd || bFraction < bFractionEnd) {
+            byte aDigit = aFraction < aFractionEnd ? a[aFraction++] : (byte) '0';
+            byte bDigit = bFraction < bFractionEnd ? b[bFraction++] : (byte) '0';
+            if (aDigit != bDigit) return aDigit - bDigit;
+        }
+        return 0;
+    }
+
+    private static int digitsEnd(byte[] s, int start, int end) {
+        while (start < end && s[start] >= '0' && s[start] <= '9') start++;
+        return start;
+    }
+
+    /**
+     * Collects lines into runs, spilling full runs to temp files, then merges them all into the output.
+     * Temp files are deleted when closed.
+     */
+    private static final class ExternalSorter implements Closeable {
+
+        private final Comparator<byte[]> comparator;
+        private final boolean unique;
+        private final long memory;
+        private final Executor executor;
+        private final List<Path> runFiles;
+        // a run being read & one being spilled share the budget, less the buffers reading input & writing the spill
+        private final int spillBufferSize;
+        private final long runMemory;
+        private List<byte[]> run;
+        private long runBytes;
+        private boolean spilled;
+        private CompletableFuture<Void> spilling;
+
+        ExternalSorter(Comparator<byte[]> comparator, boolean unique, long memory, Executor executor) {
+            this.comparator = comparator;
+            this.unique = unique;
+            this.memory = memory;
+            this.executor = executor;
+            this.runFiles = new ArrayList<>();
+            this.spillBufferSize = Math.clamp(memory / 16, MIN_BUFFER, FileInput.BUFFER_SIZE);
+            this.runMemory = Math.max((memory - FileInput.BUFFER_SIZE - spillBufferSize) / 2, MIN_BUFFER);
+            this.run = new ArrayList<>();
+            this.spilling = CompletableFuture.completedFuture(null);
+        }
+
+        void add(byte[] line) throws IOException {
+            run.add(line);
+            runBytes += line.length + LINE_OVERHEAD;
+            if (runBytes >= runMemory) {
+                spill();
+            }
+        }
+
+        /**
+         * Writes all lines, sorted, to an output stream
+         */
+        void finish(OutputStream outputStream) throws IOException {
+            // all fit in memory - no temp files at all
+            if (!spilled) {
+                byte[][] lines = sort(run);
+                run = null;
+                BufferedOutputStream output = new BufferedOutputStream(outputStream, FileInput.BUFFER_SIZE);
+                writeLines(Arrays.asList(lines), line -> writeLine(line, output));
+                output.flush();
+                return;
+            }
+
+            spill();
+            awaitSpilling();
+            // each run merged at once gets a buffer, and so does the merged output
+            int mergeWidth = Math.clamp(memory / MIN_BUFFER - 1, 2, MAX_MERGE_WIDTH);
+            List<Path> runs = new ArrayList<>(runFiles);
+            while (runs.size() > mergeWidth) {
+                List<Path> mergedRuns = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += mergeWidth) {
+                    List<Path> group = runs.subList(i, Math.min(i + mergeWidth, runs.size()));
+                    if (group.size() == 1) {
+                        mergedRuns.add(group.getFirst());
+                        continue;
+                    }
+                    Path mergedRun = createRunFile();
+                    int bufferSize = mergeBufferSize(group.size());
+                    try (RunWriter runWriter = new RunWriter(mergedRun, bufferSize)) {
+                        merge(group, bufferSize, runWriter::write);
+                    }
+                    mergedRuns.add(mergedRun);
+                }
+                runs = mergedRuns;
+            }
+
+            int bufferSize = mergeBufferSize(runs.size());
+            BufferedOutputStream output = new BufferedOutputStream(outputStream, bufferSize);
+            merge(runs, bufferSize, line -> writeLine(line, output));
+            output.flush();
+        }
+
+        private int mergeBufferSize(int runs) {
+            return Math.clamp(memory / (runs + 1), MIN_BUFFER, Integer.MAX_VALUE - 8);
+        }
+
+        private void spill() throws IOException {
+            List<byte[]> fullRun = run;
+            run = new ArrayList<>();
+            runBytes = 0;
+            spilled = true;
+            // only one run is spilled at a time, so memory stays within budget
+            awaitSpilling();
+            spilling = CompletableFuture.runAsync(() -> {
+                try {
+                    Path runFile = createRunFile();
+                    try (RunWriter runWriter = new RunWriter(runFile, spillBufferSize)) {
+                        writeLines(Arrays.asList(sort(fullRun)), runWriter::write);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        }
+
+        private void awaitSpilling() throws IOException {
+            try {
+                spilling.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException ioException) throw ioException.getCause();
+                throw e;
+            }
+        }
+
+        private byte[][] sort(List<byte[]> lines) {
+            byte[][] sorted = lines.toArray(byte[][]::new);
+            Arrays.parallelSort(sorted, comparator);
+            return sorted;
+        }
+
+        /**
+         * Writes sorted lines, only the first of equal ones with -u
+         */
+        private void writeLines(Iterable<byte[]> lines, LineWriter writer) throws IOException {
+            byte[] previous = null;
+            for (byte[] line : lines) {
+                if (unique && previous != null && comparator.compare(previous, line) == 0) continue;
+                writer.write(line);
+                previous = line;
+            }
+        }
+
+        private static void writeLine(byte[] line, OutputStream outputStream) throws IOException {
+            outputStream.write(line);
+            outputStream.write('\n');
+        }
+
+        /**
+         * Merges sorted runs into a writer, reading each through a buffer of the given size
+         */
+        private void merge(List<Path> runs, int bufferSize, LineWriter writer) throws IOException {
+            PriorityQueue<RunReader> heads = new PriorityQueue<>(runs.size(), (a, b) -> comparator.compare(a.line, b.line));
+            try {
+                for (Path runFile : runs) {
+                    RunReader runReader = new RunReader(runFile, bufferSize);
+                    if (runReader.advance()) heads.add(runReader);
+                    else runReader.close();
+                }
+
+                byte[] previous = null;
+                while (!heads.isEmpty()) {
+                    RunReader head = heads.poll();
+                    byte[] line = head.line;
+                    if (!unique || previous == null || comparator.compare(previous, line) != 0) {
+                        writer.write(line);
+                        previous = line;
+                    }
+                    if (head.advance()) heads.add(head);
+                    else head.close();
+                }
+            } finally {
+                for (RunReader runReader : heads) {
+                    runReader.close();
+                }
+            }
+        }
+
+        private synchronized Path createRunFile() throws IOException {
+            Path runFile = Files.createTempFile("codecrafters-sort-", ".run");
+            runFiles.add(runFile);
+            return runFile;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // a spill still running (sort failed half-way) must be done before its file can be deleted
+            try {
+                spilling.join();
+            } catch (CompletionException ignored) {}
+            for (Path runFile : runFiles) {
+                Files.deleteIfExists(runFile);
+            }
+        }
+    }
+
+    /**
+     * Writes a line, adding its newline
+     */
+    @FunctionalInterface
+    private interface LineWriter {
+        void write(byte[] line) throws IOException;
+    }
+
+    /**
+     * Writes lines to a run file through a direct buffer - a heap one would be copied into a temporary direct buffer
+     * of the same size on every write, outside of the budget
+     */
+    private static final class RunWriter implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        RunWriter(Path runFile, int bufferSize) throws IOException {
+            this.channel = FileChannel.open(runFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        void write(byte[] line) throws IOException {
+            if (buffer.remaining() <= line.length) {
+                flush();
+            }
+            if (buffer.remaining() <= line.length) {
+                // longer than the buffer - written straight from the line
+                ByteBuffer lineBuffer = ByteBuffer.wrap(line);
+                while (lineBuffer.hasRemaining()) channel.write(lineBuffer);
+                buffer.put((byte) '\n');
+                return;
+            }
+            buffer.put(line).put((byte) '\n');
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (channel) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Reads a run a line at a time, through a direct buffer
+     */
+    private static final class RunReader implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private byte[] line;
+
+        RunReader(Path runFile, int bufferSize) throws IOException {
+            this.channel = FileChannel.open(runFile, StandardOpenOption.READ);
+            this.buffer = ByteBuffer.allocateDirect(bufferSize).flip();
+        }
+
+        /**
+         * Moves to the next line
+         * @return false at end of run
+         */
+        boolean advance() throws IOException {
+            // a line longer than what's left in the buffer is put together from several reads
+            byte[] partial = null;
+            while (true) {
+                int start = buffer.position();
+                int limit = buffer.limit();
+                for (int i = start; i < limit; i++) {
+                    if (buffer.get(i) == '\n') {
+                        line = append(partial, start, i);
+                        buffer.position(i + 1);
+                        return true;
+                    }
+                }
+                partial = append(partial, start, limit);
+                buffer.clear();
+                int n = channel.read(buffer);
+                buffer.flip();
+                if (n == -1) {
+                    // every line of a run ends with a newline, so there's nothing left
+                    line = null;
+                    return false;
+                }
+            }
+        }
+
+        private byte[] append(byte[] partial, int start, int end) {
+            int offset = partial == null ? 0 : partial.length;
+            byte[] bytes = partial == null ? new byte[end - start] : Arrays.copyOf(partial, offset + end - start);
+            buffer.get(start, bytes, offset, end - start);
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package command;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Where one of a command's standard streams is connected: one of the streams the command is run with
+ * (its stdin, stdout or stderr before redirections), or a file opened by a redirection.
+ *
+ * File targets are opened when created, so errors show up (and output files are truncated) in redirection
+ * order, before the command runs. Closing a target closes its file.
+ */
+public final class StreamTarget implements Closeable {
+
+    public enum Kind { INPUT, OUTPUT, ERROR, FILE }
+
+    public static final StreamTarget INPUT = new StreamTarget(Kind.INPUT, null, null);
+    public static final StreamTarget OUTPUT = new StreamTarget(Kind.OUTPUT, null, null);
+    public static final StreamTarget ERROR = new StreamTarget(Kind.ERROR, null, null);
+
+    private final Kind kind;
+    private final Path file;
+    private final FileChannel channel;
+
+    private StreamTarget(Kind kind, Path file, FileChannel channel) {
+        this.kind = kind;
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a file to read from
+     * @param file file to read
+     * @return target reading from file
+     * @throws IOException if file can't be opened
+     */
+    public static StreamTarget openForReading(Path file) throws IOException {
+        return new StreamTarget(Kind.FILE, file, FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * Opens a file to write to, creating it if needed
+     * @param file file to write
+     * @param append true to append to file, false to truncate it
+     * @return target writing to file
+     * @throws IOException if file can't be opened
+     */
+    public static StreamTarget openForWriting(Path file, boolean append) throws IOException {
+        FileChannel channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING
+        );
+        return new StreamTarget(Kind.FILE, file, channel);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets file of a file target
+     * @return file, or null if target isn't a file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Gets open channel of a file target
+     * @return channel, or null if target isn't a file
+     */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
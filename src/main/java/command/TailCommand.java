@@ -0,0 +1,224 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Outputs the last lines (or bytes) of files, or of stdin for no files or {@code -}, without starting a process.
+ *
+ * Files (including a redirected stdin) are read backwards from their end until the start of the last lines is found,
+ * so only the end of a large file is ever read. A pipe can't be read backwards: its input is kept in a buffer that's
+ * cut down to its last lines whenever it grows large.
+ */
+public class TailCommand implements CodeCraftersShellCommand {
+
+    // a buffered pipe input is cut down to its tail once it's past this
+    private static final int COMPACT_THRESHOLD = 1024 * 1024;
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public TailCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        if (!CountOptions.isSupported(args)
+                && UtilityFallback.execute(shellEnvironment, "tail", inputStream, outputStream, errorStream, args)) {
+            return;
+        }
+
+        PrintStream printStream = new PrintStream(outputStream);
+        PrintStream printStreamError = new PrintStream(errorStream);
+        CountOptions options = CountOptions.parse("tail", args, printStreamError);
+        if (options == null) {
+            return;
+        }
+
+        int files = args.length - options.getFirstOperand();
+        try {
+            if (files == 0) {
+                tail(inputStream, options, outputStream);
+            }
+            // with more than one file, each one gets a header
+            for (int i = options.getFirstOperand(); i < args.length; i++) {
+                if (files > 1) {
+                    if (i > options.getFirstOperand()) printStream.println();
+                    printStream.println("==> " + (args[i].equals("-") ? "standard input" : args[i]) + " <==");
+                }
+                if (args[i].equals("-")) {
+                    tail(inputStream, options, outputStream);
+                    continue;
+                }
+
+                FileChannel channel;
+                try {
+                    channel = FileInput.open(shellEnvironment, args[i]);
+                } catch (IOException e) {
+                    printStream.flush();
+                    printStreamError.println("tail: " + e.getMessage());
+                    continue;
+                }
+                try (channel) {
+                    tail(channel, 0, options, outputStream);
+                }
+            }
+        } finally {
+            printStream.flush();
+        }
+    }
+
+    private static void tail(InputStream inputStream, CountOptions options, OutputStream outputStream) throws IOException {
+        FileChannel channel = FileInput.channel(inputStream);
+        if (channel != null) {
+            tail(channel, channel.position(), options, outputStream);
+            return;
+        }
+        tailStream(inputStream, null, options, outputStream);
+    }
+
+    private static void tail(FileChannel channel, long position, CountOptions options, OutputStream outputStream) throws IOException {
+        long size = channel.size();
+        // files that don't know their size (e.g. in /proc) can only be read forwards
+        if (size == 0) {
+            tailStream(null, channel, options, outputStream);
+            return;
+        }
+
+        long start = options.isBytes()
+                ? Math.max(size - options.getCount(), position)
+                : lineTailStart(channel, position, size, options.getCount());
+        FileInput.copy(channel, start, size, outputStream);
+    }
+
+    /**
+     * Finds where the last lines of a file start, reading backwards from its end a window at a time
+     */
+    private static long lineTailStart(FileChannel channel, long position, long size, long lines) throws IOException {
+        if (lines == 0) {
+            return size;
+        }
+
+        long[] newlines = { lines };
+        long end = size;
+        while (end > position) {
+            long start = Math.max(end - FileInput.WINDOW_SIZE, position);
+            ByteBuffer window = read(channel, start, (int) (end - start));
+            // a newline at the very end ends the last line, it doesn't start another
+            int limit = end == size && window.get(window.limit() - 1) == '\n' ? window.limit() - 1 : window.limit();
+            int index = lineTailStart(window, limit, newlines);
+            if (index >= 0) {
+                return start + index;
+            }
+            end = start;
+        }
+        return position;
+    }
+
+    /**
+     * Looks backwards through bytes for the newline in front of the last lines
+     * @param bytes bytes to look through, from 0
+     * @param limit where to start looking back from
+     * @param newlines newlines still to find, counted down
+     * @return index just after the newline in front of the last lines, or -1 if they start before these bytes
+     */
+    private static int lineTailStart(ByteBuffer bytes, int limit, long[] newlines) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (bytes.get(i) == '\n' && --newlines[0] == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets a region of a file, mapped if it's large - and as only the last lines are looked at, only its last pages
+     * are actually read
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        if (length >= FileInput.MAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) != -1) {
+            // read until full or end of file
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Keeps the tail of input that can only be read forwards, from a stream or else a channel
+     */
+    private static void tailStream(InputStream inputStream,
+                                   FileChannel channel,
+                                   CountOptions options,
+                                   OutputStream outputStream) throws IOException {
+        TailBuffer tailBuffer = new TailBuffer(options);
+        if (inputStream != null) {
+            FileInput.scan(inputStream, tailBuffer::append);
+        } else {
+            FileInput.scan(channel, 0, tailBuffer::append);
+        }
+        tailBuffer.compact();
+        outputStream.write(tailBuffer.buffer, 0, tailBuffer.length);
+    }
+
+    /**
+     * Growing buffer holding (at least) the tail of what was appended to it
+     */
+    private static final class TailBuffer {
+
+        private final CountOptions options;
+        private byte[] buffer;
+        private int length;
+        private int compactedLength;
+
+        TailBuffer(CountOptions options) {
+            this.options = options;
+            this.buffer = new byte[FileInput.BUFFER_SIZE];
+        }
+
+        boolean append(ByteBuffer bytes) {
+            int n = bytes.remaining();
+            if (length + n > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + n));
+            }
+            bytes.get(buffer, length, n);
+            length += n;
+
+            // the tail of all input is in the tail of what came so far followed by what's still to come
+            if (length > COMPACT_THRESHOLD && length > 2 * compactedLength) {
+                compact();
+            }
+            return true;
+        }
+
+        /**
+         * Drops everything in front of the tail
+         */
+        void compact() {
+            int start;
+            if (options.isBytes()) {
+                start = (int) Math.max(length - options.getCount(), 0);
+            } else if (options.getCount() == 0) {
+                start = length;
+            } else {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+                int limit = length > 0 && buffer[length - 1] == '\n' ? length - 1 : length;
+                start = Math.max(lineTailStart(bytes, limit, new long[] { options.getCount() }), 0);
+            }
+
+            System.arraycopy(buffer, start, buffer, 0, length - start);
+            length -= start;
+            compactedLength = length;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+import environment.ExecutionTrace;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Times a command & reports where its time went. As a prefix of a line ({@code time cmd | cmd}) the shell times
+ * the whole line itself; this builtin runs when time is a pipeline stage, timing the command in its arguments.
+ */
+public class TimeCommand implements CodeCraftersShellCommand {
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public TimeCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        ExecutionTrace trace = new ExecutionTrace();
+        trace.begin();
+        try {
+            if (args.length > 0) {
+                Optional<CodeCraftersShellCommand> command = shellEnvironment.resolveCommand(args[0]);
+                if (command.isEmpty()) {
+                    new PrintStream(outputStream).println(args[0] + ": command not found");
+                } else {
+                    // external commands record their own phases
+                    long start = System.nanoTime();
+                    command.get().execute(inputStream, outputStream, errorStream, Arrays.copyOfRange(args, 1, args.length));
+                    if (!(command.get() instanceof PathCommand)) {
+                        ExecutionTrace.record(ExecutionTrace.Phase.RUN, start);
+                    }
+                }
+            }
+        } finally {
+            trace.end();
+        }
+
+        outputStream.flush();
+        printReport(trace, errorStream);
+    }
+
+    /**
+     * Prints times of a trace like bash does, followed by its phases & the bytes each pipeline stage passed on
+     * @param trace finished trace
+     * @param errorStream stream to print to
+     */
+    public static void printReport(ExecutionTrace trace, OutputStream errorStream) {
+        StringBuilder report = new StringBuilder(256);
+        report.append('\n');
+        appendTime(report, "real", trace.getWallNanos());
+        appendTime(report, "user", trace.getUsage().getUserNanos());
+        appendTime(report, "sys", trace.getUsage().getSystemNanos());
+
+        report.append('\n');
+        for (ExecutionTrace.Phase phase : ExecutionTrace.Phase.values()) {
+            report.append(String.format("%s\t%.3fms%n", phase.name().toLowerCase(), trace.getPhaseNanos(phase) / 1e6));
+        }
+
+        List<String> stageNames = trace.getStageNames();
+        List<Long> stageBytes = trace.getStageBytes();
+        for (int i = 0; i < stageNames.size(); i++) {
+            long bytes = stageBytes.get(i);
+            report.append(String.format("stage %d\t%s\t%s%n", i + 1, bytes < 0 ? "-" : bytes + " bytes", stageNames.get(i)));
+        }
+
+        PrintStream printStream = new PrintStream(errorStream);
+        printStream.print(report);
+        printStream.flush();
+    }
+
+    private static void appendTime(StringBuilder report, String name, long nanos) {
+        long millis = Math.max(nanos, 0) / 1_000_000;
+        report.append(String.format("%s\t%dm%d.%03ds%n", name, millis / 60_000, millis / 1000 % 60, millis % 1000));
+    }
+}
@@ -22,7 +22,9 @@ public class TypeCommand implements CodeCraftersShellCommand {
         PrintStream printStreamError = new PrintStream(errorStream);
 
         for (String arg : args) {
-            if (shellEnvironment.hasBuiltinCommand(arg)) {
+            // builtins standing in for a utility are reported as the utility, like before they existed
+            if (shellEnvironment.hasBuiltinCommand(arg)
+                    && !(shellEnvironment.isUtilityCommand(arg) && shellEnvironment.hasCommand(arg))) {
                 printStream.println(arg + " is a shell builtin");
                 continue;
             }
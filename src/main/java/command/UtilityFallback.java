@@ -0,0 +1,68 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+
+/**
+ * Runs the system utility a builtin stands in for (cat, head, grep...) when the builtin is given options it doesn't
+ * implement, so {@code tail -f} or {@code cat -n} keep working as they did before the builtin existed.
+ */
+final class UtilityFallback {
+
+    private UtilityFallback() {}
+
+    /**
+     * Runs the utility of the same name found in $PATH, with the builtin's streams & args
+     * @param shellEnvironment environment to look up $PATH in
+     * @param name name of the utility
+     * @param inputStream stdin of the builtin
+     * @param outputStream stdout of the builtin
+     * @param errorStream stderr of the builtin
+     * @param args args of the builtin
+     * @return true if it ran, false if there's no such utility (the builtin then reports the option itself)
+     * @throws Exception if the utility can't be started or waiting for it is interrupted
+     */
+    static boolean execute(CodeCraftersShellEnvironment shellEnvironment,
+                           String name,
+                           InputStream inputStream,
+                           OutputStream outputStream,
+                           OutputStream errorStream,
+                           String... args) throws Exception {
+        Optional<CodeCraftersShellCommand> utility = shellEnvironment.getCommand(name);
+        if (utility.isEmpty()) {
+            return false;
+        }
+        utility.get().execute(inputStream, outputStream, errorStream, args);
+        return true;
+    }
+
+    /**
+     * Checks if an arg is an option - anything starting with a dash, except a lone dash (stdin)
+     * @param arg arg to check
+     * @return true if option
+     */
+    static boolean isOption(String arg) {
+        return arg.startsWith("-") && arg.length() > 1;
+    }
+
+    /**
+     * Checks if there's an option after the first operand (before {@code --}), which utilities also take but the
+     * builtins don't
+     * @param args args of the builtin
+     * @param firstOperand index of first arg after the leading options
+     * @return true if an option comes after an operand
+     */
+    static boolean hasTrailingOption(String[] args, int firstOperand) {
+        if (firstOperand > 0 && args[firstOperand - 1].equals("--")) {
+            return false;
+        }
+        for (int i = firstOperand; i < args.length; i++) {
+            if (args[i].equals("--")) return false;
+            if (isOption(args[i])) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,57 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+import environment.Job;
+import environment.JobTable;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class WaitCommand implements CodeCraftersShellCommand {
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public WaitCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        PrintStream printStreamError = new PrintStream(errorStream);
+        JobTable jobTable = shellEnvironment.getJobTable();
+
+        // no args waits for every job
+        List<Job> jobs = jobTable.jobs();
+        if (args.length > 0) {
+            jobs = new ArrayList<>(args.length);
+            for (String arg : args) {
+                Optional<Job> job = arg.startsWith("%") ? jobTable.find(arg) : findByPid(jobTable, arg);
+                if (job.isEmpty()) {
+                    printStreamError.println(arg.startsWith("%")
+                            ? "wait: " + arg + ": no such job"
+                            : "wait: pid " + arg + " is not a child of this shell");
+                    continue;
+                }
+                jobs.add(job.get());
+            }
+        }
+
+        // waited for jobs aren't reported as done at next prompt
+        for (Job job : jobs) {
+            job.await();
+            jobTable.remove(job);
+        }
+    }
+
+    private static Optional<Job> findByPid(JobTable jobTable, String pid) {
+        try {
+            return jobTable.findByPid(Long.parseLong(pid));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+}
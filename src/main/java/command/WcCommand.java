@@ -0,0 +1,195 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Counts lines, words and bytes of files, or of stdin for no files or {@code -}, without starting a process.
+ *
+ * Files are counted from memory-mapped windows. Only counting bytes of a regular file doesn't read it at all,
+ * its size is the count.
+ */
+public class WcCommand implements CodeCraftersShellCommand {
+
+    // counts are right-aligned to at least this when one of the inputs has no size known up front
+    private static final int STREAM_WIDTH = 7;
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public WcCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        PrintStream printStream = new PrintStream(outputStream);
+        PrintStream printStreamError = new PrintStream(errorStream);
+
+        // -l, -w, -c in any combination (-lw), all three if none - other options (-m, -L...) are left to the system wc
+        boolean lines = false, words = false, bytes = false;
+        int i = 0;
+        for (; i < args.length && UtilityFallback.isOption(args[i]); i++) {
+            if (args[i].equals("--")) { i++; break; }
+            for (char option : args[i].substring(1).toCharArray()) {
+                switch (option) {
+                    case 'l' -> lines = true;
+                    case 'w' -> words = true;
+                    case 'c' -> bytes = true;
+                    default -> {
+                        if (!UtilityFallback.execute(shellEnvironment, "wc", inputStream, outputStream, errorStream, args)) {
+                            printStreamError.println("wc: invalid option -- '" + option + "'");
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+        if (UtilityFallback.hasTrailingOption(args, i)
+                && UtilityFallback.execute(shellEnvironment, "wc", inputStream, outputStream, errorStream, args)) {
+            return;
+        }
+        if (!lines && !words && !bytes) {
+            lines = words = bytes = true;
+        }
+        boolean countsOnlyBytes = bytes && !lines && !words;
+
+        String[] names = i < args.length ? Arrays.copyOfRange(args, i, args.length) : new String[] { null };
+        int width = width(names, inputStream, (lines ? 1 : 0) + (words ? 1 : 0) + (bytes ? 1 : 0));
+
+        Counts total = new Counts();
+        try {
+            for (String name : names) {
+                Counts counts;
+                if (name == null || name.equals("-")) {
+                    counts = count(inputStream, countsOnlyBytes);
+                } else {
+                    FileChannel channel;
+                    try {
+                        channel = FileInput.open(shellEnvironment, name);
+                    } catch (IOException e) {
+                        printStream.flush();
+                        printStreamError.println("wc: " + e.getMessage());
+                        continue;
+                    }
+                    try (channel) {
+                        counts = count(channel, 0, countsOnlyBytes);
+                    }
+                }
+                total.add(counts);
+                printStream.println(format(counts, lines, words, bytes, width, name));
+            }
+            if (names.length > 1) {
+                printStream.println(format(total, lines, words, bytes, width, "total"));
+            }
+        } finally {
+            printStream.flush();
+        }
+    }
+
+    private static Counts count(InputStream inputStream, boolean countsOnlyBytes) throws IOException {
+        FileChannel channel = FileInput.channel(inputStream);
+        if (channel != null) {
+            return count(channel, channel.position(), countsOnlyBytes);
+        }
+
+        Counts counts = new Counts();
+        FileInput.scan(inputStream, counts::scan);
+        return counts;
+    }
+
+    private static Counts count(FileChannel channel, long position, boolean countsOnlyBytes) throws IOException {
+        Counts counts = new Counts();
+        // files that don't know their size (e.g. in /proc) still have to be read
+        long size = channel.size();
+        if (countsOnlyBytes && size > 0) {
+            counts.bytes = Math.max(size - position, 0);
+            return counts;
+        }
+        FileInput.scan(channel, position, counts::scan);
+        return counts;
+    }
+
+    /**
+     * Works out how wide counts are printed, like GNU wc: wide enough for the total size of the files, or at least
+     * {@link #STREAM_WIDTH} if an input's size isn't known - but a single count of a single input isn't padded
+     */
+    private int width(String[] names, InputStream inputStream, int countsShown) throws IOException {
+        if (names.length == 1 && countsShown == 1) {
+            return 1;
+        }
+
+        long totalSize = 0;
+        boolean unknownSize = false;
+        for (String name : names) {
+            if (name == null || name.equals("-")) {
+                FileChannel channel = FileInput.channel(inputStream);
+                if (channel != null) totalSize += channel.size();
+                else unknownSize = true;
+                continue;
+            }
+            Path file = shellEnvironment.getCurrentDirectory().toPath().resolve(name);
+            if (Files.isRegularFile(file)) {
+                totalSize += Files.size(file);
+            }
+        }
+        return Math.max(Long.toString(totalSize).length(), unknownSize ? STREAM_WIDTH : 1);
+    }
+
+    private static String format(Counts counts, boolean lines, boolean words, boolean bytes, int width, String name) {
+        StringBuilder line = new StringBuilder();
+        if (lines) append(line, counts.lines, width);
+        if (words) append(line, counts.words, width);
+        if (bytes) append(line, counts.bytes, width);
+        if (name != null) line.append(' ').append(name);
+        return line.toString();
+    }
+
+    private static void append(StringBuilder line, long count, int width) {
+        if (!line.isEmpty()) line.append(' ');
+        String number = Long.toString(count);
+        line.repeat(' ', Math.max(width - number.length(), 0)).append(number);
+    }
+
+    /**
+     * Counts of an input, a word being a run of anything but whitespace
+     */
+    private static final class Counts {
+
+        private long lines;
+        private long words;
+        private long bytes;
+        // a word may go on from one chunk of input into the next
+        private boolean inWord;
+
+        boolean scan(ByteBuffer input) {
+            int limit = input.limit();
+            for (int i = input.position(); i < limit; i++) {
+                byte b = input.get(i);
+                if (b == '\n') lines++;
+                if (b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == 0x0B || b == '\f') {
+                    inWord = false;
+                } else if (!inWord) {
+                    inWord = true;
+                    words++;
+                }
+            }
+            bytes += limit - input.position();
+            return true;
+        }
+
+        void add(Counts counts) {
+            lines += counts.lines;
+            words += counts.words;
+            bytes += counts.bytes;
+        }
+    }
+}
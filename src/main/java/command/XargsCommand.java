@@ -0,0 +1,356 @@
+package command;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Builds command lines from its input and runs them, without an extra process in between.
+ *
+ * Arguments are read as they come and a batch runs as soon as it's full, so a long input starts running early.
+ * A batch is full when it has -n arguments, or when one more would exceed the system's ARG_MAX (less the environment
+ * and some headroom, like GNU xargs). With -P N up to N batches run at once, each one's output is buffered and
+ * written in input order once it's done, so output of concurrent batches never interleaves.
+ */
+public class XargsCommand implements CodeCraftersShellCommand {
+
+    private static final String DEFAULT_COMMAND = "echo";
+    // room left for what the OS adds to the argument space (as GNU xargs does)
+    private static final int ARG_MAX_HEADROOM = 2048;
+    private static final int DEFAULT_ARG_MAX = 128 * 1024;
+
+    private final CodeCraftersShellEnvironment shellEnvironment;
+
+    public XargsCommand(CodeCraftersShellEnvironment shellEnvironment) {
+        this.shellEnvironment = shellEnvironment;
+    }
+
+    @Override
+    public void execute(InputStream inputStream, OutputStream outputStream, OutputStream errorStream, String... args) throws Exception {
+        PrintStream printStreamError = new PrintStream(errorStream);
+
+        // options come before the command
+        int maxArgs = Integer.MAX_VALUE;
+        int maxProcs = 1;
+        String replace = null;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-") && args[i].length() > 1; i++) {
+            if (args[i].equals("--")) { i++; break; }
+
+            char option = args[i].charAt(1);
+            if (option != 'n' && option != 'P' && option != 'I') {
+                printStreamError.println("xargs: invalid option -- '" + option + "'");
+                return;
+            }
+            // value either attached (-n2) or next arg (-n 2)
+            String value = args[i].length() > 2 ? args[i].substring(2) : i + 1 < args.length ? args[++i] : null;
+            if (value == null) {
+                printStreamError.println("xargs: option requires an argument -- '" + option + "'");
+                return;
+            }
+
+            if (option == 'I') {
+                replace = value;
+                continue;
+            }
+            int number;
+            try {
+                number = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                number = -1;
+            }
+            if (number < (option == 'n' ? 1 : 0)) {
+                printStreamError.println("xargs: invalid number \"" + value + "\" for -" + option + " option");
+                return;
+            }
+            if (option == 'n') maxArgs = number;
+            else maxProcs = number == 0 ? Runtime.getRuntime().availableProcessors() : number;
+        }
+
+        List<String> initialArgs = i < args.length
+                ? Arrays.asList(args).subList(i, args.length)
+                : List.of(DEFAULT_COMMAND);
+        Optional<CodeCraftersShellCommand> command = shellEnvironment.resolveCommand(initialArgs.getFirst());
+        if (command.isEmpty()) {
+            printStreamError.println("xargs: " + initialArgs.getFirst() + ": No such file or directory");
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            BatchRunner runner = new BatchRunner(command.get(), maxProcs, outputStream, errorStream);
+            try {
+                if (replace != null) {
+                    runReplacing(reader, initialArgs, replace, runner);
+                } else {
+                    runBatched(reader, initialArgs, maxArgs, runner, printStreamError);
+                }
+            } finally {
+                runner.finish();
+            }
+        }
+    }
+
+    /**
+     * -I: runs command once per input line, with the line replacing every occurrence of the replace string
+     */
+    private static void runReplacing(BufferedReader reader,
+                                     List<String> initialArgs,
+                                     String replace,
+                                     BatchRunner runner) throws Exception {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String argument = line.stripLeading();
+            if (argument.isEmpty()) continue;
+
+            String[] commandArgs = new String[initialArgs.size() - 1];
+            for (int i = 1; i < initialArgs.size(); i++) {
+                commandArgs[i - 1] = initialArgs.get(i).replace(replace, argument);
+            }
+            runner.run(commandArgs);
+        }
+    }
+
+    private static void runBatched(BufferedReader reader,
+                                   List<String> initialArgs,
+                                   int maxArgs,
+                                   BatchRunner runner,
+                                   PrintStream printStreamError) throws Exception {
+        long maxBytes = ArgMax.VALUE;
+        long initialBytes = 0;
+        for (String initialArg : initialArgs) {
+            initialBytes += argumentBytes(initialArg);
+        }
+
+        List<String> batch = new ArrayList<>(initialArgs.subList(1, initialArgs.size()));
+        int initialCount = batch.size();
+        long batchBytes = initialBytes;
+
+        ArgumentReader arguments = new ArgumentReader(reader);
+        String argument;
+        while ((argument = arguments.next()) != null) {
+            long bytes = argumentBytes(argument);
+            if (initialBytes + bytes > maxBytes) {
+                printStreamError.println("xargs: argument line too long");
+                break;
+            }
+            if (batch.size() - initialCount == maxArgs || batchBytes + bytes > maxBytes) {
+                runner.run(batch.toArray(String[]::new));
+                batch.subList(initialCount, batch.size()).clear();
+                batchBytes = initialBytes;
+            }
+            batch.add(argument);
+            batchBytes += bytes;
+        }
+
+        if (arguments.unmatchedQuote() != 0) {
+            printStreamError.println("xargs: unmatched " + (arguments.unmatchedQuote() == '\'' ? "single" : "double")
+                    + " quote; by default quotes are special to xargs unless you use the -0 option");
+        }
+        // like GNU xargs, command runs once even without input
+        if (batch.size() > initialCount || !runner.hasRun() && arguments.unmatchedQuote() == 0) {
+            runner.run(batch.toArray(String[]::new));
+        }
+    }
+
+    /**
+     * Space an argument takes in the argument area: its bytes & terminating NUL
+     */
+    private static long argumentBytes(String argument) {
+        return argument.getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+
+    /**
+     * Runs batches inline when one at a time, otherwise on the task executor with up to maxProcs in flight,
+     * writing their buffered output in order
+     */
+    private final class BatchRunner {
+
+        private final CodeCraftersShellCommand command;
+        private final int maxProcs;
+        private final OutputStream outputStream;
+        private final OutputStream errorStream;
+        private final ArrayDeque<Batch> inFlight;
+        private boolean run;
+
+        BatchRunner(CodeCraftersShellCommand command, int maxProcs, OutputStream outputStream, OutputStream errorStream) {
+            this.command = command;
+            this.maxProcs = maxProcs;
+            this.outputStream = outputStream;
+            this.errorStream = errorStream;
+            this.inFlight = new ArrayDeque<>(maxProcs);
+        }
+
+        boolean hasRun() {
+            return run;
+        }
+
+        void run(String[] commandArgs) throws Exception {
+            run = true;
+            if (maxProcs == 1) {
+                command.execute(InputStream.nullInputStream(), outputStream, errorStream, commandArgs);
+                return;
+            }
+
+            // window of maxProcs batches: oldest must be written out before another starts
+            if (inFlight.size() == maxProcs) {
+                writeOldest();
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ByteArrayOutputStream error = new ByteArrayOutputStream();
+            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                try {
+                    command.execute(InputStream.nullInputStream(), output, error, commandArgs);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, shellEnvironment.getTaskExecutor());
+            inFlight.add(new Batch(future, output, error));
+        }
+
+        void finish() throws Exception {
+            while (!inFlight.isEmpty()) {
+                writeOldest();
+            }
+        }
+
+        private void writeOldest() throws Exception {
+            Batch batch = inFlight.poll();
+            try {
+                batch.future.get();
+            } catch (ExecutionException e) {
+                // failed batches still get their output written, then the error goes on up
+                write(batch);
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+            write(batch);
+        }
+
+        private void write(Batch batch) throws IOException {
+            batch.output.writeTo(outputStream);
+            outputStream.flush();
+            batch.error.writeTo(errorStream);
+            errorStream.flush();
+        }
+    }
+
+    /**
+     * A batch running concurrently, with the output it buffered
+     */
+    private static final class Batch {
+
+        final CompletableFuture<Void> future;
+        final ByteArrayOutputStream output;
+        final ByteArrayOutputStream error;
+
+        Batch(CompletableFuture<Void> future, ByteArrayOutputStream output, ByteArrayOutputStream error) {
+            this.future = future;
+            this.output = output;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Splits input into arguments at blanks and newlines, honouring quotes & backslashes like xargs does
+     */
+    private static final class ArgumentReader {
+
+        private final BufferedReader reader;
+        private final StringBuilder argument;
+        private char unmatchedQuote;
+
+        ArgumentReader(BufferedReader reader) {
+            this.reader = reader;
+            this.argument = new StringBuilder();
+        }
+
+        /**
+         * Reads next argument
+         * @return argument, or null at end of input (or at an unmatched quote)
+         */
+        String next() throws IOException {
+            argument.setLength(0);
+            boolean inArgument = false;
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == ' ' || c == '\t' || c == '\n') {
+                    if (inArgument) return argument.toString();
+                    continue;
+                }
+                inArgument = true;
+
+                if (c == '\\') {
+                    int escaped = reader.read();
+                    if (escaped != -1) argument.append((char) escaped);
+                    continue;
+                }
+                if (c == '\'' || c == '"') {
+                    // quotes run up to the closing quote, on the same line
+                    int quoted;
+                    while ((quoted = reader.read()) != c) {
+                        if (quoted == -1 || quoted == '\n') {
+                            unmatchedQuote = (char) c;
+                            return null;
+                        }
+                        argument.append((char) quoted);
+                    }
+                    continue;
+                }
+                argument.append((char) c);
+            }
+            return inArgument ? argument.toString() : null;
+        }
+
+        /**
+         * Gets quote left open, which ends reading
+         * @return quote char, or 0 if none
+         */
+        char unmatchedQuote() {
+            return unmatchedQuote;
+        }
+    }
+
+    /**
+     * Space for a command line: system ARG_MAX less the environment & headroom, worked out once
+     */
+    private static final class ArgMax {
+
+        static final long VALUE = compute();
+
+        private static long compute() {
+            long argMax = DEFAULT_ARG_MAX;
+            try {
+                Process getconf = new ProcessBuilder("getconf", "ARG_MAX").redirectErrorStream(true).start();
+                String output = new String(getconf.getInputStream().readAllBytes(), StandardCharsets.US_ASCII).trim();
+                if (getconf.waitFor() == 0) {
+                    argMax = Long.parseLong(output);
+                }
+            } catch (IOException | NumberFormatException e) {
+                // no getconf - keep default
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            long environmentBytes = 0;
+            for (Map.Entry<String, String> variable : System.getenv().entrySet()) {
+                environmentBytes += argumentBytes(variable.getKey() + "=" + variable.getValue());
+            }
+            return Math.max(argMax - environmentBytes - ARG_MAX_HEADROOM, 4096 - ARG_MAX_HEADROOM);
+        }
+    }
+}
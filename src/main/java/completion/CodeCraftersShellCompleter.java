@@ -1,63 +1,75 @@
 package completion;
 
 import environment.CodeCraftersShellEnvironment;
+import environment.DirectoryListingCache;
 import org.jline.reader.Candidate;
 import org.jline.reader.Completer;
 import org.jline.reader.LineReader;
 import org.jline.reader.ParsedLine;
 import org.jline.reader.impl.LineReaderImpl;
 
+import java.nio.file.Path;
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * This class is responsible for autocompletion when pressing TAB
+ * This class is responsible for autocompletion when pressing TAB: command names for the first word, paths relative
+ * to the current directory for any other (only directories for {@code cd}).
+ *
+ * Paths are completed from the environment's cached directory listings, so pressing TAB again in a large directory
+ * doesn't list it again unless it changed.
  */
 public class CodeCraftersShellCompleter implements Completer {
 
-    private final List<String> allCommands;
+    private final CodeCraftersShellEnvironment env;
+    private final CommandTrie commandTrie;
     private String lastWord = null;
     private boolean lastAmbiguous = false;
 
     public CodeCraftersShellCompleter(CodeCraftersShellEnvironment env) {
-        this.allCommands = new AbstractList<>() {
-            @Override
-            public int size() {
-                return env.getBuiltinCommands().size() + env.getPathCommands().size();
-            }
+        this.env = env;
+        this.commandTrie = new CommandTrie();
 
-            @Override
-            public String get(int i) {
-                if (i < env.getBuiltinCommands().size()) {
-                    return env.getBuiltinCommands().get(i);
-                }
-                return env.getPathCommands().get(i - env.getBuiltinCommands().size());
-            }
-        };
+        // trie is kept up to date by the environment as builtins get registered & $PATH changes
+        env.addCommandNameListener(commandTrie);
     }
 
     @Override
     public void complete(LineReader reader, ParsedLine line, List<Candidate> candidates) {
-        List<String> matchingCommands = allCommands.stream()
-                .filter(command -> command.startsWith(line.word()))
-                .distinct()
-                .sorted() // sort alphabetically
-                .toList();
+        List<Candidate> matches;
+        List<String> names;
+        if (line.wordIndex() == 0) {
+            env.refreshPathCommands();
+            names = commandTrie.withPrefix(line.word()); // already sorted alphabetically
+            matches = new AbstractList<>() {
+                @Override
+                public Candidate get(int i) {
+                    return new Candidate(names.get(i));
+                }
+
+                @Override
+                public int size() {
+                    return names.size();
+                }
+            };
+        } else {
+            boolean onlyDirectories = line.words().getFirst().equals("cd");
+            matches = new ArrayList<>();
+            names = new ArrayList<>();
+            completePath(line.word(), onlyDirectories, matches, names);
+        }
 
         // if no matches, or more than one match, then beep
-        if (matchingCommands.size() != 1) {
+        if (matches.size() != 1) {
             ((LineReaderImpl) reader).beep();
         }
 
-        // nothing to do if no matches
-        if (matchingCommands.isEmpty())
-            return;
-
         // if multiple matches, list them with fixed spacing and keep input unchanged, but only on consecutive TAB
-        if (matchingCommands.size() > 1) {
+        if (matches.size() > 1) {
             boolean sameWord = line.word().equals(lastWord);
             if (sameWord && lastAmbiguous) {
-                String list = String.join("  ", matchingCommands);
+                String list = String.join("  ", names);
                 reader.getTerminal().writer().println();
                 reader.getTerminal().writer().println(list);
                 reader.getTerminal().writer().flush();
@@ -66,19 +78,47 @@ public class CodeCraftersShellCompleter implements Completer {
             }
         }
 
-        // fill in candidates with a lazy list - this will allow TAB autocompletion
-        candidates.addAll(new AbstractList<>() {
-            @Override
-            public Candidate get(int i) {
-                return new Candidate(matchingCommands.get(i));
-            }
-
-            @Override
-            public int size() {
-                return matchingCommands.size();
-            }
-        });
+        // fill in candidates - this will allow TAB autocompletion
+        candidates.addAll(matches);
         lastWord = line.word();
-        lastAmbiguous = matchingCommands.size() > 1;
+        lastAmbiguous = matches.size() > 1;
+    }
+
+    /**
+     * Finds entries of the word's directory starting with the word's last part. Directories complete with a
+     * trailing slash and no space, so completion can go on into them
+     * @param word word being completed, e.g. {@code src/ma}
+     * @param onlyDirectories whether to leave out anything but directories
+     * @param matches where to add candidates, holding the whole word
+     * @param names where to add names listed on a second TAB, e.g. {@code main/}
+     */
+    private void completePath(String word, boolean onlyDirectories, List<Candidate> matches, List<String> names) {
+        int slash = word.lastIndexOf('/');
+        String directoryPart = word.substring(0, slash + 1);
+        String prefix = word.substring(slash + 1);
+
+        Path directory;
+        if (directoryPart.startsWith("/")) {
+            directory = Path.of(directoryPart);
+        } else if (directoryPart.startsWith("~/") && System.getenv("HOME") != null) {
+            directory = Path.of(System.getenv("HOME"), directoryPart.substring(2));
+        } else {
+            directory = env.getCurrentDirectory().toPath().resolve(directoryPart);
+        }
+
+        // listing is sorted, so names with the prefix are next to each other (as are the matches) - dot files
+        // only if asked for, like bash. Only those get stat'ed (once per listing) to tell if they're directories
+        DirectoryListingCache.Listing listing = env.getDirectoryListings().list(directory);
+        for (int i = listing.indexOf(prefix); i < listing.size() && listing.getName(i).startsWith(prefix); i++) {
+            String name = listing.getName(i);
+            if (name.charAt(0) == '.' && !prefix.startsWith(".")) continue;
+
+            boolean isDirectory = listing.isDirectory(i);
+            if (onlyDirectories && !isDirectory) continue;
+
+            String value = directoryPart + name + (isDirectory ? "/" : "");
+            matches.add(new Candidate(value, value, null, null, null, null, !isDirectory));
+            names.add(name + (isDirectory ? "/" : ""));
+        }
     }
 }
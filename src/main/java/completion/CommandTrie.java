@@ -0,0 +1,177 @@
+package completion;
+
+import environment.CommandNameListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Compressed prefix trie (radix tree) of command names.
+ *
+ * Edges are labelled with whole substrings and children are kept ordered, so a prefix lookup walks
+ * O(prefix) characters and then visits only the matching subtree, already in sorted order.
+ * Names are reference counted: a name added by several sources (a builtin and a $PATH executable,
+ * or two $PATH directories) stays in the trie until every source removed it.
+ */
+public class CommandTrie implements CommandNameListener {
+
+    private final Node root = new Node("");
+    private int size;
+
+    /**
+     * Adds a command name
+     * @param commandName name to add
+     */
+    public synchronized void add(String commandName) {
+        Node node = root;
+        int i = 0;
+        while (i < commandName.length()) {
+            Node child = node.children.get(commandName.charAt(i));
+            if (child == null) {
+                child = new Node(commandName.substring(i));
+                node.children.put(commandName.charAt(i), child);
+                node = child;
+                break;
+            }
+
+            // split the edge if the name diverges in the middle of it
+            int common = commonPrefixLength(child.label, commandName, i);
+            if (common < child.label.length()) {
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.children.put(child.label.charAt(0), child);
+                node.children.put(split.label.charAt(0), split);
+                child = split;
+            }
+
+            node = child;
+            i += common;
+        }
+
+        if (node.count++ == 0) {
+            size++;
+        }
+    }
+
+    /**
+     * Removes one occurrence of a command name
+     * @param commandName name to remove
+     */
+    public synchronized void remove(String commandName) {
+        Node parent = null;
+        Node node = root;
+        int i = 0;
+        while (i < commandName.length()) {
+            Node child = node.children.get(commandName.charAt(i));
+            if (child == null || !commandName.startsWith(child.label, i))
+                return;
+
+            parent = node;
+            node = child;
+            i += child.label.length();
+        }
+
+        if (node.count == 0 || --node.count > 0)
+            return;
+
+        size--;
+        if (parent == null)
+            return;
+
+        // drop the emptied node and re-compress whatever became a pass-through node
+        if (node.children.isEmpty()) {
+            parent.children.remove(node.label.charAt(0));
+            if (parent != root && parent.count == 0 && parent.children.size() == 1) {
+                mergeWithOnlyChild(parent);
+            }
+        } else if (node.children.size() == 1) {
+            mergeWithOnlyChild(node);
+        }
+    }
+
+    /**
+     * Gets all command names starting with prefix
+     * @param prefix prefix to match
+     * @return sorted list of matching names
+     */
+    public synchronized List<String> withPrefix(String prefix) {
+        StringBuilder path = new StringBuilder(prefix.length() + 16);
+        Node node = root;
+        while (path.length() < prefix.length()) {
+            int i = path.length();
+            Node child = node.children.get(prefix.charAt(i));
+            if (child == null)
+                return List.of();
+
+            // prefix may end in the middle of an edge, but must not diverge from it
+            int common = commonPrefixLength(child.label, prefix, i);
+            if (common < child.label.length() && i + common < prefix.length())
+                return List.of();
+
+            path.append(child.label);
+            node = child;
+        }
+
+        List<String> matches = new ArrayList<>();
+        collect(node, path, matches);
+        return matches;
+    }
+
+    /**
+     * Gets number of distinct command names
+     * @return number of names
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public void commandAdded(String commandName) {
+        add(commandName);
+    }
+
+    @Override
+    public void commandRemoved(String commandName) {
+        remove(commandName);
+    }
+
+    private void collect(Node node, StringBuilder path, List<String> matches) {
+        if (node.count > 0) {
+            matches.add(path.toString());
+        }
+        for (Node child : node.children.values()) {
+            int length = path.length();
+            path.append(child.label);
+            collect(child, path, matches);
+            path.setLength(length);
+        }
+    }
+
+    private static void mergeWithOnlyChild(Node node) {
+        Node child = node.children.firstEntry().getValue();
+        node.label = node.label + child.label;
+        node.count = child.count;
+        node.children = child.children;
+    }
+
+    private static int commonPrefixLength(String label, String s, int offset) {
+        int max = Math.min(label.length(), s.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == s.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static final class Node {
+        private String label;
+        private TreeMap<Character, Node> children;
+        private int count;
+
+        private Node(String label) {
+            this.label = label;
+            this.children = new TreeMap<>();
+        }
+    }
+}
@@ -2,31 +2,66 @@ package environment;
 
 import command.CodeCraftersShellCommand;
 import command.PathCommand;
+import metrics.ResolveEvent;
+import metrics.ShellMetrics;
 
 import java.io.File;
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-
-import static java.nio.file.Files.isExecutable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class CodeCraftersShellEnvironment {
 
     private static CodeCraftersShellEnvironment SINGLETON_INSTANCE;
-    private static final Map<String, Path> COMMANDS_IN_PATH = new HashMap<>();
+    // $PATH can be overridden with the codecrafters.shell.path system property (e.g. synthetic PATHs in benchmarks)
+    private static final PathIndex PATH_INDEX = new PathIndex(
+            () -> System.getProperty("codecrafters.shell.path", System.getenv("PATH"))
+    );
 
     private final Map<String, CodeCraftersShellCommand> registeredCommands;
-    private final List<String> history;
+    private final Set<String> utilityCommands;
+    private final List<CommandNameListener> builtinCommandListeners;
+    private final HistoryStore history;
+    private final int historyFileSize;
+    private final boolean historyEraseDups;
+    private final HistorySearchIndex historySearchIndex;
+    private final JobTable jobTable;
+    private final DirectoryListingCache directoryListings;
+    private HistoryFileWriter historyFileWriter;
+    private ExecutorService taskExecutor;
     private File currDirFile;
     private int historyAppendIndex;
 
     private CodeCraftersShellEnvironment() {
         this.registeredCommands = new HashMap<>();
+        this.utilityCommands = new HashSet<>();
+        this.builtinCommandListeners = new ArrayList<>();
         this.currDirFile = new File(".").toPath().toFile();
-        this.history = new LinkedList<>();
+        // $HISTSIZE bounds history in memory, $HISTFILESIZE the history file (defaults to $HISTSIZE), unset is no limit
+        int historySize = parseHistorySize(System.getenv("HISTSIZE"));
+        List<String> historyControl = Arrays.asList(Optional.ofNullable(System.getenv("HISTCONTROL")).orElse("").split(":"));
+        this.historyEraseDups = historyControl.contains("erasedups");
+        this.history = new HistoryStore(
+                historySize,
+                historyControl.contains("ignoredups") || historyControl.contains("ignoreboth"),
+                historyEraseDups
+        );
+        this.historyFileSize = System.getenv("HISTFILESIZE") != null
+                ? parseHistorySize(System.getenv("HISTFILESIZE"))
+                : historySize;
+        this.historySearchIndex = new HistorySearchIndex(history);
+        this.jobTable = new JobTable();
+        this.directoryListings = new DirectoryListingCache();
         this.historyAppendIndex = 0;
-        refreshCommandsInPath();
+        this.taskExecutor = createTaskExecutor(System.getenv("CODECRAFTERS_SHELL_THREADS"));
+        PATH_INDEX.refresh();
+        // $PATH is scanned in the background - unless codecrafters.shell.eagerPathScan asks to wait for it (benchmarks)
+        if (Boolean.getBoolean("codecrafters.shell.eagerPathScan")) {
+            PATH_INDEX.commandNames();
+        }
     }
 
     public static synchronized CodeCraftersShellEnvironment getEnvironment() {
@@ -61,13 +96,77 @@ public class CodeCraftersShellEnvironment {
         return new File(normalizedCurrDir);
     }
 
+    /**
+     * Get executor running pipeline stages, stream transfers and other concurrent shell work
+     * @return task executor
+     */
+    public ExecutorService getTaskExecutor() {
+        return taskExecutor;
+    }
+
+    /**
+     * Set executor running pipeline stages, stream transfers and other concurrent shell work
+     * @param taskExecutor executor to use
+     */
+    public void setTaskExecutor(ExecutorService taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Parses a history size ($HISTSIZE or $HISTFILESIZE)
+     * @param value value of variable, may be null
+     * @return size, or -1 for no limit (unset, negative or not a number)
+     */
+    private static int parseHistorySize(String value) {
+        if (value == null || !value.matches("-?[0-9]+")) return -1;
+        try {
+            return Math.max(Integer.parseInt(value), -1);
+        } catch (NumberFormatException e) { // too large to be a limit
+            return -1;
+        }
+    }
+
+    /**
+     * Creates the default task executor - one virtual thread per task, unless platform threads are asked for
+     * @param threadKind "platform" for platform threads, anything else (or null) for virtual threads
+     * @return task executor
+     */
+    private static ExecutorService createTaskExecutor(String threadKind) {
+        ThreadFactory threadFactory = "platform".equalsIgnoreCase(threadKind)
+                ? Thread.ofPlatform().name("shell-task-", 0).daemon(true).factory()
+                : Thread.ofVirtual().name("shell-task-", 0).factory();
+        return Executors.newThreadPerTaskExecutor(threadFactory);
+    }
+
     /**
      * Register a built in command to this shell that is not searched on $PATH
      * @param commandName command to register
      * @param command command handler
      */
     public void registerBuiltinCommand(String commandName, CodeCraftersShellCommand command) {
-        registeredCommands.put(commandName, command);
+        if (registeredCommands.put(commandName, command) == null) {
+            builtinCommandListeners.forEach(listener -> listener.commandAdded(commandName));
+        }
+    }
+
+    /**
+     * Register a built in command standing in for a system utility of the same name (e.g. cat), which it runs for
+     * options it doesn't implement. It's still reported as that utility where it's found in $PATH
+     * @param commandName command to register
+     * @param command command handler
+     */
+    public void registerUtilityCommand(String commandName, CodeCraftersShellCommand command) {
+        utilityCommands.add(commandName);
+        registerBuiltinCommand(commandName, command);
+    }
+
+    /**
+     * Checks if command is a built in standing in for a system utility
+     * @param command command to search
+     * @return true if registered with {@link #registerUtilityCommand}
+     */
+    public boolean isUtilityCommand(String command) {
+        return utilityCommands.contains(command);
     }
 
     /**
@@ -102,37 +201,7 @@ public class CodeCraftersShellEnvironment {
      * @return executable full path
      */
     public static Optional<Path> commandPath(String command) {
-        if (COMMANDS_IN_PATH.containsKey(command)) {
-            return Optional.of(COMMANDS_IN_PATH.get(command));
-        }
-        // it does not exist, so let's refresh cache and see if we can get it now...
-        refreshCommandsInPath();
-        return Optional.ofNullable(COMMANDS_IN_PATH.get(command));
-    }
-
-    /**
-     * Refreshes cache of commands in $PATH
-     * @implNote This method is called on first use of commandPath()
-     */
-    private static void refreshCommandsInPath() {
-        String pathVariable = System.getenv("PATH");
-        String[] pathsInPathVariable = pathVariable.split(File.pathSeparator);
-
-        for (String path : pathsInPathVariable) {
-            // get all files in path var sub path
-            File[] filesInPath = new File(path).listFiles();
-            if (filesInPath == null)
-                continue;
-
-            for (File file : filesInPath) {
-                Path filePath = file.toPath();
-                if (!isExecutable(filePath))
-                    continue;
-
-                // add to COMMANDS_PATH map if not existing for caching
-                COMMANDS_IN_PATH.putIfAbsent(file.getName(), filePath);
-            }
-        }
+        return PATH_INDEX.lookup(command);
     }
 
     /**
@@ -151,7 +220,7 @@ public class CodeCraftersShellEnvironment {
      */
     public Optional<CodeCraftersShellCommand> getCommand(String command) {
         return commandPath(command)
-                .map(cmdPath -> new PathCommand(cmdPath, currDirFile));
+                .map(cmdPath -> new PathCommand(cmdPath, currDirFile, taskExecutor));
     }
 
     /**
@@ -159,7 +228,25 @@ public class CodeCraftersShellEnvironment {
      * @return list of commands
      */
     public List<String> getPathCommands() {
-        return new ArrayList<>(COMMANDS_IN_PATH.keySet());
+        return PATH_INDEX.commandNames();
+    }
+
+    /**
+     * Picks up changes to $PATH (or to its directories) without waiting for the next lookup
+     */
+    public void refreshPathCommands() {
+        PATH_INDEX.refresh();
+    }
+
+    /**
+     * Listen for command names (builtins and $PATH executables) being added or removed.
+     * The listener is immediately told about every command currently known.
+     * @param listener listener to register
+     */
+    public void addCommandNameListener(CommandNameListener listener) {
+        registeredCommands.keySet().forEach(listener::commandAdded);
+        builtinCommandListeners.add(listener);
+        PATH_INDEX.addListener(listener);
     }
 
     /**
@@ -172,23 +259,77 @@ public class CodeCraftersShellEnvironment {
      *         or an empty {@code Optional} if the command cannot be found
      */
     public Optional<CodeCraftersShellCommand> resolveCommand(String commandName) {
-        if (hasBuiltinCommand(commandName)) {
-            return getBuiltinCommand(commandName);
-        }
+        long start = System.nanoTime();
+        ResolveEvent event = new ResolveEvent();
+        event.begin();
 
-        if (hasCommand(commandName)) {
-            return getCommand(commandName);
+        Optional<CodeCraftersShellCommand> command;
+        ShellMetrics.Counter result;
+        if (hasBuiltinCommand(commandName)) {
+            command = getBuiltinCommand(commandName);
+            result = ShellMetrics.Counter.RESOLVE_BUILTIN;
+        } else {
+            command = getCommand(commandName);
+            result = command.isPresent() ? ShellMetrics.Counter.RESOLVE_PATH : ShellMetrics.Counter.RESOLVE_MISS;
         }
 
-        return Optional.empty();
+        ExecutionTrace.record(ExecutionTrace.Phase.RESOLVE, start);
+        ShellMetrics.record(ShellMetrics.Timer.RESOLVE, start);
+        ShellMetrics.increment(result);
+        event.complete(commandName, switch (result) {
+            case RESOLVE_BUILTIN -> "builtin";
+            case RESOLVE_PATH -> "path";
+            default -> "miss";
+        });
+        return command;
     }
 
     /**
      * Retrieves command history (last is last executed)
-     * @return list of commands
+     * @return history store, slices of it are views and don't copy lines
      */
-    public List<String> getHistoryCopy() {
-        return new ArrayList<>(history);
+    public HistoryStore getHistory() {
+        return history;
+    }
+
+    /**
+     * Gets background jobs of the shell
+     * @return job table
+     */
+    public JobTable getJobTable() {
+        return jobTable;
+    }
+
+    /**
+     * Gets cache of directory listings, shared by globbing & completion
+     * @return directory listing cache
+     */
+    public DirectoryListingCache getDirectoryListings() {
+        return directoryListings;
+    }
+
+    /**
+     * Gets max number of lines kept in the history file ($HISTFILESIZE)
+     * @return max number of lines, negative for no limit
+     */
+    public int getHistoryFileSize() {
+        return historyFileSize;
+    }
+
+    /**
+     * Checks if older copies of a history line are erased when it is added again ($HISTCONTROL has erasedups)
+     * @return true if duplicates are erased
+     */
+    public boolean isHistoryEraseDups() {
+        return historyEraseDups;
+    }
+
+    /**
+     * Retrieves index for searching history by substring, kept up to date with history
+     * @return search index
+     */
+    public HistorySearchIndex getHistorySearchIndex() {
+        return historySearchIndex;
     }
 
     /**
@@ -196,23 +337,47 @@ public class CodeCraftersShellEnvironment {
      * @param command command to add
      */
     public void addToHistory(String command) {
-        history.add(command);
+        if (history.add(command) && historyFileWriter != null) {
+            historyFileWriter.requestWrite();
+        }
     }
 
     /**
-     * Get index of next history line to append to
+     * Sets writer appending history lines to the history file as they are added
+     * @param historyFileWriter writer, or null to stop writing history incrementally
+     */
+    public void setHistoryFileWriter(HistoryFileWriter historyFileWriter) {
+        if (historyFileWriter != null) {
+            historyFileWriter.setWrittenIndex(historyAppendIndex);
+        }
+        this.historyFileWriter = historyFileWriter;
+    }
+
+    /**
+     * Gets writer appending history lines to the history file as they are added
+     * @return writer, or null if history isn't written incrementally
+     */
+    public HistoryFileWriter getHistoryFileWriter() {
+        return historyFileWriter;
+    }
+
+    /**
+     * Get index of next history line to append to - the history file writer's, if there is one
      * @return index to append to
      */
     public int getHistoryAppendIndex() {
-        return historyAppendIndex;
+        return historyFileWriter != null ? historyFileWriter.getWrittenIndex() : historyAppendIndex;
     }
 
     /**
-     * Set index of next history line to append to
+     * Set index of next history line to append to - the history file writer's, if there is one
      * @param historyAppendIndex index to set
      */
     public void setHistoryAppendIndex(int historyAppendIndex) {
         this.historyAppendIndex = historyAppendIndex;
+        if (historyFileWriter != null) {
+            historyFileWriter.setWrittenIndex(historyAppendIndex);
+        }
     }
 
 }
@@ -0,0 +1,13 @@
+package environment;
+
+/**
+ * Listener notified whenever a command name becomes available or unavailable in the shell
+ * (builtin registered, executable added to or removed from a $PATH directory).
+ *
+ * A name available from several sources (e.g. two $PATH directories) is notified once per source.
+ */
+public interface CommandNameListener {
+    void commandAdded(String commandName);
+
+    void commandRemoved(String commandName);
+}
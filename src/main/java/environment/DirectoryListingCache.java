@@ -0,0 +1,214 @@
+package environment;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Short-lived cache of directory listings, for globbing and completion.
+ *
+ * A listing has the names of a directory's entries. Whether an entry is a directory (or a link) is only looked up
+ * the first time it's asked for and then kept with the listing, so a glob or completion matching names alone stats
+ * none of the entries, and one that needs directories stats just the entries whose names matched.
+ *
+ * A listing is keyed by directory and reused while the directory's modification time is unchanged (entries were
+ * neither added, removed nor renamed) and it's younger than a few seconds, so repeated globs and completions over a
+ * large directory cost one stat instead of a full listing. The cache is bounded, least recently used go first.
+ */
+public class DirectoryListingCache {
+
+    private static final long DEFAULT_TTL_MILLIS = 5_000;
+    private static final int DEFAULT_SIZE = 64;
+    // flags of an entry, KNOWN once its attributes were read
+    private static final byte KNOWN = 1;
+    private static final byte DIRECTORY = 2;
+    private static final byte LINK = 4;
+    private static final Listing EMPTY = new Listing(null, null, 0, new String[0]);
+
+    private final long ttlNanos;
+    private final Map<Path, Listing> listings;
+
+    public DirectoryListingCache() {
+        this(parseTtl(System.getenv("CODECRAFTERS_SHELL_LISTING_TTL_MS")), DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates cache
+     * @param ttlMillis how long a listing is reused for, 0 (or less) disables caching
+     * @param maxSize max number of directories kept
+     */
+    public DirectoryListingCache(long ttlMillis, int maxSize) {
+        this.ttlNanos = Math.max(0, ttlMillis) * 1_000_000;
+        this.listings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Listing> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Parses a listing TTL ($CODECRAFTERS_SHELL_LISTING_TTL_MS)
+     * @param value milliseconds, may be null
+     * @return TTL, or default TTL if unset, not a number (0 or more) or too large to count in nanoseconds
+     */
+    private static long parseTtl(String value) {
+        if (value == null || !value.matches("[0-9]+")) return DEFAULT_TTL_MILLIS;
+        try {
+            long ttlMillis = Long.parseLong(value);
+            return ttlMillis <= Long.MAX_VALUE / 1_000_000 ? ttlMillis : DEFAULT_TTL_MILLIS;
+        } catch (NumberFormatException e) {
+            return DEFAULT_TTL_MILLIS;
+        }
+    }
+
+    /**
+     * Lists a directory's entries
+     * @param directory absolute path of directory
+     * @return listing, sorted by name - empty if directory doesn't exist or can't be read
+     */
+    public Listing list(Path directory) {
+        FileTime modified;
+        try {
+            modified = Files.getLastModifiedTime(directory);
+        } catch (IOException e) {
+            return EMPTY;
+        }
+
+        long now = System.nanoTime();
+        synchronized (listings) {
+            Listing cached = listings.get(directory);
+            if (cached != null && cached.modified.equals(modified) && now - cached.listedAt < ttlNanos) {
+                return cached;
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                names.add(entry.getFileName().toString());
+            }
+        } catch (IOException e) {
+            return EMPTY;
+        }
+        String[] sortedNames = names.toArray(String[]::new);
+        Arrays.sort(sortedNames);
+        Listing listing = new Listing(directory, modified, now, sortedNames);
+
+        if (ttlNanos > 0) {
+            synchronized (listings) {
+                listings.put(directory, listing);
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * Drops all listings
+     */
+    public void clear() {
+        synchronized (listings) {
+            listings.clear();
+        }
+    }
+
+    /**
+     * Entries of a directory when it was listed. Shared between lookups - names are never modified, flags are only
+     * ever filled in (racing lookups of an entry store the same flags, so they aren't synchronized)
+     */
+    public static final class Listing {
+
+        private final Path directory;
+        private final FileTime modified;
+        private final long listedAt;
+        private final String[] names;
+        private final byte[] flags;
+
+        private Listing(Path directory, FileTime modified, long listedAt, String[] names) {
+            this.directory = directory;
+            this.modified = modified;
+            this.listedAt = listedAt;
+            this.names = names;
+            this.flags = new byte[names.length];
+        }
+
+        /**
+         * Gets number of entries
+         * @return number of entries
+         */
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * Gets name of an entry
+         * @param index index of entry, in order of names
+         * @return name
+         */
+        public String getName(int index) {
+            return names[index];
+        }
+
+        /**
+         * Finds first entry whose name isn't before a prefix - entries starting with it, if any, start there
+         * @param prefix prefix of names
+         * @return index of entry, or {@link #size()} if none
+         */
+        public int indexOf(String prefix) {
+            int index = Arrays.binarySearch(names, prefix);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        /**
+         * Checks if an entry is a directory, or a link to one
+         * @param index index of entry
+         * @return true if directory
+         */
+        public boolean isDirectory(int index) {
+            return (flags(index) & DIRECTORY) != 0;
+        }
+
+        /**
+         * Checks if an entry is a symbolic link
+         * @param index index of entry
+         * @return true if link
+         */
+        public boolean isLink(int index) {
+            return (flags(index) & LINK) != 0;
+        }
+
+        /**
+         * Gets flags of an entry, reading its attributes the first time. Links are followed to tell if they're
+         * directories, but still flagged as links
+         */
+        private byte flags(int index) {
+            byte known = flags[index];
+            if (known != 0) return known;
+
+            Path entry = directory.resolve(names[index]);
+            byte read = KNOWN;
+            try {
+                BasicFileAttributes attributes =
+                        Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isSymbolicLink()) {
+                    read |= LINK | (Files.isDirectory(entry) ? DIRECTORY : 0);
+                } else if (attributes.isDirectory()) {
+                    read |= DIRECTORY;
+                }
+            } catch (IOException e) {
+                // gone since it was listed, or unreadable - just a name
+            }
+            flags[index] = read;
+            return read;
+        }
+    }
+}
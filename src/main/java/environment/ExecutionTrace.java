@@ -0,0 +1,123 @@
+package environment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of a command line went, as reported by the time builtin.
+ *
+ * Like a {@link Job}, a trace is found through the thread running the line (and the threads it starts, which inherit
+ * it) with {@link #current()}, so the code doing each phase records it without the trace being passed around.
+ * Outside of a trace, recording is a thread local lookup. Durations of concurrent pipeline stages add up, so in
+ * a pipeline a phase can take longer than the whole line.
+ */
+public final class ExecutionTrace {
+
+    public enum Phase { PARSE, RESOLVE, SPAWN, RUN, DRAIN }
+
+    private static final InheritableThreadLocal<ExecutionTrace> CURRENT = new InheritableThreadLocal<>();
+
+    private final LongAdder[] phaseNanos;
+    private final List<String> stageNames;
+    private final List<Long> stageBytes;
+    private ResourceUsage startUsage;
+    private ResourceUsage usage;
+    private long startNanos;
+    private long wallNanos;
+
+    public ExecutionTrace() {
+        this.phaseNanos = new LongAdder[Phase.values().length];
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+        this.stageNames = new ArrayList<>();
+        this.stageBytes = new ArrayList<>();
+    }
+
+    /**
+     * Gets trace the current thread records into
+     * @return trace, or empty if nothing is traced
+     */
+    public static Optional<ExecutionTrace> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    /**
+     * Records a phase that started at startNanos and ends now, if a trace is active
+     * @param phase phase
+     * @param startNanos {@link System#nanoTime()} when the phase started
+     */
+    public static void record(Phase phase, long startNanos) {
+        ExecutionTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.phaseNanos[phase.ordinal()].add(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records bytes a pipeline stage wrote to the next one, if a trace is active
+     * @param name stage, as shown to the user
+     * @param bytes bytes written, or -1 if not known (e.g. written straight to a file or the terminal)
+     */
+    public static void recordStage(String name, long bytes) {
+        ExecutionTrace trace = CURRENT.get();
+        if (trace != null) {
+            synchronized (trace) {
+                trace.stageNames.add(name);
+                trace.stageBytes.add(bytes);
+            }
+        }
+    }
+
+    /**
+     * Starts tracing on the current thread
+     */
+    public void begin() {
+        CURRENT.set(this);
+        startUsage = ResourceUsage.now();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stops tracing on the current thread, taking wall & cpu time since {@link #begin()}
+     */
+    public void end() {
+        wallNanos = System.nanoTime() - startNanos;
+        usage = ResourceUsage.now().minus(startUsage);
+        CURRENT.remove();
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * Gets cpu time used by the shell & the commands it waited for while tracing
+     * @return cpu time
+     */
+    public ResourceUsage getUsage() {
+        return usage;
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * Gets pipeline stages run while tracing
+     * @return stage names, in the order they finished recording
+     */
+    public synchronized List<String> getStageNames() {
+        return List.copyOf(stageNames);
+    }
+
+    /**
+     * Gets bytes each pipeline stage wrote to the next one
+     * @return bytes, -1 if not known, in the same order as {@link #getStageNames()}
+     */
+    public synchronized List<Long> getStageBytes() {
+        return List.copyOf(stageBytes);
+    }
+}
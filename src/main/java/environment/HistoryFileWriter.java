@@ -0,0 +1,384 @@
+package environment;
+
+import metrics.HistoryIoEvent;
+import metrics.ShellMetrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Appends history lines to a history file as they are added, from a background thread.
+ *
+ * Lines added while a write is in progress are batched into the next write, and the file is fsynced at
+ * most once per sync interval ($CODECRAFTERS_SHELL_HISTORY_SYNC_MS, 0 syncs after every write). Every
+ * write holds an exclusive lock on the file, so many shells can append to the same file without
+ * interleaving their lines.
+ *
+ * If the file has a max number of lines, it is compacted in the background when the writer starts and after
+ * every half of that many lines written: rewritten with only its newest lines into a temporary file which then
+ * atomically replaces it. Locks are taken on a sidecar file (history file name + ".lock") rather than the
+ * history file itself, so they still apply after it is replaced.
+ *
+ * The index of the first line not yet written is also the shell's append index ({@code history -a}): lines the
+ * history builtin reads from or writes to files are marked as written while writes are held off, so they are never
+ * appended twice.
+ */
+public class HistoryFileWriter implements AutoCloseable {
+
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+    // file locks are held by the whole JVM, so writers in the same JVM must take turns before locking
+    private static final Object APPEND_LOCK = new Object();
+
+    private final HistoryStore history;
+    private final Path historyFile;
+    private final long syncIntervalNanos;
+    private final int maxFileLines;
+    private final boolean eraseDups;
+    private final Thread thread;
+    // held for the whole of a write, so the history builtin can keep the writer off the file & history
+    private final Object writeLock = new Object();
+
+    private int writtenIndex;
+    private int linesSinceCompaction;
+    private boolean writeRequested;
+    private boolean syncPending;
+    private long lastSyncNanos;
+    private boolean closed;
+
+    /**
+     * Creates writer with sync interval from $CODECRAFTERS_SHELL_HISTORY_SYNC_MS, or default interval if not set
+     * @param history history to write from
+     * @param historyFile file to append to
+     * @param startIndex index of first history line not yet in the file
+     * @param maxFileLines max number of lines kept in the file when compacting it, negative for no limit
+     * @param eraseDups true to also drop older copies of duplicate lines when compacting
+     */
+    public HistoryFileWriter(HistoryStore history, Path historyFile, int startIndex, int maxFileLines, boolean eraseDups) {
+        this(history, historyFile, startIndex, maxFileLines, eraseDups,
+                Optional.ofNullable(System.getenv("CODECRAFTERS_SHELL_HISTORY_SYNC_MS"))
+                        .map(Long::parseLong)
+                        .orElse(DEFAULT_SYNC_INTERVAL_MILLIS));
+    }
+
+    /**
+     * Creates writer
+     * @param history history to write from
+     * @param historyFile file to append to
+     * @param startIndex index of first history line not yet in the file
+     * @param maxFileLines max number of lines kept in the file when compacting it, negative for no limit
+     * @param eraseDups true to also drop older copies of duplicate lines when compacting
+     * @param syncIntervalMillis min time between two fsyncs, 0 syncs after every write
+     */
+    public HistoryFileWriter(HistoryStore history, Path historyFile, int startIndex,
+                             int maxFileLines, boolean eraseDups, long syncIntervalMillis) {
+        this.history = history;
+        this.historyFile = historyFile;
+        this.maxFileLines = maxFileLines;
+        this.eraseDups = eraseDups;
+        this.syncIntervalNanos = Math.max(syncIntervalMillis, 0) * 1_000_000;
+        this.writtenIndex = startIndex;
+        this.lastSyncNanos = System.nanoTime();
+        this.thread = Thread.ofPlatform()
+                .name("history-writer")
+                .daemon()
+                .unstarted(this::run);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Asks the writer to append lines added since the last write
+     */
+    public synchronized void requestWrite() {
+        writeRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Appends every pending line & syncs the file, without waiting for the writer thread
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        writePending();
+        sync();
+    }
+
+    /**
+     * Runs an action while no lines are being written, e.g. one adding lines already in a file to history
+     * (which then marks them as written)
+     * @param action action to run
+     * @throws IOException if action fails
+     */
+    public void holdingWrites(HistoryAction action) throws IOException {
+        synchronized (writeLock) {
+            action.run();
+        }
+    }
+
+    /**
+     * Gets index of the first history line not yet written to the file
+     * @return index of first unwritten line
+     */
+    public synchronized int getWrittenIndex() {
+        return writtenIndex;
+    }
+
+    /**
+     * Marks lines as written up to an index - lines before it won't be appended to the file
+     * @param writtenIndex index of first unwritten line
+     */
+    public synchronized void setWrittenIndex(int writtenIndex) {
+        this.writtenIndex = writtenIndex;
+    }
+
+    /**
+     * Gets file the writer appends to
+     * @return history file
+     */
+    public Path getHistoryFile() {
+        return historyFile;
+    }
+
+    /**
+     * Appends every pending line, syncs the file & stops the writer thread
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // the thread may have never been started, or died on an error - write whatever is left here
+        writePending();
+        sync();
+    }
+
+    private void run() {
+        // the file may have grown past its limit in earlier sessions, or from other shells
+        compactIfNeeded(true);
+
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!closed && !writeRequested && !isSyncDue()) {
+                        if (syncPending) {
+                            long remainingNanos = syncIntervalNanos - (System.nanoTime() - lastSyncNanos);
+                            wait(Math.max(remainingNanos / 1_000_000, 1));
+                        } else {
+                            wait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) return;
+                writeRequested = false;
+            }
+
+            try {
+                writePending();
+                if (isSyncDue()) sync();
+            } catch (IOException e) {
+                System.err.println("history: " + historyFile + ": " + e.getMessage());
+            }
+            compactIfNeeded(false);
+        }
+    }
+
+    private void compactIfNeeded(boolean force) {
+        if (maxFileLines < 0 || (!force && linesSinceCompaction < Math.max(maxFileLines / 2, 1))) return;
+        linesSinceCompaction = 0;
+        try {
+            compact(historyFile, maxFileLines, eraseDups);
+        } catch (IOException e) {
+            System.err.println("history: " + historyFile + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized boolean isSyncDue() {
+        return syncPending && System.nanoTime() - lastSyncNanos >= syncIntervalNanos;
+    }
+
+    private void writePending() throws IOException {
+        synchronized (writeLock) {
+            int from;
+            int to;
+            synchronized (this) {
+                from = Math.max(writtenIndex, history.firstIndex()); // lines may have been evicted before being written
+                to = history.endIndex();
+            }
+            if (from >= to) return;
+
+            List<String> lines = history.slice(from, to);
+            appendLines(historyFile, lines, false);
+
+            synchronized (this) {
+                writtenIndex = to;
+                linesSinceCompaction += lines.size();
+                syncPending = true;
+            }
+        }
+    }
+
+    private void sync() throws IOException {
+        synchronized (this) {
+            if (!syncPending) return;
+            syncPending = false;
+            lastSyncNanos = System.nanoTime();
+        }
+        long start = System.nanoTime();
+        HistoryIoEvent event = new HistoryIoEvent();
+        event.begin();
+        // fsync flushes the file's data whichever descriptor wrote it, so a fresh channel is enough
+        try (FileChannel channel = FileChannel.open(historyFile, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+        ShellMetrics.increment(ShellMetrics.Counter.HISTORY_SYNCS);
+        ShellMetrics.record(ShellMetrics.Timer.HISTORY_SYNC, start);
+        event.complete("sync", historyFile.toString(), 0, 0);
+    }
+
+    /**
+     * Appends lines to a file in a single write, holding an exclusive lock on it (through its sidecar lock file)
+     * @param file file to append to (created if it doesn't exist)
+     * @param lines lines to append
+     * @param sync true to fsync the file before releasing the lock
+     * @throws IOException if writing fails
+     */
+    public static void appendLines(Path file, List<String> lines, boolean sync) throws IOException {
+        if (lines.isEmpty()) return;
+
+        long start = System.nanoTime();
+        HistoryIoEvent event = new HistoryIoEvent();
+        event.begin();
+        StringBuilder text = new StringBuilder(lines.size() * 32);
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(text.toString());
+        int bytes = buffer.remaining();
+
+        synchronized (APPEND_LOCK) {
+            try (FileChannel _ = lock(file); FileChannel channel = FileChannel.open(
+                    file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+            )) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (sync) channel.force(false);
+            }
+        }
+        ShellMetrics.add(ShellMetrics.Counter.HISTORY_LINES_WRITTEN, lines.size());
+        ShellMetrics.add(ShellMetrics.Counter.HISTORY_BYTES_WRITTEN, bytes);
+        ShellMetrics.record(ShellMetrics.Timer.HISTORY_APPEND, start);
+        event.complete("append", file.toString(), lines.size(), bytes);
+    }
+
+    /**
+     * Rewrites a file with only its newest lines, atomically replacing it, holding an exclusive lock on it
+     * @param file file to compact
+     * @param maxLines max number of lines to keep
+     * @param eraseDups true to also drop older copies of duplicate lines
+     * @return true if file was rewritten, false if it was already within limits (or doesn't exist)
+     * @throws IOException if reading or writing fails
+     */
+    public static boolean compact(Path file, int maxLines, boolean eraseDups) throws IOException {
+        long start = System.nanoTime();
+        HistoryIoEvent event = new HistoryIoEvent();
+        event.begin();
+        synchronized (APPEND_LOCK) {
+            try (FileChannel _ = lock(file)) {
+                if (!Files.exists(file)) return false;
+
+                // keep a window of the newest lines only, unless duplicates need all of them to be found
+                ArrayDeque<String> lines = new ArrayDeque<>();
+                int readLines = 0;
+                try (BufferedReader reader = Files.newBufferedReader(file)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        readLines++;
+                        if (line.isBlank()) continue;
+                        lines.addLast(line);
+                        if (!eraseDups && lines.size() > maxLines) lines.removeFirst();
+                    }
+                }
+
+                List<String> kept = new ArrayList<>(Math.min(lines.size(), maxLines));
+                Set<String> seen = eraseDups ? new HashSet<>() : null;
+                for (var iterator = lines.descendingIterator(); iterator.hasNext() && kept.size() < maxLines; ) {
+                    String line = iterator.next();
+                    if (seen == null || seen.add(line)) kept.add(line);
+                }
+                if (kept.size() == readLines) return false;
+
+                StringBuilder text = new StringBuilder(kept.size() * 32);
+                for (int i = kept.size() - 1; i >= 0; i--) {
+                    text.append(kept.get(i)).append('\n');
+                }
+                ByteBuffer buffer = StandardCharsets.UTF_8.encode(text.toString());
+                int bytes = buffer.remaining();
+
+                Path directory = file.toAbsolutePath().getParent();
+                Path temporaryFile = Files.createTempFile(directory, file.getFileName() + ".", ".tmp");
+                try {
+                    try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        channel.force(false);
+                    }
+                    Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    Files.deleteIfExists(temporaryFile);
+                    throw e;
+                }
+                ShellMetrics.increment(ShellMetrics.Counter.HISTORY_COMPACTIONS);
+                ShellMetrics.record(ShellMetrics.Timer.HISTORY_COMPACT, start);
+                event.complete("compact", file.toString(), kept.size(), bytes);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Something done with history or history files while the writer is held off
+     */
+    public interface HistoryAction {
+        void run() throws IOException;
+    }
+
+    // locks are taken on a sidecar file, as compaction replaces the history file itself
+    private static FileChannel lock(Path file) throws IOException {
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lockChannel.lock();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        return lockChannel;
+    }
+}
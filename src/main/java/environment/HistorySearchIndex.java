@@ -0,0 +1,225 @@
+package environment;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Trigram index over a history store, for substring searches that return the most recent match first.
+ *
+ * Each trigram maps to the ascending indexes of the lines containing it. A search walks the shortest posting list
+ * of the query's trigrams from the newest line backwards, so it only looks at lines containing its rarest trigram.
+ * Lines are indexed incrementally: every search first indexes the lines added to the store since the last one.
+ * Indexes of lines evicted from the store are pruned from the postings once they make up a good part of them.
+ * Queries shorter than a trigram scan the store backwards, which finds recent matches quickly as short queries
+ * match often.
+ */
+public class HistorySearchIndex {
+
+    private final HistoryStore history;
+    private final TrigramMap postings;
+    private int indexedSize;
+    private int prunedBefore;
+
+    public HistorySearchIndex(HistoryStore history) {
+        this.history = history;
+        this.postings = new TrigramMap();
+        this.indexedSize = 0;
+    }
+
+    /**
+     * Finds the most recent line containing a query, older than a given line
+     * @param query substring to search for
+     * @param before index to search before (exclusive), e.g. history end index to search from the newest line
+     * @return index of matching line, or -1 if no line matches
+     */
+    public synchronized int searchBackward(String query, int before) {
+        catchUp();
+        before = Math.min(before, indexedSize);
+        int first = history.firstIndex();
+        if (query.isEmpty() || before <= first) return -1;
+
+        // too short for trigrams, scan lines instead
+        if (query.length() < 3) {
+            for (int i = before - 1; i >= first; i--) {
+                if (matches(i, query)) return i;
+            }
+            return -1;
+        }
+
+        Postings[] lists = new Postings[query.length() - 2];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(trigram(query, i));
+            if (lists[i] == null) return -1; // some trigram is in no line at all
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+
+        // walk rarest trigram's lines from newest, the rest are checked by binary search
+        Postings rarest = lists[0];
+        for (int position = rarest.lowerBound(before) - 1; position >= 0; position--) {
+            int index = rarest.indexes[position];
+            if (index < first) break; // evicted from history, older ones too
+            if (containsAll(lists, index) && matches(index, query)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets index after the newest line indexed so far
+     * @return index
+     */
+    public synchronized int endIndex() {
+        return indexedSize;
+    }
+
+    /**
+     * Indexes lines added to history since last update (searches do it too, this lets it happen ahead of them)
+     */
+    public synchronized void update() {
+        catchUp();
+    }
+
+    private void catchUp() {
+        int first = history.firstIndex();
+        int end = history.endIndex();
+        for (int index = Math.max(indexedSize, first); index < end; index++) {
+            String line = history.get(index);
+            if (line == null) continue; // erased duplicate
+            for (int i = 0; i + 3 <= line.length(); i++) {
+                postings.getOrCreate(trigram(line, i)).add(index);
+            }
+        }
+        indexedSize = end;
+
+        // prune once there are at least as many evicted lines as kept ones, so it's amortized over the evictions
+        if (first - prunedBefore >= Math.max(end - first, 1024)) {
+            postings.prune(first);
+            prunedBefore = first;
+        }
+    }
+
+    private boolean matches(int index, String query) {
+        String line = history.get(index);
+        return line != null && line.contains(query);
+    }
+
+    private static boolean containsAll(Postings[] lists, int index) {
+        for (int i = 1; i < lists.length; i++) {
+            if (Arrays.binarySearch(lists[i].indexes, 0, lists[i].size, index) < 0) return false;
+        }
+        return true;
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    /**
+     * Open addressing map of trigram to postings, avoids boxing a key per trigram of every line
+     */
+    private static final class TrigramMap {
+        private long[] keys = new long[1024];
+        private Postings[] values = new Postings[1024];
+        private int size;
+
+        private Postings get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return values[slot];
+            }
+            return null;
+        }
+
+        private Postings getOrCreate(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            for (; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return values[slot];
+            }
+
+            Postings created = new Postings();
+            keys[slot] = key;
+            values[slot] = created;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+            return created;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Postings[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] == null) continue;
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        /**
+         * Removes indexes before a given one, and trigrams left without any
+         */
+        private void prune(int firstIndex) {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length];
+            values = new Postings[oldValues.length];
+            size = 0;
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] == null || !oldValues[i].removeBefore(firstIndex)) continue;
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * Ascending line indexes of a trigram
+     */
+    private static final class Postings {
+        private int[] indexes = new int[4];
+        private int size;
+
+        private void add(int index) {
+            // a trigram repeated in a line is only recorded once
+            if (size > 0 && indexes[size - 1] == index) return;
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+            indexes[size++] = index;
+        }
+
+        /**
+         * Removes indexes before a given one
+         * @return true if any index is left
+         */
+        private boolean removeBefore(int firstIndex) {
+            int removed = lowerBound(firstIndex);
+            size -= removed;
+            if (size > 0 && removed > 0) {
+                indexes = Arrays.copyOfRange(indexes, removed, removed + Math.max(size, 4));
+            }
+            return size > 0;
+        }
+
+        private int lowerBound(int index) {
+            int position = Arrays.binarySearch(indexes, 0, size, index);
+            return position >= 0 ? position : -position - 1;
+        }
+    }
+}
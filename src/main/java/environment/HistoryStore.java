@@ -0,0 +1,268 @@
+package environment;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Store of history lines, kept in fixed-size chunks and optionally bounded to the newest lines.
+ *
+ * Every line gets an index that never changes, counting from 0 for the first line ever added. When a max size
+ * is set, the chunks work as a ring buffer: lines older than the newest max size are evicted, and a chunk is
+ * dropped once all of its lines are. Appending never copies existing lines, and size and indexed access are O(1).
+ * Slices are views over the store, so listing or writing out the tail of a large history doesn't copy it.
+ *
+ * Duplicates can be ignored (a line equal to the newest one isn't added) or erased (older copies of an added line
+ * are removed, found through a map of line to its newest index). Erased lines keep their index and
+ * {@link #get(int)} returns null for them. They don't count towards max size, but are evicted along with older
+ * lines, and lines are evicted early rather than let erased lines take up more than max size slots.
+ *
+ * One thread appends at a time; any thread may read concurrently. Readers see every line up to the
+ * end index they observed, as the index is published after the line is stored.
+ */
+public class HistoryStore {
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int maxSize;
+    private final boolean ignoreDups;
+    private final Map<String, Integer> newestIndexes; // only when erasing duplicates
+
+    private volatile Chunks chunks = new Chunks(new String[16][], 0);
+    private volatile int firstIndex;
+    private volatile int endIndex;
+    private int erasedCount;
+    private String newestLine;
+
+    /**
+     * Creates an unbounded store keeping duplicates
+     */
+    public HistoryStore() {
+        this(-1, false, false);
+    }
+
+    /**
+     * Creates store
+     * @param maxSize max number of lines kept (oldest are evicted first), negative for no limit
+     * @param ignoreDups true to not add a line equal to the newest one
+     * @param eraseDups true to erase older copies of a line when it is added
+     */
+    public HistoryStore(int maxSize, boolean ignoreDups, boolean eraseDups) {
+        this.maxSize = maxSize;
+        this.ignoreDups = ignoreDups;
+        this.newestIndexes = eraseDups ? new HashMap<>() : null;
+    }
+
+    /**
+     * Appends a line
+     * @param line line to append
+     * @return true if added, false if ignored (duplicate of newest line, or max size is 0)
+     */
+    public synchronized boolean add(String line) {
+        if (maxSize == 0 || (ignoreDups && line.equals(newestLine))) {
+            return false;
+        }
+
+        int index = endIndex;
+        if (newestIndexes != null) {
+            Integer olderIndex = newestIndexes.put(line, index);
+            if (olderIndex != null && olderIndex >= firstIndex) {
+                erase(olderIndex);
+            }
+        }
+
+        Chunks currentChunks = chunks;
+        int chunkIndex = (index >>> CHUNK_SHIFT) - currentChunks.firstChunk;
+        if (chunkIndex == currentChunks.table.length) {
+            // drop evicted chunks from the table before growing it
+            currentChunks = currentChunks.resized(firstIndex >>> CHUNK_SHIFT);
+            chunkIndex = (index >>> CHUNK_SHIFT) - currentChunks.firstChunk;
+        }
+        if (currentChunks.table[chunkIndex] == null) {
+            currentChunks.table[chunkIndex] = new String[CHUNK_SIZE];
+        }
+        currentChunks.table[chunkIndex][index & CHUNK_MASK] = line;
+
+        chunks = currentChunks;
+        newestLine = line;
+        endIndex = index + 1;
+
+        if (maxSize > 0) {
+            evictOverflow(currentChunks);
+        }
+        return true;
+    }
+
+    private void evictOverflow(Chunks currentChunks) {
+        // evict oldest lines past max size along with erased lines before them, and erased lines
+        // in between never take up more than max size slots
+        int newFirstIndex = firstIndex;
+        int liveLines = endIndex - firstIndex - erasedCount;
+        while (newFirstIndex < endIndex) {
+            boolean erased = currentChunks.line(newFirstIndex) == null;
+            if (liveLines <= maxSize && !erased && endIndex - newFirstIndex <= 2 * maxSize) break;
+            if (!erased) liveLines--;
+            newFirstIndex++;
+        }
+        if (newFirstIndex > firstIndex) {
+            evictBefore(newFirstIndex);
+        }
+    }
+
+    private void erase(int index) {
+        Chunks currentChunks = chunks;
+        currentChunks.table[(index >>> CHUNK_SHIFT) - currentChunks.firstChunk][index & CHUNK_MASK] = null;
+        erasedCount++;
+    }
+
+    private void evictBefore(int newFirstIndex) {
+        Chunks currentChunks = chunks;
+        for (int index = firstIndex; index < newFirstIndex; index++) {
+            String line = currentChunks.line(index);
+            if (line == null) {
+                erasedCount--;
+            } else if (newestIndexes != null) {
+                newestIndexes.remove(line, index);
+            }
+        }
+        firstIndex = newFirstIndex;
+
+        // free chunks with no lines left, readers holding them still see their lines as evicted by index
+        int firstChunk = newFirstIndex >>> CHUNK_SHIFT;
+        for (int chunk = currentChunks.firstChunk; chunk < firstChunk; chunk++) {
+            currentChunks.table[chunk - currentChunks.firstChunk] = null;
+        }
+    }
+
+    /**
+     * Gets line at index
+     * @param index index of line, from {@link #firstIndex()} (inclusive) to {@link #endIndex()} (exclusive)
+     * @return line, or null if it was erased as a duplicate
+     */
+    public String get(int index) {
+        int first = firstIndex;
+        int end = endIndex;
+        if (index < first || index >= end) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for history [" + first + ", " + end + ")");
+        }
+        Chunks currentChunks = chunks;
+        int chunkIndex = (index >>> CHUNK_SHIFT) - currentChunks.firstChunk;
+        String[] chunk = chunkIndex >= 0 ? currentChunks.table[chunkIndex] : null;
+        if (chunk == null) { // evicted after the bounds check
+            throw new IndexOutOfBoundsException("Index " + index + " was evicted from history");
+        }
+        return chunk[index & CHUNK_MASK];
+    }
+
+    /**
+     * Gets index of the oldest line kept
+     * @return index, 0 until lines are evicted
+     */
+    public int firstIndex() {
+        return firstIndex;
+    }
+
+    /**
+     * Gets index after the newest line, i.e. the number of lines ever added
+     * @return index
+     */
+    public int endIndex() {
+        return endIndex;
+    }
+
+    /**
+     * Gets a read-only view of lines between two indexes, without erased lines
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @return view of lines (a copy if there are erased lines to skip)
+     */
+    public synchronized List<String> slice(int from, int to) {
+        if (from < firstIndex || to > endIndex || from > to) {
+            throw new IndexOutOfBoundsException("Slice [" + from + ", " + to + ") out of bounds for history ["
+                    + firstIndex + ", " + endIndex + ")");
+        }
+        if (erasedCount == 0) {
+            return new Slice(from, to);
+        }
+
+        List<String> lines = new ArrayList<>(to - from);
+        for (int index = from; index < to; index++) {
+            String line = get(index);
+            if (line != null) lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Gets a read-only view of the last lines
+     * @param count max number of lines
+     * @return view of the last count lines (fewer if history is smaller)
+     */
+    public synchronized List<String> tail(int count) {
+        int from = endIndex;
+        for (int found = 0; found < count && from > firstIndex; ) {
+            if (get(--from) != null) found++;
+        }
+        return slice(from, endIndex);
+    }
+
+    /**
+     * Gets a read-only view of all lines currently in history
+     * @return view of lines
+     */
+    public synchronized List<String> asList() {
+        return slice(firstIndex, endIndex);
+    }
+
+    /**
+     * Table of chunks, the first one holding lines from index firstChunk << CHUNK_SHIFT
+     */
+    private static final class Chunks {
+        private final String[][] table;
+        private final int firstChunk;
+
+        private Chunks(String[][] table, int firstChunk) {
+            this.table = table;
+            this.firstChunk = firstChunk;
+        }
+
+        private String line(int index) {
+            return table[(index >>> CHUNK_SHIFT) - firstChunk][index & CHUNK_MASK];
+        }
+
+        private Chunks resized(int newFirstChunk) {
+            int kept = table.length - (newFirstChunk - firstChunk);
+            String[][] newTable = kept * 2 > table.length ? new String[table.length * 2][] : new String[table.length][];
+            System.arraycopy(table, newFirstChunk - firstChunk, newTable, 0, kept);
+            return new Chunks(newTable, newFirstChunk);
+        }
+    }
+
+    private final class Slice extends AbstractList<String> implements RandomAccess {
+        private final int from;
+        private final int to;
+
+        private Slice(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return HistoryStore.this.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
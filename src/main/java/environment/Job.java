@@ -0,0 +1,136 @@
+package environment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A command line running in the background, as a task of the shell's task executor.
+ *
+ * The thread running the job (and the threads it starts, which inherit it) can find the job with {@link #current()},
+ * which is how external commands register the processes they start, so the job can report and kill them.
+ */
+public class Job {
+
+    public enum State { RUNNING, DONE, TERMINATED }
+
+    private static final InheritableThreadLocal<Job> CURRENT = new InheritableThreadLocal<>();
+
+    private final int id;
+    private final String commandLine;
+    private final List<ProcessHandle> processes;
+    private final CompletableFuture<Void> launched;
+    private volatile Future<?> future;
+    private volatile State state;
+
+    Job(int id, String commandLine) {
+        this.id = id;
+        this.commandLine = commandLine;
+        this.processes = new ArrayList<>();
+        this.launched = new CompletableFuture<>();
+        this.state = State.RUNNING;
+    }
+
+    /**
+     * Gets job the current thread runs for
+     * @return job, or empty if running in the foreground
+     */
+    public static Optional<Job> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    void run(Runnable body) {
+        CURRENT.set(this);
+        try {
+            body.run();
+        } finally {
+            CURRENT.remove();
+            synchronized (this) {
+                if (state == State.RUNNING) state = State.DONE;
+            }
+            launched.complete(null);
+        }
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Registers processes started for this job. If the job was killed meanwhile, they are destroyed right away.
+     * @param startedProcesses processes started
+     */
+    public void addProcesses(List<ProcessHandle> startedProcesses) {
+        synchronized (this) {
+            processes.addAll(startedProcesses);
+            if (state == State.TERMINATED) {
+                startedProcesses.forEach(ProcessHandle::destroy);
+            }
+        }
+        launched.complete(null);
+    }
+
+    /**
+     * Waits until the job started its first processes (or finished without any)
+     * @return pid of the last process started, or empty if none was
+     */
+    public Optional<Long> awaitLaunch() {
+        launched.join();
+        synchronized (this) {
+            return processes.isEmpty() ? Optional.empty() : Optional.of(processes.getLast().pid());
+        }
+    }
+
+    /**
+     * Checks if a process was started by this job
+     * @param pid pid of process
+     * @return true if job started it
+     */
+    public synchronized boolean hasProcess(long pid) {
+        return processes.stream().anyMatch(process -> process.pid() == pid);
+    }
+
+    /**
+     * Waits for the job to finish
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        try {
+            future.get();
+        } catch (CancellationException | ExecutionException ignored) {
+            // killed, or failed - both mean it's over
+        }
+    }
+
+    /**
+     * Kills the job: destroys its processes & interrupts its threads
+     * @param forcibly true to kill processes forcibly (SIGKILL), false to ask them to terminate (SIGTERM)
+     */
+    public void kill(boolean forcibly) {
+        synchronized (this) {
+            if (state != State.RUNNING) return;
+            state = State.TERMINATED;
+            for (ProcessHandle process : processes) {
+                if (forcibly) process.destroyForcibly();
+                else process.destroy();
+            }
+        }
+        future.cancel(true);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getCommandLine() {
+        return commandLine;
+    }
+
+    public State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,145 @@
+package environment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Background jobs of the shell, by job number.
+ *
+ * Numbers start at 1 and a new job gets one more than the highest number in use, so they start over once every
+ * job finished and was reported. The job with the highest number is the current job ({@code +}), the one
+ * before it the previous job ({@code -}).
+ */
+public class JobTable {
+
+    private final TreeMap<Integer, Job> jobs = new TreeMap<>();
+
+    /**
+     * Starts a job on an executor
+     * @param commandLine command line of the job, as shown to the user
+     * @param body what the job runs
+     * @param executor executor to run job on
+     * @return job started
+     */
+    public synchronized Job start(String commandLine, Runnable body, ExecutorService executor) {
+        Job job = new Job(jobs.isEmpty() ? 1 : jobs.lastKey() + 1, commandLine);
+        jobs.put(job.getId(), job);
+        job.setFuture(executor.submit(() -> job.run(body)));
+        return job;
+    }
+
+    /**
+     * Gets job by number
+     * @param id job number
+     * @return job, or empty if there's no such job
+     */
+    public synchronized Optional<Job> get(int id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * Gets current job
+     * @return job with highest number, or empty if there are no jobs
+     */
+    public synchronized Optional<Job> current() {
+        return jobs.isEmpty() ? Optional.empty() : Optional.of(jobs.lastEntry().getValue());
+    }
+
+    /**
+     * Gets all jobs
+     * @return jobs ordered by number
+     */
+    public synchronized List<Job> jobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Finds job by a job spec: {@code %n} for job n, {@code %%} or {@code %+} for current job, {@code %-} for
+     * previous job
+     * @param spec job spec
+     * @return job, or empty if there's no such job or spec isn't a job spec
+     */
+    public synchronized Optional<Job> find(String spec) {
+        if (!spec.startsWith("%")) return Optional.empty();
+        String id = spec.substring(1);
+        return switch (id) {
+            case "%", "+" -> current();
+            case "-" -> current().map(job -> jobs.lowerEntry(job.getId())).map(Map.Entry::getValue);
+            default -> {
+                try {
+                    yield get(Integer.parseInt(id));
+                } catch (NumberFormatException e) {
+                    yield Optional.empty();
+                }
+            }
+        };
+    }
+
+    /**
+     * Finds job that started a process
+     * @param pid pid of process
+     * @return job, or empty if no job started it
+     */
+    public synchronized Optional<Job> findByPid(long pid) {
+        return jobs.values().stream().filter(job -> job.hasProcess(pid)).findFirst();
+    }
+
+    /**
+     * Removes a job, without reporting it
+     * @param job job to remove
+     */
+    public synchronized void remove(Job job) {
+        jobs.remove(job.getId(), job);
+    }
+
+    /**
+     * Gets status lines of all jobs, removing the finished ones (they're only reported once)
+     * @return status lines, ordered by job number
+     */
+    public synchronized List<String> reportAll() {
+        return report(false);
+    }
+
+    /**
+     * Gets status lines of jobs that finished since last reported, removing them
+     * @return status lines, ordered by job number
+     */
+    public synchronized List<String> reportFinished() {
+        return report(true);
+    }
+
+    private List<String> report(boolean finishedOnly) {
+        List<String> lines = new ArrayList<>();
+        Integer currentId = jobs.isEmpty() ? null : jobs.lastKey();
+        Integer previousId = currentId == null ? null : jobs.lowerKey(currentId);
+
+        for (Job job : new ArrayList<>(jobs.values())) {
+            Job.State state = job.getState();
+            if (finishedOnly && state == Job.State.RUNNING) continue;
+
+            char marker = job.getId() == currentId ? '+' : previousId != null && job.getId() == previousId ? '-' : ' ';
+            lines.add(statusLine(job, marker, state));
+            if (state != Job.State.RUNNING) {
+                jobs.remove(job.getId());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Formats status of a job like bash does, e.g. {@code [1]+  Running                 sleep 10 &}
+     */
+    private static String statusLine(Job job, char marker, Job.State state) {
+        String status = switch (state) {
+            case RUNNING -> "Running";
+            case DONE -> "Done";
+            case TERMINATED -> "Terminated";
+        };
+        String commandLine = state == Job.State.RUNNING ? job.getCommandLine() + " &" : job.getCommandLine();
+        return String.format("[%d]%c  %-24s%s", job.getId(), marker, status, commandLine);
+    }
+}
@@ -0,0 +1,375 @@
+package environment;
+
+import metrics.PathRescanEvent;
+import metrics.ShellMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static java.nio.file.Files.isExecutable;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Index of executables available in the directories of $PATH.
+ *
+ * Each directory is scanned once and then only rescanned when it changes: a {@link WatchService} flags
+ * directories whose entries were created, deleted or modified, and directories that cannot be watched
+ * fall back to a modification time check. Lookups honour $PATH order (first directory wins), misses are
+ * remembered in a bounded negative cache, and the whole index is rebuilt when $PATH itself changes.
+ *
+ * (Re)building the index doesn't block: directories are scanned in parallel in the background, and a lookup
+ * only waits for the directories it has to look at, in $PATH order, to be scanned.
+ * All state is guarded by this object's monitor - waiting lookups release it while background scans complete.
+ */
+public class PathIndex implements Closeable {
+
+    private static final int DEFAULT_NEGATIVE_CACHE_SIZE = 1024;
+    private static final ExecutorService SCAN_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Supplier<String> pathVariableSupplier;
+    private final Map<String, Boolean> negativeCache;
+    private final Map<WatchKey, PathDirectory> watchedDirectories;
+    private final List<CommandNameListener> listeners;
+    private WatchService watchService;
+    private String indexedPathVariable;
+    private List<PathDirectory> directories;
+
+    public PathIndex(Supplier<String> pathVariableSupplier) {
+        this(pathVariableSupplier, DEFAULT_NEGATIVE_CACHE_SIZE);
+    }
+
+    public PathIndex(Supplier<String> pathVariableSupplier, int negativeCacheSize) {
+        this.pathVariableSupplier = pathVariableSupplier;
+        this.negativeCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > negativeCacheSize;
+            }
+        };
+        this.watchedDirectories = new HashMap<>();
+        this.listeners = new ArrayList<>();
+        this.directories = List.of();
+        this.watchService = newWatchService();
+    }
+
+    /**
+     * Find the executable for a command, honouring $PATH precedence
+     * @param command command/executable to find
+     * @return executable full path
+     */
+    public synchronized Optional<Path> lookup(String command) {
+        refresh();
+
+        Optional<Path> found = resolve(command);
+        if (found.isPresent() || negativeCache.containsKey(command)) {
+            return found;
+        }
+
+        // a new miss - the watcher may not have caught up yet, so check directory mtimes (one stat per directory)
+        if (rescanChangedDirectories(true)) {
+            found = resolve(command);
+        }
+        // an interrupted wait for a scan gives up before every directory was looked at, which isn't a miss
+        if (found.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            negativeCache.put(command, Boolean.TRUE);
+        }
+        return found;
+    }
+
+    /**
+     * Get names of all executables in $PATH, each listed once
+     * @return list of command names
+     */
+    public synchronized List<String> commandNames() {
+        refresh();
+
+        Set<String> names = new LinkedHashSet<>();
+        for (PathDirectory directory : directories) {
+            if (!awaitScan(directory))
+                break;
+            names.addAll(directory.executables.keySet());
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Brings the index up to date: rebuilds it if $PATH changed, otherwise rescans directories known to have changed
+     */
+    public synchronized void refresh() {
+        String pathVariable = Objects.requireNonNullElse(pathVariableSupplier.get(), "");
+        if (!pathVariable.equals(indexedPathVariable)) {
+            rebuild(pathVariable);
+            return;
+        }
+        rescanChangedDirectories(false);
+    }
+
+    /**
+     * Register a listener for executables entering or leaving the index.
+     * The listener is immediately told about every executable currently indexed, and about those of
+     * directories still being scanned once their scan completes.
+     * @param listener listener to register
+     */
+    public synchronized void addListener(CommandNameListener listener) {
+        refresh();
+        for (PathDirectory directory : directories) {
+            directory.executables.keySet().forEach(listener::commandAdded);
+        }
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+    }
+
+    /**
+     * Finds the executable for a command in the scanned directories, waiting for their scans
+     * @param command command/executable to find
+     * @return executable full path - empty if not found, or if interrupted while waiting (interrupt status is set)
+     */
+    private Optional<Path> resolve(String command) {
+        for (PathDirectory directory : directories) {
+            if (!awaitScan(directory))
+                break;
+            Path path = directory.executables.get(command);
+            if (path != null) {
+                return Optional.of(path);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private void rebuild(String pathVariable) {
+        watchedDirectories.keySet().forEach(WatchKey::cancel);
+        watchedDirectories.clear();
+        negativeCache.clear();
+        for (PathDirectory directory : directories) {
+            directory.discarded = true;
+            notifyChanges(directory.executables, Map.of());
+        }
+
+        // keep the first occurrence of each directory - later duplicates can never win a lookup
+        Set<Path> seen = new HashSet<>();
+        List<PathDirectory> rebuilt = new ArrayList<>();
+        for (String path : pathVariable.split(File.pathSeparator)) {
+            if (path.isEmpty())
+                continue;
+
+            Path directoryPath = Path.of(path).toAbsolutePath().normalize();
+            if (!seen.add(directoryPath))
+                continue;
+
+            // watch before listing so changes made during the scan aren't missed
+            PathDirectory directory = new PathDirectory(directoryPath);
+            watch(directory);
+            scanInBackground(directory);
+            rebuilt.add(directory);
+        }
+
+        directories = List.copyOf(rebuilt);
+        indexedPathVariable = pathVariable;
+    }
+
+    /**
+     * Rescans directories flagged by the watcher, plus those whose mtime changed
+     * @param checkAllModificationTimes if true, mtime is checked on watched directories too
+     * @return true if any directory was rescanned
+     */
+    private boolean rescanChangedDirectories(boolean checkAllModificationTimes) {
+        boolean changed = false;
+        for (PathDirectory directory : directories) {
+            // a pending background scan will see the current state anyway
+            if (!directory.scanned)
+                continue;
+
+            boolean checkModificationTime = checkAllModificationTimes || directory.watchKey == null;
+            if (directory.stale || (checkModificationTime && directory.modificationTimeChanged())) {
+                scan(directory);
+                changed = true;
+            }
+        }
+
+        // anything we remembered as missing may exist now
+        if (changed) {
+            negativeCache.clear();
+        }
+        return changed;
+    }
+
+    private void scan(PathDirectory directory) {
+        long start = System.nanoTime();
+        PathRescanEvent event = new PathRescanEvent();
+        event.begin();
+
+        directory.stale = false;
+        long lastModified = directory.path.toFile().lastModified();
+        publish(directory, PathDirectory.listExecutables(directory.path), lastModified);
+
+        ShellMetrics.increment(ShellMetrics.Counter.PATH_RESCANS);
+        ShellMetrics.record(ShellMetrics.Timer.PATH_RESCAN, start);
+        event.complete(directory.path.toString(), directory.executables.size());
+    }
+
+    private void scanInBackground(PathDirectory directory) {
+        SCAN_EXECUTOR.execute(() -> {
+            long lastModified = Long.MIN_VALUE;
+            Map<String, Path> executables = Map.of();
+            try {
+                lastModified = directory.path.toFile().lastModified();
+                executables = PathDirectory.listExecutables(directory.path);
+            } finally {
+                // even a failed scan is published (as empty), lookups waiting for it must not wait forever
+                synchronized (this) {
+                    if (!directory.discarded) {
+                        publish(directory, executables, lastModified);
+                    }
+                    notifyAll();
+                }
+            }
+        });
+    }
+
+    private void publish(PathDirectory directory, Map<String, Path> executables, long lastModified) {
+        Map<String, Path> previous = directory.executables;
+        directory.executables = executables;
+        directory.lastModified = lastModified;
+        directory.scanned = true;
+        notifyChanges(previous, executables);
+    }
+
+    /**
+     * Waits until directory has been scanned at least once
+     * @param directory directory to wait for
+     * @return false if interrupted while waiting
+     */
+    private boolean awaitScan(PathDirectory directory) {
+        while (!directory.scanned) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void notifyChanges(Map<String, Path> previous, Map<String, Path> current) {
+        if (listeners.isEmpty())
+            return;
+
+        for (String commandName : previous.keySet()) {
+            if (!current.containsKey(commandName)) {
+                listeners.forEach(listener -> listener.commandRemoved(commandName));
+            }
+        }
+        for (String commandName : current.keySet()) {
+            if (!previous.containsKey(commandName)) {
+                listeners.forEach(listener -> listener.commandAdded(commandName));
+            }
+        }
+    }
+
+    private WatchService newWatchService() {
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            Thread watchThread = new Thread(() -> processWatchEvents(service), "path-index-watcher");
+            watchThread.setDaemon(true);
+            watchThread.start();
+            return service;
+        } catch (IOException | UnsupportedOperationException e) {
+            return null; // every directory falls back to mtime checks
+        }
+    }
+
+    private void watch(PathDirectory directory) {
+        if (watchService == null)
+            return;
+
+        try {
+            directory.watchKey = directory.path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            watchedDirectories.put(directory.watchKey, directory);
+        } catch (IOException | ClosedWatchServiceException e) {
+            directory.watchKey = null;
+        }
+    }
+
+    private void processWatchEvents(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            // we don't care which entry changed - any event (including OVERFLOW) marks the directory for rescan
+            key.pollEvents();
+            synchronized (this) {
+                PathDirectory directory = watchedDirectories.get(key);
+                if (directory != null) {
+                    directory.stale = true;
+                    if (!key.reset()) {
+                        // directory is gone or unreadable, fall back to mtime checks
+                        watchedDirectories.remove(key);
+                        directory.watchKey = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A single directory of $PATH and the executables found in it on the last scan
+     */
+    private static final class PathDirectory {
+        private final Path path;
+        private boolean stale;
+        private boolean scanned;
+        private boolean discarded;
+        private WatchKey watchKey;
+        private long lastModified;
+        private Map<String, Path> executables;
+
+        private PathDirectory(Path path) {
+            this.path = path;
+            this.executables = Map.of();
+            this.lastModified = Long.MIN_VALUE;
+        }
+
+        private boolean modificationTimeChanged() {
+            return path.toFile().lastModified() != lastModified;
+        }
+
+        private static Map<String, Path> listExecutables(Path path) {
+            File[] filesInPath = path.toFile().listFiles();
+            if (filesInPath == null) {
+                return Map.of();
+            }
+
+            Map<String, Path> found = new HashMap<>(filesInPath.length * 2);
+            for (File file : filesInPath) {
+                Path filePath;
+                try {
+                    filePath = file.toPath();
+                } catch (InvalidPathException e) {
+                    continue; // name can't be encoded in this locale, so it can't be run either
+                }
+                if (isExecutable(filePath) && !file.isDirectory()) {
+                    found.put(file.getName(), filePath);
+                }
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package environment;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * User & system cpu time of the shell plus the child processes it waited for, from getrusage(2) - the same
+ * numbers bash's time reports. Where getrusage can't be called, only the shell's own cpu time is known,
+ * and it's all counted as user time.
+ */
+public final class ResourceUsage {
+
+    private static final int RUSAGE_SELF = 0;
+    private static final int RUSAGE_CHILDREN = -1;
+    // struct rusage starts with ru_utime & ru_stime, each a struct timeval of two longs; 144 bytes in all on 64-bit
+    private static final long RUSAGE_SIZE = 144;
+
+    private static final MethodHandle GETRUSAGE = getrusage();
+
+    private final long userNanos;
+    private final long systemNanos;
+
+    private ResourceUsage(long userNanos, long systemNanos) {
+        this.userNanos = userNanos;
+        this.systemNanos = systemNanos;
+    }
+
+    /**
+     * Gets cpu time used so far
+     * @return cpu time of shell & its waited for children
+     */
+    public static ResourceUsage now() {
+        if (GETRUSAGE != null) {
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment rusage = arena.allocate(RUSAGE_SIZE, JAVA_LONG.byteAlignment());
+                long user = 0;
+                long system = 0;
+                for (int who : new int[] { RUSAGE_SELF, RUSAGE_CHILDREN }) {
+                    if ((int) GETRUSAGE.invokeExact(who, rusage) != 0) {
+                        break;
+                    }
+                    user += timevalNanos(rusage, 0);
+                    system += timevalNanos(rusage, 16);
+                }
+                return new ResourceUsage(user, system);
+            } catch (Throwable e) {
+                // fall through to the JVM's own cpu time
+            }
+        }
+
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return new ResourceUsage(Math.max(os.getProcessCpuTime(), 0), 0);
+        }
+        return new ResourceUsage(0, 0);
+    }
+
+    /**
+     * Gets cpu time used between two snapshots
+     * @param earlier earlier snapshot
+     * @return difference
+     */
+    public ResourceUsage minus(ResourceUsage earlier) {
+        return new ResourceUsage(userNanos - earlier.userNanos, systemNanos - earlier.systemNanos);
+    }
+
+    public long getUserNanos() {
+        return userNanos;
+    }
+
+    public long getSystemNanos() {
+        return systemNanos;
+    }
+
+    private static long timevalNanos(MemorySegment rusage, long offset) {
+        return rusage.get(JAVA_LONG, offset) * 1_000_000_000L + rusage.get(JAVA_LONG, offset + 8) * 1_000L;
+    }
+
+    private static MethodHandle getrusage() {
+        try {
+            Linker linker = Linker.nativeLinker();
+            return linker.defaultLookup()
+                    .find("getrusage")
+                    .map(symbol -> linker.downcallHandle(symbol, FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS)))
+                    .orElse(null);
+        } catch (RuntimeException | LinkageError e) {
+            // native access denied
+            return null;
+        }
+    }
+}
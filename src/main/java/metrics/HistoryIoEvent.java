@@ -0,0 +1,47 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("codecrafters.shell.HistoryIo")
+@Label("History I/O")
+@Description("Reading, appending to, syncing or compacting a history file")
+@Category("CodeCrafters Shell")
+public class HistoryIoEvent extends Event {
+
+    @Label("Operation")
+    @Description("read, append, sync or compact")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Lines")
+    int lines;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Ends the event & commits it if enabled
+     * @param operation read, append, sync or compact
+     * @param file history file
+     * @param lines lines read, appended or kept by compaction
+     * @param bytes bytes written, 0 if not known
+     */
+    public void complete(String operation, String file, int lines, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.file = file;
+            this.lines = lines;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds, with four buckets per power of two, so a percentile is off by at most 25%.
+ * Recording is an increment of one bucket plus two adds, no locks and no allocation.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a latency
+     * @param nanos latency, negative values count as 0
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(bucket(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Gets a percentile of recorded latencies
+     * @param percentile percentile, between 0 and 100
+     * @return upper bound of the bucket the percentile falls in, 0 if nothing was recorded
+     */
+    public long percentileNanos(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max((long) Math.ceil(total * percentile / 100), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    // values below 4 get a bucket each, above that a power of two is split by the two bits after the highest one
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int highestBit = 63 - Long.numberOfLeadingZeros(nanos);
+        return SUB_BUCKETS * (highestBit - 1) + (int) ((nanos >>> (highestBit - 2)) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int highestBit = bucket / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (highestBit - 2);
+        return lower + (1L << (highestBit - 2)) - 1;
+    }
+}
@@ -0,0 +1,39 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("codecrafters.shell.Parse")
+@Label("Command Parse")
+@Description("Parsing a command line into a pipeline of commands")
+@Category("CodeCrafters Shell")
+public class ParseEvent extends Event {
+
+    @Label("Line")
+    String line;
+
+    @Label("Commands")
+    int commands;
+
+    @Label("Failed")
+    boolean failed;
+
+    /**
+     * Ends the event & commits it if enabled
+     * @param line line parsed
+     * @param commands number of commands in pipeline, 0 if parsing failed
+     * @param failed true if line had a syntax error
+     */
+    public void complete(String line, int commands, boolean failed) {
+        end();
+        if (shouldCommit()) {
+            this.line = line;
+            this.commands = commands;
+            this.failed = failed;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("codecrafters.shell.PathRescan")
+@Label("PATH Directory Rescan")
+@Description("Listing a $PATH directory again after it changed")
+@Category("CodeCrafters Shell")
+public class PathRescanEvent extends Event {
+
+    @Label("Directory")
+    String directory;
+
+    @Label("Executables")
+    int executables;
+
+    /**
+     * Ends the event & commits it if enabled
+     * @param directory directory rescanned
+     * @param executables number of executables found in it
+     */
+    public void complete(String directory, int executables) {
+        end();
+        if (shouldCommit()) {
+            this.directory = directory;
+            this.executables = executables;
+            commit();
+        }
+    }
+}
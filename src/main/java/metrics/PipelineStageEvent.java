@@ -0,0 +1,47 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("codecrafters.shell.PipelineStage")
+@Label("Pipeline Stage")
+@Description("Lifetime of a pipeline stage: a builtin, or consecutive external commands connected by OS pipes")
+@Category("CodeCrafters Shell")
+public class PipelineStageEvent extends Event {
+
+    @Label("Stage")
+    int stage;
+
+    @Label("Commands")
+    String commands;
+
+    @Label("Bytes Written")
+    @Description("Bytes written to the next stage, -1 for the last stage")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Failed")
+    boolean failed;
+
+    /**
+     * Ends the event & commits it if enabled
+     * @param stage index of stage in pipeline
+     * @param commands commands of stage, as shown to the user
+     * @param bytesWritten bytes written to the next stage, -1 for the last stage
+     * @param failed true if stage threw
+     */
+    public void complete(int stage, String commands, long bytesWritten, boolean failed) {
+        end();
+        if (shouldCommit()) {
+            this.stage = stage;
+            this.commands = commands;
+            this.bytesWritten = bytesWritten;
+            this.failed = failed;
+            commit();
+        }
+    }
+}
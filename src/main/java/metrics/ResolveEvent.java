@@ -0,0 +1,35 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("codecrafters.shell.Resolve")
+@Label("Command Resolution")
+@Description("Looking up a command among the builtins and in $PATH")
+@Category("CodeCrafters Shell")
+public class ResolveEvent extends Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Result")
+    @Description("builtin, path or miss")
+    String result;
+
+    /**
+     * Ends the event & commits it if enabled
+     * @param command command looked up
+     * @param result builtin, path or miss
+     */
+    public void complete(String command, String result) {
+        end();
+        if (shouldCommit()) {
+            this.command = command;
+            this.result = result;
+            commit();
+        }
+    }
+}
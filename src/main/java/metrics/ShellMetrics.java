@@ -0,0 +1,160 @@
+package metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters & latency histograms of the shell, cheap enough to always be on: a counter is a {@link LongAdder}, a
+ * latency one {@link LatencyHistogram} bucket increment. Read them with the shellstat builtin, or have them
+ * written to a file when the shell exits by setting $CODECRAFTERS_SHELL_METRICS_FILE.
+ *
+ * For a timeline of individual commands, the same places emit JDK Flight Recorder events (category "CodeCrafters
+ * Shell"), see e.g. {@link ParseEvent}.
+ */
+public final class ShellMetrics {
+
+    public enum Counter {
+        LINES_PARSED("lines.parsed"),
+        PARSE_ERRORS("parse.errors"),
+        RESOLVE_BUILTIN("resolve.builtin"),
+        RESOLVE_PATH("resolve.path"),
+        RESOLVE_MISS("resolve.miss"),
+        PATH_RESCANS("path.rescans"),
+        PROCESSES_SPAWNED("spawn.processes"),
+        SPAWN_FAILURES("spawn.failures"),
+        TRANSFER_BYTES("transfer.bytes"),
+        PIPELINE_STAGES("pipeline.stages"),
+        PIPELINE_BYTES("pipeline.bytes"),
+        HISTORY_LINES_READ("history.lines.read"),
+        HISTORY_LINES_WRITTEN("history.lines.written"),
+        HISTORY_BYTES_WRITTEN("history.bytes.written"),
+        HISTORY_SYNCS("history.syncs"),
+        HISTORY_COMPACTIONS("history.compactions");
+
+        private final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    public enum Timer {
+        PARSE("parse"),
+        RESOLVE("resolve"),
+        PATH_RESCAN("path.rescan"),
+        SPAWN("spawn"),
+        PIPELINE_STAGE("pipeline.stage"),
+        HISTORY_READ("history.read"),
+        HISTORY_APPEND("history.append"),
+        HISTORY_SYNC("history.sync"),
+        HISTORY_COMPACT("history.compact");
+
+        private final String label;
+
+        Timer(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+    private static final LatencyHistogram[] TIMERS = new LatencyHistogram[Timer.values().length];
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i++) {
+            COUNTERS[i] = new LongAdder();
+        }
+        for (int i = 0; i < TIMERS.length; i++) {
+            TIMERS[i] = new LatencyHistogram();
+        }
+    }
+
+    private ShellMetrics() {}
+
+    public static void increment(Counter counter) {
+        COUNTERS[counter.ordinal()].increment();
+    }
+
+    public static void add(Counter counter, long amount) {
+        COUNTERS[counter.ordinal()].add(amount);
+    }
+
+    /**
+     * Records a latency that started at startNanos and ends now
+     * @param timer timer to record in
+     * @param startNanos {@link System#nanoTime()} when it started
+     */
+    public static void record(Timer timer, long startNanos) {
+        TIMERS[timer.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    public static LatencyHistogram get(Timer timer) {
+        return TIMERS[timer.ordinal()];
+    }
+
+    /**
+     * Sets every counter & timer back to 0
+     */
+    public static void reset() {
+        for (LongAdder counter : COUNTERS) {
+            counter.reset();
+        }
+        for (LatencyHistogram timer : TIMERS) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * Formats current values as a table: counters, then count, mean, percentiles & max of each timer
+     * @return snapshot, one line per counter or timer
+     */
+    public static String snapshot() {
+        StringBuilder snapshot = new StringBuilder(2048);
+        snapshot.append(String.format("%-24s%12s%n", "counter", "value"));
+        for (Counter counter : Counter.values()) {
+            snapshot.append(String.format("%-24s%12d%n", counter.getLabel(), get(counter)));
+        }
+
+        snapshot.append(String.format("%n%-24s%12s%12s%12s%12s%12s%12s%n", "latency (us)", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Timer timer : Timer.values()) {
+            LatencyHistogram histogram = get(timer);
+            long count = histogram.count();
+            snapshot.append(String.format("%-24s%12d%12.1f%12.1f%12.1f%12.1f%12.1f%n",
+                    timer.getLabel(),
+                    count,
+                    count == 0 ? 0 : histogram.totalNanos() / (count * 1e3),
+                    histogram.percentileNanos(50) / 1e3,
+                    histogram.percentileNanos(90) / 1e3,
+                    histogram.percentileNanos(99) / 1e3,
+                    histogram.maxNanos() / 1e3));
+        }
+        return snapshot.toString();
+    }
+
+    /**
+     * Writes a snapshot to a file when the JVM exits
+     * @param file file to write, replaced if it exists
+     */
+    public static void dumpOnExit(Path file) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.writeString(file, snapshot());
+            } catch (IOException e) {
+                System.err.println("metrics: " + file + ": " + e.getMessage());
+            }
+        }, "metrics-dump"));
+    }
+}
@@ -0,0 +1,45 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("codecrafters.shell.Spawn")
+@Label("Process Spawn")
+@Description("Starting the processes of external commands run as one pipeline")
+@Category("CodeCrafters Shell")
+public class SpawnEvent extends Event {
+
+    @Label("Commands")
+    String commands;
+
+    @Label("Processes")
+    int processes;
+
+    @Label("Spawner")
+    @Description("ProcessBuilder or posix_spawn")
+    String spawner;
+
+    @Label("Failed")
+    boolean failed;
+
+    /**
+     * Ends the event & commits it if enabled
+     * @param commands commands started, as shown to the user
+     * @param processes number of processes started
+     * @param spawner ProcessBuilder or posix_spawn
+     * @param failed true if processes couldn't be started
+     */
+    public void complete(String commands, int processes, String spawner, boolean failed) {
+        end();
+        if (shouldCommit()) {
+            this.commands = commands;
+            this.processes = processes;
+            this.spawner = spawner;
+            this.failed = failed;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer byte pipe backed by a ring buffer.
+ *
+ * Replaces {@link java.io.PipedInputStream}/{@link java.io.PipedOutputStream} between in-JVM pipeline stages:
+ * no locks, bulk copies of up to the whole capacity per call, and a blocked side is parked and unparked by
+ * the other side as soon as there is something to do (instead of polling with a timed wait).
+ *
+ * Exactly one thread may write to {@link #outputStream()} and one thread may read from {@link #inputStream()}.
+ */
+public final class ByteRingPipe {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final byte[] buffer;
+    private final int mask;
+
+    // positions only ever grow, index into buffer is position & mask. Positions are published with volatile
+    // (not release-only) stores so they are ordered before reading the other side's parked thread
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    private volatile Thread parkedReader;
+    private volatile Thread parkedWriter;
+    private volatile boolean writerClosed;
+    private volatile boolean readerClosed;
+
+    private final PipeInputStream inputStream = new PipeInputStream();
+    private final PipeOutputStream outputStream = new PipeOutputStream();
+
+    public ByteRingPipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a pipe
+     * @param capacity buffer capacity in bytes, rounded up to a power of two
+     */
+    public ByteRingPipe(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+    }
+
+    public PipeInputStream inputStream() {
+        return inputStream;
+    }
+
+    public PipeOutputStream outputStream() {
+        return outputStream;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Gets number of bytes written to the pipe so far
+     * @return bytes written
+     */
+    public long bytesWritten() {
+        return writePosition.get();
+    }
+
+    /**
+     * Checks if the reading side closed the pipe, after which writes fail (like writing to a broken OS pipe)
+     * @return true if reader closed
+     */
+    public boolean isReaderClosed() {
+        return readerClosed;
+    }
+
+    /**
+     * Blocks until bytes are readable or the writer closed
+     * @return number of readable bytes, 0 if end of stream
+     */
+    private int awaitReadable() throws IOException {
+        long readPos = readPosition.get();
+        while (true) {
+            long available = writePosition.get() - readPos;
+            if (available > 0)
+                return (int) available;
+            if (writerClosed) {
+                // writer may have published bytes right before closing
+                available = writePosition.get() - readPos;
+                return (int) available;
+            }
+
+            // announce we're parking, then re-check so a concurrent write can't be missed
+            parkedReader = Thread.currentThread();
+            if (writePosition.get() == readPos && !writerClosed) {
+                LockSupport.park(this);
+            }
+            parkedReader = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("interrupted while waiting for pipe data");
+            }
+        }
+    }
+
+    /**
+     * Blocks until there's free space or the reader closed
+     * @return number of writable bytes
+     */
+    private int awaitWritable() throws IOException {
+        long writePos = writePosition.get();
+        while (true) {
+            if (readerClosed)
+                throw new IOException("Pipe closed");
+
+            long free = buffer.length - (writePos - readPosition.get());
+            if (free > 0)
+                return (int) free;
+
+            parkedWriter = Thread.currentThread();
+            if (writePos - readPosition.get() == buffer.length && !readerClosed) {
+                LockSupport.park(this);
+            }
+            parkedWriter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("interrupted while waiting for pipe space");
+            }
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public final class PipeInputStream extends InputStream {
+
+        private PipeInputStream() {}
+
+        @Override
+        public int read() throws IOException {
+            if (awaitReadable() == 0)
+                return -1;
+
+            long readPos = readPosition.get();
+            int b = buffer[(int) readPos & mask] & 0xFF;
+            readPosition.set(readPos + 1);
+            unpark(parkedWriter);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0)
+                return 0;
+
+            int available = awaitReadable();
+            if (available == 0)
+                return -1;
+
+            long readPos = readPosition.get();
+            int n = Math.min(available, len);
+            int index = (int) readPos & mask;
+            int firstPart = Math.min(n, buffer.length - index);
+            System.arraycopy(buffer, index, b, off, firstPart);
+            System.arraycopy(buffer, 0, b, off + firstPart, n - firstPart);
+            readPosition.set(readPos + n);
+            unpark(parkedWriter);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) (writePosition.get() - readPosition.get());
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            unpark(parkedWriter);
+        }
+    }
+
+    public final class PipeOutputStream extends OutputStream {
+
+        private PipeOutputStream() {}
+
+        @Override
+        public void write(int b) throws IOException {
+            checkWritable();
+            awaitWritable();
+
+            long writePos = writePosition.get();
+            buffer[(int) writePos & mask] = (byte) b;
+            writePosition.set(writePos + 1);
+            unpark(parkedReader);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            checkWritable();
+
+            while (len > 0) {
+                int free = awaitWritable();
+
+                long writePos = writePosition.get();
+                int n = Math.min(free, len);
+                int index = (int) writePos & mask;
+                int firstPart = Math.min(n, buffer.length - index);
+                System.arraycopy(b, off, buffer, index, firstPart);
+                System.arraycopy(b, off + firstPart, buffer, 0, n - firstPart);
+                writePosition.set(writePos + n);
+                unpark(parkedReader);
+
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() {
+            writerClosed = true;
+            unpark(parkedReader);
+        }
+
+        private void checkWritable() throws IOException {
+            if (writerClosed)
+                throw new IOException("Pipe closed");
+        }
+    }
+}
@@ -1,31 +1,56 @@
 package shell;
 
 import command.CodeCraftersShellCommand;
+import command.CommandStreams;
+import command.PathCommand;
+import command.StreamTarget;
 import environment.CodeCraftersShellEnvironment;
+import environment.ExecutionTrace;
+import metrics.PipelineStageEvent;
+import metrics.ShellMetrics;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
 
 public class CodeCraftersPipelineExecutor {
 
+    // largest capacity that still rounds up to a power of two an int holds
+    private static final int MAX_PIPE_CAPACITY = 1 << 30;
+    private static final int PIPE_CAPACITY = parsePipeCapacity(System.getenv("CODECRAFTERS_SHELL_PIPE_CAPACITY"));
+
     private final CodeCraftersShellEnvironment environment;
-    private final CommandParseResult parsedCommand;
+    private final List<PipelineCommand> pipelineCommands;
 
     public CodeCraftersPipelineExecutor(CodeCraftersShellEnvironment environment,
-                                        CommandParseResult parsedCommand) {
+                                        List<PipelineCommand> pipelineCommands) {
         this.environment = environment;
-        this.parsedCommand = parsedCommand;
+        this.pipelineCommands = pipelineCommands;
+    }
+
+    /**
+     * Parses the capacity of pipes between builtins ($CODECRAFTERS_SHELL_PIPE_CAPACITY)
+     * @param value bytes, may be null - pipes round it up to a power of two
+     * @return capacity, or the default capacity if unset, not a positive number or too large
+     */
+    private static int parsePipeCapacity(String value) {
+        if (value == null || !value.matches("[0-9]+")) return ByteRingPipe.DEFAULT_CAPACITY;
+        try {
+            int capacity = Integer.parseInt(value);
+            return capacity > 0 && capacity <= MAX_PIPE_CAPACITY ? capacity : ByteRingPipe.DEFAULT_CAPACITY;
+        } catch (NumberFormatException e) {
+            return ByteRingPipe.DEFAULT_CAPACITY;
+        }
     }
 
     public void executePipeline(InputStream inputStream,
                                 OutputStream outputStream,
                                 OutputStream errorStream) throws Exception {
 
-        List<PipelineCommand> pipelineCommands = buildPipelineCommands();
         List<CodeCraftersShellCommand> executableCommands = new ArrayList<>(pipelineCommands.size());
 
         for (PipelineCommand pipelineCommand : pipelineCommands) {
@@ -40,11 +65,106 @@ public class CodeCraftersPipelineExecutor {
             executableCommands.add(commandOptional.get());
         }
 
-        executeCommandsInPipeline(executableCommands, pipelineCommands, inputStream, outputStream, errorStream);
+        // open every command's redirections up front, they're closed once the whole pipeline is done
+        List<CommandStreams> commandStreams = new ArrayList<>(pipelineCommands.size());
+        try {
+            for (PipelineCommand pipelineCommand : pipelineCommands) {
+                commandStreams.add(Redirections.open(pipelineCommand.getRedirections(), environment.getCurrentDirectory()));
+            }
+        } catch (IOException e) {
+            new PrintStream(errorStream).println(e.getMessage());
+            closeAll(commandStreams);
+            return;
+        }
+
+        try {
+            executeStages(executableCommands, commandStreams, inputStream, outputStream, errorStream);
+        } finally {
+            closeAll(commandStreams);
+        }
+    }
+
+    private void executeStages(List<CodeCraftersShellCommand> executableCommands,
+                               List<CommandStreams> commandStreams,
+                               InputStream inputStream,
+                               OutputStream outputStream,
+                               OutputStream errorStream) throws Exception {
+        // consecutive external commands run as a single stage connected by OS pipes - unless a command in between
+        // has its stdout or stdin redirected, which then ends the stage (or starts a new one)
+        List<CodeCraftersShellCommand> stageCommands = new ArrayList<>(executableCommands.size());
+        List<String[]> stageArgs = new ArrayList<>(executableCommands.size());
+        List<String> stageNames = new ArrayList<>(executableCommands.size());
+        for (int i = 0; i < executableCommands.size(); i++) {
+            CommandStreams streams = commandStreams.get(i);
+            if (!(executableCommands.get(i) instanceof PathCommand)) {
+                CodeCraftersShellCommand builtinCommand = executableCommands.get(i);
+                stageCommands.add(timed(streams.isDefault()
+                        ? builtinCommand
+                        : (stageInput, stageOutput, stageError, args) -> builtinCommand.execute(
+                                streams.input(stageInput),
+                                streams.output(stageOutput, stageError),
+                                streams.error(stageOutput, stageError),
+                                args
+                        )));
+                stageArgs.add(pipelineCommands.get(i).getArgs());
+                stageNames.add(pipelineCommands.get(i).getCommand());
+                continue;
+            }
+
+            List<PathCommand> pathCommands = new ArrayList<>();
+            List<String[]> pathCommandArgs = new ArrayList<>();
+            List<CommandStreams> pathCommandStreams = new ArrayList<>();
+            StringJoiner pathCommandNames = new StringJoiner(" | ");
+            while (i < executableCommands.size() && executableCommands.get(i) instanceof PathCommand pathCommand) {
+                if (!pathCommands.isEmpty() && commandStreams.get(i).getInput() != StreamTarget.INPUT) {
+                    break;
+                }
+                pathCommands.add(pathCommand);
+                pathCommandNames.add(pipelineCommands.get(i).getCommand());
+                pathCommandArgs.add(pipelineCommands.get(i).getArgs());
+                pathCommandStreams.add(commandStreams.get(i));
+                i++;
+                if (commandStreams.get(i - 1).getOutput() != StreamTarget.OUTPUT) {
+                    break;
+                }
+            }
+            i--;
+
+            stageCommands.add((stageInput, stageOutput, stageError, _) ->
+                    PathCommand.executePipeline(pathCommands, pathCommandArgs, pathCommandStreams,
+                            environment.getTaskExecutor(), stageInput, stageOutput, stageError));
+            stageArgs.add(new String[0]);
+            stageNames.add(pathCommandNames.toString());
+        }
+
+        executeCommandsInPipeline(stageCommands, stageArgs, stageNames, inputStream, outputStream, errorStream);
+    }
+
+    /**
+     * Wraps a builtin stage to record how long it runs, external commands record their own phases
+     */
+    private static CodeCraftersShellCommand timed(CodeCraftersShellCommand command) {
+        return (stageInput, stageOutput, stageError, args) -> {
+            long start = System.nanoTime();
+            try {
+                command.execute(stageInput, stageOutput, stageError, args);
+            } finally {
+                ExecutionTrace.record(ExecutionTrace.Phase.RUN, start);
+            }
+        };
+    }
+
+    private static void closeAll(List<CommandStreams> commandStreams) {
+        for (CommandStreams streams : commandStreams) {
+            try {
+                streams.close();
+            } catch (IOException ignored) {}
+        }
     }
 
     private void executeCommandsInPipeline(List<CodeCraftersShellCommand> executableCommands,
-                                           List<PipelineCommand> pipelineCommands,
+                                           List<String[]> stageArgs,
+                                           List<String> stageNames,
                                            InputStream inputStream,
                                            OutputStream outputStream,
                                            OutputStream errorStream) throws Exception {
@@ -54,19 +174,28 @@ public class CodeCraftersPipelineExecutor {
         stageInputs[0] = inputStream;
         stageOutputs[executableCommands.size() - 1] = outputStream;
 
+        ByteRingPipe[] pipes = new ByteRingPipe[executableCommands.size() - 1];
         for (int i = 0; i < executableCommands.size() - 1; i++) {
-            PipedOutputStream stageOutput = new PipedOutputStream();
-            PipedInputStream nextInput = new PipedInputStream(stageOutput);
-            stageOutputs[i] = stageOutput;
-            stageInputs[i + 1] = nextInput;
+            ByteRingPipe pipe = new ByteRingPipe(PIPE_CAPACITY);
+            pipes[i] = pipe;
+            stageOutputs[i] = pipe.outputStream();
+            stageInputs[i + 1] = pipe.inputStream();
         }
 
         List<Exception> exceptions = Collections.synchronizedList(new ArrayList<>());
-        List<Thread> threads = new ArrayList<>(executableCommands.size());
+        CompletableFuture<?>[] stages = new CompletableFuture[executableCommands.size()];
+        Thread[] stageThreads = new Thread[executableCommands.size()];
 
         for (int i = 0; i < executableCommands.size(); i++) {
             final int stageIndex = i;
-            Thread stageThread = new Thread(() -> {
+            stages[i] = CompletableFuture.runAsync(() -> {
+                synchronized (stageThreads) {
+                    stageThreads[stageIndex] = Thread.currentThread();
+                }
+                long stageStart = System.nanoTime();
+                PipelineStageEvent stageEvent = new PipelineStageEvent();
+                stageEvent.begin();
+                boolean failed = false;
                 try {
                     executableCommands
                             .get(stageIndex)
@@ -74,21 +203,46 @@ public class CodeCraftersPipelineExecutor {
                                     stageInputs[stageIndex],
                                     stageOutputs[stageIndex],
                                     errorStream,
-                                    pipelineCommands.get(stageIndex).getArgs()
+                                    stageArgs.get(stageIndex)
                             );
                 } catch (Exception e) {
-                    exceptions.add(e);
+                    // the next stage stopped reading (e.g. head got enough) - like SIGPIPE, this stage just stops
+                    if (stageIndex >= pipes.length || !pipes[stageIndex].isReaderClosed()) {
+                        failed = true;
+                        exceptions.add(e);
+                    }
                 } finally {
+                    synchronized (stageThreads) {
+                        stageThreads[stageIndex] = null;
+                    }
                     closeIfPipe(stageOutputs[stageIndex]);
                     closeIfPipe(stageInputs[stageIndex]);
+
+                    // output is closed, so the stage wrote all it will
+                    long bytesWritten = stageIndex < pipes.length ? pipes[stageIndex].bytesWritten() : -1;
+                    ShellMetrics.record(ShellMetrics.Timer.PIPELINE_STAGE, stageStart);
+                    ShellMetrics.increment(ShellMetrics.Counter.PIPELINE_STAGES);
+                    ShellMetrics.add(ShellMetrics.Counter.PIPELINE_BYTES, Math.max(bytesWritten, 0));
+                    stageEvent.complete(stageIndex, stageNames.get(stageIndex), bytesWritten, failed);
                 }
-            }, "pipeline-stage-" + stageIndex);
-            threads.add(stageThread);
-            stageThread.start();
+            }, environment.getTaskExecutor());
         }
 
-        for (Thread thread : threads) {
-            thread.join();
+        try {
+            CompletableFuture.allOf(stages).get();
+        } catch (InterruptedException e) {
+            // interrupted waiting (e.g. a killed job) - pass it on to stages still running
+            synchronized (stageThreads) {
+                for (Thread stageThread : stageThreads) {
+                    if (stageThread != null) stageThread.interrupt();
+                }
+            }
+            throw e;
+        }
+
+        // bytes each stage passed on, for time - the last one writes straight to the shell's output
+        for (int i = 0; i < executableCommands.size(); i++) {
+            ExecutionTrace.recordStage(stageNames.get(i), i < pipes.length ? pipes[i].bytesWritten() : -1);
         }
 
         if (!exceptions.isEmpty()) {
@@ -97,46 +251,10 @@ public class CodeCraftersPipelineExecutor {
     }
 
     private void closeIfPipe(Closeable closeable) {
-        if (closeable instanceof PipedInputStream || closeable instanceof PipedOutputStream) {
+        if (closeable instanceof ByteRingPipe.PipeInputStream || closeable instanceof ByteRingPipe.PipeOutputStream) {
             try {
                 closeable.close();
             } catch (IOException ignored) {}
         }
     }
-
-    private List<PipelineCommand> buildPipelineCommands() {
-        List<PipelineCommand> pipelineCommands = new ArrayList<>(parsedCommand.getArgs().length + 1);
-
-        // construct first pipeline command
-        int argIdx = parsedCommand.argumentIndex("|");
-        PipelineCommand firstPipelineCommand = new PipelineCommand(
-                parsedCommand.getCommand(),
-                Arrays.copyOfRange(parsedCommand.getArgs(), 0, argIdx)
-        );
-        pipelineCommands.add(firstPipelineCommand);
-
-        // construct remaining pipeline commands by concatening args until we reach pipe and clear
-        String command = null;
-        List<String> args = new ArrayList<>(parsedCommand.getArgs().length);
-        for (int i = argIdx + 1; i < parsedCommand.getArgs().length; i++) {
-            // reset on pipe
-            if (parsedCommand.getArgs()[i].equals("|")) {
-                pipelineCommands.add(new PipelineCommand(command, args.toArray(String[]::new)));
-                command = null;
-                args.clear();
-            }
-            // if no command, then set command to next arg
-            else if (command == null) {
-                command = parsedCommand.getArgs()[i];
-            }
-            // otherwise, append to args
-            else {
-                args.add(parsedCommand.getArgs()[i]);
-            }
-        }
-        // add last command
-        pipelineCommands.add(new PipelineCommand(command, args.toArray(String[]::new)));
-
-        return pipelineCommands;
-    }
 }
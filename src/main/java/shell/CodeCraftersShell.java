@@ -2,31 +2,53 @@ package shell;
 
 import completion.CodeCraftersShellCompleter;
 import environment.CodeCraftersShellEnvironment;
+import environment.ExecutionTrace;
+import environment.Job;
+import metrics.ParseEvent;
+import metrics.ShellMetrics;
+import org.jline.keymap.KeyMap;
 import org.jline.reader.LineReader;
 import org.jline.reader.LineReaderBuilder;
+import org.jline.reader.Reference;
 import org.jline.reader.impl.DefaultParser;
 import org.jline.terminal.Terminal;
 import org.jline.terminal.TerminalBuilder;
 
 import java.io.*;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import command.CodeCraftersShellCommand;
+import command.CommandStreams;
+import command.PathCommand;
+import command.TimeCommand;
 
 public class CodeCraftersShell {
 
     private final CodeCraftersShellEnvironment shellEnvironment;
     private final CodeCraftersShellCompleter shellCompleter;
+    private final CommandParseCache parseCache;
+
+    private static final int BATCH_OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final String TIME_PREFIX = "time";
 
     // shell state vars
     private boolean shouldClose = false;
 
+    /**
+     * Creates a shell without a completer, for batch mode (one is created on demand if repl is started)
+     * @param shellEnvironment environment of shell
+     */
+    public CodeCraftersShell(CodeCraftersShellEnvironment shellEnvironment) {
+        this(shellEnvironment, null);
+    }
+
     public CodeCraftersShell(CodeCraftersShellEnvironment shellEnvironment,
                              CodeCraftersShellCompleter shellCompleter) {
         this.shellEnvironment = shellEnvironment;
         this.shellCompleter = shellCompleter;
+        this.parseCache = new CommandParseCache();
     }
 
     /**
@@ -50,19 +72,33 @@ public class CodeCraftersShell {
             LineReader reader = LineReaderBuilder.builder()
                     .terminal(terminal)
                     .parser(parser)
-                    .completer(shellCompleter)
+                    .completer(shellCompleter != null ? shellCompleter : new CodeCraftersShellCompleter(shellEnvironment))
                     .option(LineReader.Option.INSERT_TAB, true)
                     .option(LineReader.Option.AUTO_LIST, false)
                     .option(LineReader.Option.AUTO_MENU, false)
                     .option(LineReader.Option.MENU_COMPLETE, false)
                     .build();
 
+            // Ctrl-R searches the shell's indexed history instead of JLine's linear search
+            reader.getWidgets().put(HistorySearchWidget.NAME, new HistorySearchWidget(
+                    reader, shellEnvironment.getHistory(), shellEnvironment.getHistorySearchIndex()
+            ));
+            reader.getKeyMaps().get(LineReader.MAIN).bind(new Reference(HistorySearchWidget.NAME), KeyMap.ctrl('R'));
+            // index history loaded so far in the background, so the first search doesn't have to
+            CompletableFuture.runAsync(shellEnvironment.getHistorySearchIndex()::update, shellEnvironment.getTaskExecutor());
+
             // add history to reader
             shellEnvironment
-                    .getHistoryCopy()
+                    .getHistory()
+                    .asList()
                     .forEach(cmd -> reader.getHistory().add(cmd));
 
             while (!shouldClose) {
+                // report background jobs that finished since last prompt
+                PrintStream notices = new PrintStream(outputStream);
+                shellEnvironment.getJobTable().reportFinished().forEach(notices::println);
+                notices.flush();
+
                 String line = reader.readLine("$ ");
                 if (line == null) {
                     continue;
@@ -79,6 +115,58 @@ public class CodeCraftersShell {
         }
     }
 
+    /**
+     * Runs lines without any terminal handling - for scripts, -c commands and piped stdin.
+     * Nothing is added to history, and stdout is buffered & flushed in batches: whenever the reader has no more
+     * input ready, when the buffer fills up, and before external commands write to it directly.
+     * @param reader lines to run
+     * @throws IOException if reading lines fails
+     */
+    public void runBatch(BufferedReader reader) throws IOException {
+        runBatch(reader, System.in);
+    }
+
+    /**
+     * Runs lines without any terminal handling, with commands reading the given stdin
+     * @param reader lines to run
+     * @param inputStream stdin of commands - must not be where the lines come from, the reader reads ahead
+     * @throws IOException if reading lines fails
+     */
+    public void runBatch(BufferedReader reader, InputStream inputStream) throws IOException {
+        PrintStream originalOut = System.out;
+        PrintStream batchOut = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BATCH_OUTPUT_BUFFER_SIZE),
+                false
+        );
+        System.setOut(batchOut);
+
+        try {
+            String line;
+            while (!shouldClose && (line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                interpret(line, inputStream, batchOut, System.err);
+                if (!reader.ready()) {
+                    batchOut.flush();
+                }
+            }
+        } finally {
+            batchOut.flush();
+            System.setOut(originalOut);
+        }
+    }
+
+    /**
+     * Get cache of parsed lines used by this shell
+     * @return parse cache
+     */
+    public CommandParseCache getParseCache() {
+        return parseCache;
+    }
+
     /**
      * Interpret a line of input from the user and execute it
      *
@@ -91,82 +179,156 @@ public class CodeCraftersShell {
                            InputStream inputStream,
                            OutputStream outputStream,
                            OutputStream errorStream) {
-        // get command and args
-        String commandArgsLine = line.trim();
-        CommandParseResult parsedCommandAndArgs = CommandParseResult.parse(commandArgsLine);
-        String command = parsedCommandAndArgs.getCommand();
-        String[] args = parsedCommandAndArgs.getArgs();
+        // time prefix: run the rest of the line traced, then report where its time went
+        String trimmedLine = line.trim();
+        if (trimmedLine.startsWith(TIME_PREFIX)
+                && (trimmedLine.length() == TIME_PREFIX.length() || Character.isWhitespace(trimmedLine.charAt(TIME_PREFIX.length())))) {
+            interpretTimed(trimmedLine.substring(TIME_PREFIX.length()), inputStream, outputStream, errorStream);
+            return;
+        }
 
+        // parse line into pipeline of commands, with their args & redirections
+        CommandParseResult parsedCommandAndArgs;
+        long parseStart = System.nanoTime();
+        ParseEvent parseEvent = new ParseEvent();
+        parseEvent.begin();
+        try {
+            parsedCommandAndArgs = parseCache.parse(trimmedLine);
+        } catch (IllegalArgumentException e) {
+            parseEvent.complete(trimmedLine, 0, true);
+            ShellMetrics.increment(ShellMetrics.Counter.PARSE_ERRORS);
+            new PrintStream(errorStream).println(e.getMessage());
+            return;
+        } finally {
+            ExecutionTrace.record(ExecutionTrace.Phase.PARSE, parseStart);
+            ShellMetrics.record(ShellMetrics.Timer.PARSE, parseStart);
+        }
+        parseEvent.complete(trimmedLine, parsedCommandAndArgs.getPipelineCommands().size(), false);
+        ShellMetrics.increment(ShellMetrics.Counter.LINES_PARSED);
+        if (parsedCommandAndArgs.isEmpty()) {
+            return;
+        }
         // if exit condition, then exit shell
-        if (command.equals("exit")) {
+        if (parsedCommandAndArgs.getCommand().equals("exit")) {
             shouldClose = true;
             return;
         }
 
-        // determine streams to use - by default, stdout & stderr
-        OutputStream outputStreamToUse = outputStream;
-        OutputStream errorStreamToUse = errorStream;
+        // run line in the background if it ends with &, reporting its job number (and pid of last process)
+        if (parsedCommandAndArgs.isBackground()) {
+            startJob(line, parsedCommandAndArgs, outputStream, errorStream);
+            return;
+        }
 
         try {
-            int redirectionIndex = -1;
-            // check if redirection argument of stdout
-            if (
-                    (redirectionIndex = parsedCommandAndArgs.argumentIndex(">"))    != -1     ||
-                    (redirectionIndex = parsedCommandAndArgs.argumentIndex("1>"))   != -1     ||
-                    (redirectionIndex = parsedCommandAndArgs.argumentIndex(">>"))   != -1     ||
-                    (redirectionIndex = parsedCommandAndArgs.argumentIndex("1>>"))  != -1
-            ) {
-                boolean append = args[redirectionIndex].equals(">>") || args[redirectionIndex].equals("1>>");
-                File outFile = new File(args[redirectionIndex + 1]);
-                // if not absolute, must pass on current dir
-                if (!outFile.isAbsolute()) {
-                    outFile = new File(shellEnvironment.getCurrentDirectory(), args[redirectionIndex + 1]);
-                }
-                outputStreamToUse = new FileOutputStream(outFile, append);
-            }
-            // check if redirection argument of stderr
-            else if (
-                    (redirectionIndex = parsedCommandAndArgs.argumentIndex("2>"))   != -1     ||
-                    (redirectionIndex = parsedCommandAndArgs.argumentIndex("2>>"))  != -1
-            ) {
-                boolean append = args[redirectionIndex].equals("2>>");
-                File outFile = new File(args[redirectionIndex + 1]);
-                if (!outFile.isAbsolute()) {
-                    outFile = new File(shellEnvironment.getCurrentDirectory(), args[redirectionIndex + 1]);
+            execute(parsedCommandAndArgs, inputStream, outputStream, errorStream);
+        } catch (Exception e) {
+            // print stack trace and exit
+            e.printStackTrace(new PrintStream(errorStream));
+            shouldClose = true;
+        }
+    }
+
+    private void interpretTimed(String line,
+                                InputStream inputStream,
+                                OutputStream outputStream,
+                                OutputStream errorStream) {
+        ExecutionTrace trace = new ExecutionTrace();
+        trace.begin();
+        try {
+            interpret(line, inputStream, outputStream, errorStream);
+        } finally {
+            trace.end();
+        }
+
+        // report comes after the line's output
+        try {
+            outputStream.flush();
+        } catch (IOException ignored) {}
+        TimeCommand.printReport(trace, errorStream);
+    }
+
+    private void startJob(String line,
+                          CommandParseResult parsedCommandAndArgs,
+                          OutputStream outputStream,
+                          OutputStream errorStream) {
+        String commandLine = line.trim();
+        commandLine = commandLine.substring(0, commandLine.length() - 1).trim(); // drop trailing &
+
+        // background jobs don't read the terminal
+        Job job = shellEnvironment.getJobTable().start(commandLine, () -> {
+            try {
+                execute(parsedCommandAndArgs, InputStream.nullInputStream(), outputStream, errorStream);
+            } catch (Exception e) {
+                // a killed job failing on its way out isn't worth reporting
+                if (Job.current().map(Job::getState).orElse(null) != Job.State.TERMINATED) {
+                    e.printStackTrace(new PrintStream(errorStream));
                 }
-                errorStreamToUse = new FileOutputStream(outFile, append);
             }
+        }, shellEnvironment.getTaskExecutor());
 
-            // remove from args array if redirection
-            if (redirectionIndex != -1) {
-                args = new ArrayList<>(List.of(args))
-                        .subList(0, redirectionIndex)
-                        .toArray(String[]::new);
-            }
+        boolean startsProcesses = parsedCommandAndArgs.getPipelineCommands().stream()
+                .anyMatch(pipelineCommand -> shellEnvironment.resolveCommand(pipelineCommand.getCommand())
+                        .filter(PathCommand.class::isInstance)
+                        .isPresent());
+        Optional<Long> pid = startsProcesses ? job.awaitLaunch() : Optional.empty();
 
-            // check if piped command - run executor for it if so
-            if (parsedCommandAndArgs.argumentIndex("|") != -1) {
-                new CodeCraftersPipelineExecutor(
-                        shellEnvironment,
-                        new CommandParseResult(command, parsedCommandAndArgs.getConsumed(), args)
-                ).executePipeline(inputStream, outputStreamToUse, errorStreamToUse);
-                return;
-            }
+        PrintStream out = new PrintStream(outputStream);
+        out.println("[" + job.getId() + "]" + pid.map(p -> " " + p).orElse(""));
+        out.flush();
+    }
+
+    private void execute(CommandParseResult parsedCommandAndArgs,
+                         InputStream inputStream,
+                         OutputStream outputStream,
+                         OutputStream errorStream) throws Exception {
+        // globs expand against the file system as it is now, not as it was when the line was first parsed
+        List<PipelineCommand> pipelineCommands = GlobExpander.expand(parsedCommandAndArgs.getPipelineCommands(), shellEnvironment);
+
+        // check if piped command - run executor for it if so, it applies each command's redirections
+        if (parsedCommandAndArgs.isPipeline()) {
+            new CodeCraftersPipelineExecutor(shellEnvironment, pipelineCommands)
+                    .executePipeline(inputStream, outputStream, errorStream);
+            return;
+        }
 
+        // open redirected files - a failing redirection only fails this command
+        CommandStreams streams;
+        try {
+            streams = Redirections.open(
+                    pipelineCommands.getFirst().getRedirections(),
+                    shellEnvironment.getCurrentDirectory()
+            );
+        } catch (IOException e) {
+            new PrintStream(errorStream).println(e.getMessage());
+            return;
+        }
+
+        String command = pipelineCommands.getFirst().getCommand();
+        String[] args = pipelineCommands.getFirst().getArgs();
+        try (streams) {
             Optional<CodeCraftersShellCommand> commandOptional = shellEnvironment.resolveCommand(command);
             if (commandOptional.isPresent()) {
-                commandOptional
-                        .get()
-                        .execute(inputStream, outputStreamToUse, errorStreamToUse, args);
+                // external commands get redirected files directly, builtins get streams over them
+                if (commandOptional.get() instanceof PathCommand pathCommand) {
+                    pathCommand.execute(streams, inputStream, outputStream, errorStream, args);
+                } else {
+                    long runStart = System.nanoTime();
+                    commandOptional
+                            .get()
+                            .execute(
+                                    streams.input(inputStream),
+                                    streams.output(outputStream, errorStream),
+                                    streams.error(outputStream, errorStream),
+                                    args
+                            );
+                    ExecutionTrace.record(ExecutionTrace.Phase.RUN, runStart);
+                }
                 return;
             }
 
             // no command has been found!
-            new PrintStream(outputStreamToUse).println(command + ": command not found");
-        } catch (Exception e) {
-            // print stack trace and exit
-            e.printStackTrace(new PrintStream(errorStreamToUse));
-            shouldClose = true;
+            new PrintStream(streams.output(outputStream, errorStream)).println(command + ": command not found");
         }
     }
 }
@@ -0,0 +1,241 @@
+package shell;
+
+/**
+ * Single-pass lexer splitting a command line into typed tokens.
+ *
+ * Quoting rules:
+ * - Outside quotes: backslash escapes next char (or is literal if trailing)
+ * - Single quotes: everything literal, backslash is literal
+ * - Double quotes: only \" and \\\\ are unescaped; other backslashes stay as '\\'
+ * Adjacent quoted/unquoted parts (no whitespace between them) form a single word.
+ *
+ * Words with an unquoted {@code *}, {@code ?} or {@code [} also get a glob pattern for pathname expansion, in which
+ * quoted chars that are special to globs are escaped with a backslash (so {@code "*".txt} only matches {@code *.txt}).
+ *
+ * Operators ({@code |}, {@code &}, {@code <}, {@code >}, {@code >>}, {@code >&}, {@code &>}, {@code &>>}, where redirections
+ * may be prefixed by a file descriptor number as in {@code 2>}) are only recognized when unquoted, and don't
+ * need whitespace around them.
+ */
+final class CommandLexer {
+
+    enum TokenType {
+        WORD, PIPE, REDIRECT_INPUT, REDIRECT_OUTPUT, REDIRECT_APPEND, REDIRECT_DUPLICATE,
+        REDIRECT_BOTH, REDIRECT_BOTH_APPEND, BACKGROUND, END
+    }
+
+    /**
+     * A lexed token. Words carry their unquoted value (and glob pattern, if any), redirections their file descriptor.
+     */
+    static final class Token {
+        final TokenType type;
+        final String value;
+        final int fd;
+        final boolean quoted; // true if any part of a word was quoted or escaped
+        final String glob; // null unless word has unquoted glob chars
+
+        private Token(TokenType type, String value, int fd, boolean quoted) {
+            this(type, value, fd, quoted, null);
+        }
+
+        private Token(TokenType type, String value, int fd, boolean quoted, String glob) {
+            this.type = type;
+            this.value = value;
+            this.fd = fd;
+            this.quoted = quoted;
+            this.glob = glob;
+        }
+
+        /**
+         * How the token is shown in syntax errors
+         */
+        String text() {
+            return switch (type) {
+                case WORD -> value;
+                case PIPE -> "|";
+                case REDIRECT_INPUT -> "<";
+                case REDIRECT_OUTPUT -> ">";
+                case REDIRECT_APPEND -> ">>";
+                case REDIRECT_DUPLICATE -> ">&";
+                case REDIRECT_BOTH -> "&>";
+                case REDIRECT_BOTH_APPEND -> "&>>";
+                case BACKGROUND -> "&";
+                case END -> "newline";
+            };
+        }
+    }
+
+    private static final Token PIPE = new Token(TokenType.PIPE, null, -1, false);
+    private static final Token BACKGROUND = new Token(TokenType.BACKGROUND, null, -1, false);
+    private static final Token END = new Token(TokenType.END, null, -1, false);
+
+    private final String line;
+    private final StringBuilder word;
+    private final StringBuilder glob;
+    private boolean hasGlob;
+    private int position;
+
+    CommandLexer(String line) {
+        this.line = line;
+        this.word = new StringBuilder(Math.min(line.length(), 64));
+        this.glob = new StringBuilder(Math.min(line.length(), 64));
+        this.position = 0;
+    }
+
+    /**
+     * Reads next token
+     * @return next token, or a token of type END once the line is exhausted
+     */
+    Token next() {
+        // skip whitespace between tokens
+        while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+        if (position >= line.length()) {
+            return END;
+        }
+
+        char c = line.charAt(position);
+        if (c == '|') {
+            position++;
+            return PIPE;
+        }
+        if (c == '>' || c == '<') {
+            return redirection(c == '<' ? 0 : 1);
+        }
+        if (isBothRedirection(position)) {
+            return bothRedirection();
+        }
+        if (c == '&') {
+            position++;
+            return BACKGROUND;
+        }
+
+        return word();
+    }
+
+    private Token word() {
+        word.setLength(0);
+        glob.setLength(0);
+        hasGlob = false;
+        boolean quoted = false;
+        boolean digitsOnly = true;
+
+        while (position < line.length()) {
+            char c = line.charAt(position);
+
+            if (Character.isWhitespace(c) || c == '|' || c == '&')
+                break;
+
+            // an unquoted run of digits right before '>' or '<' is the file descriptor of a redirection (e.g. 2>)
+            if (c == '>' || c == '<') {
+                if (digitsOnly && !quoted && !word.isEmpty()) {
+                    return redirection(Integer.parseInt(word, 0, word.length(), 10));
+                }
+                break;
+            }
+
+            if (c == '\\') {
+                quoted = true;
+                if (position + 1 < line.length()) { appendQuoted(line.charAt(position + 1)); position += 2; }
+                else { appendQuoted('\\'); position++; }
+                digitsOnly = false;
+                continue;
+            }
+
+            if (c == '\'') {
+                quoted = true;
+                digitsOnly = false;
+                position++; // consume opening quote
+                int close = line.indexOf('\'', position);
+                int end = close == -1 ? line.length() : close;
+                for (int i = position; i < end; i++) {
+                    appendQuoted(line.charAt(i));
+                }
+                position = close == -1 ? end : end + 1; // include closing quote
+                continue;
+            }
+
+            if (c == '"') {
+                quoted = true;
+                digitsOnly = false;
+                position++; // consume opening quote
+                readDoubleQuoted();
+                continue;
+            }
+
+            if (c < '0' || c > '9') {
+                digitsOnly = false;
+            }
+            if (c == '*' || c == '?' || c == '[') {
+                hasGlob = true;
+            }
+            word.append(c);
+            glob.append(c);
+            position++;
+        }
+
+        return new Token(TokenType.WORD, word.toString(), -1, quoted, hasGlob ? glob.toString() : null);
+    }
+
+    /**
+     * Appends a quoted char to the word, escaping it in the glob pattern if it's special there
+     */
+    private void appendQuoted(char c) {
+        word.append(c);
+        if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+            glob.append('\\');
+        }
+        glob.append(c);
+    }
+
+    private void readDoubleQuoted() {
+        while (position < line.length()) {
+            char c = line.charAt(position);
+
+            if (c == '\\') {
+                if (position + 1 >= line.length()) { appendQuoted('\\'); position++; continue; }
+                char next = line.charAt(position + 1);
+                if (next == '"' || next == '\\') { appendQuoted(next); position += 2; }
+                else { appendQuoted('\\'); position++; }
+                continue;
+            }
+
+            if (c == '"') { // closing quote
+                position++;
+                return;
+            }
+
+            appendQuoted(c);
+            position++;
+        }
+    }
+
+    private Token redirection(int fd) {
+        char operator = line.charAt(position++); // consume '>' or '<'
+        if (operator == '<') {
+            return new Token(TokenType.REDIRECT_INPUT, null, fd, false);
+        }
+        if (position < line.length() && line.charAt(position) == '>') {
+            position++;
+            return new Token(TokenType.REDIRECT_APPEND, null, fd, false);
+        }
+        if (position < line.length() && line.charAt(position) == '&') {
+            position++;
+            return new Token(TokenType.REDIRECT_DUPLICATE, null, fd, false);
+        }
+        return new Token(TokenType.REDIRECT_OUTPUT, null, fd, false);
+    }
+
+    private boolean isBothRedirection(int at) {
+        return line.charAt(at) == '&' && at + 1 < line.length() && line.charAt(at + 1) == '>';
+    }
+
+    private Token bothRedirection() {
+        position += 2; // consume '&>'
+        if (position < line.length() && line.charAt(position) == '>') {
+            position++;
+            return new Token(TokenType.REDIRECT_BOTH_APPEND, null, 1, false);
+        }
+        return new Token(TokenType.REDIRECT_BOTH, null, 1, false);
+    }
+}
@@ -0,0 +1,99 @@
+package shell;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of parsed command lines, keyed by the raw line.
+ *
+ * Parse results are immutable, so the same instance is handed out on every hit. Lines with
+ * syntax errors are not cached.
+ */
+public class CommandParseCache {
+
+    public static final int DEFAULT_SIZE = 512;
+
+    private final Map<String, CommandParseResult> cache;
+    private final int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates cache with size from $CODECRAFTERS_SHELL_PARSE_CACHE_SIZE, or default size if not set (or invalid)
+     */
+    public CommandParseCache() {
+        this(parseSize(System.getenv("CODECRAFTERS_SHELL_PARSE_CACHE_SIZE")));
+    }
+
+    /**
+     * Creates cache
+     * @param maxSize max number of lines kept, 0 disables caching
+     */
+    public CommandParseCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CommandParseResult> eldest) {
+                return size() > CommandParseCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Parses a cache size ($CODECRAFTERS_SHELL_PARSE_CACHE_SIZE)
+     * @param value value of variable, may be null
+     * @return size, or default size if unset or not a number (0 or more)
+     */
+    private static int parseSize(String value) {
+        if (value == null || !value.matches("[0-9]+")) return DEFAULT_SIZE;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return DEFAULT_SIZE;
+        }
+    }
+
+    /**
+     * Gets parsed line from cache, parsing (and caching) it on a miss
+     * @param line line to parse
+     * @return parsed line
+     * @throws IllegalArgumentException if line has a syntax error
+     */
+    public CommandParseResult parse(String line) {
+        synchronized (cache) {
+            CommandParseResult cached = cache.get(line);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+
+        misses.increment();
+        CommandParseResult parsed = CommandParseResult.parse(line);
+        if (maxSize > 0) {
+            synchronized (cache) {
+                cache.put(line, parsed);
+            }
+        }
+        return parsed;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+}
@@ -5,207 +5,161 @@ import java.util.Arrays;
 import java.util.List;
 
 /**
- * Result of parsing a user input line into a command and its arguments.
+ * Result of parsing a user input line: a pipeline of commands, each with its arguments and redirections,
+ * and whether it's to run in the background (a trailing {@code &}).
  *
  * This class is immutable and thread-safe. Use {@link #parse(String)} to
  * construct an instance from a raw input line.
  */
 public final class CommandParseResult {
-    private final String command;
-    private final String[] args;
-    private final int consumed; // chars consumed from the trimmed line (includes quotes if present)
-
-    public CommandParseResult(String command, int consumed, String[] args) {
-        this.command = command == null ? "" : command;
-        this.consumed = Math.max(0, consumed);
-        this.args = args == null ? new String[0] : args.clone();
-    }
-
-    public static CommandParseResult parse(String commandArgsLine) {
-        if (commandArgsLine == null) return new CommandParseResult("", 0, new String[0]);
-
-        String line = commandArgsLine.trim();
-        if (line.isEmpty()) return new CommandParseResult("", 0, new String[0]);
-
-        Token first = readToken(line, 0);
-        String cmd = first.value;
-
-        String argsPart = (first.end < line.length()) ? line.substring(first.end).trim() : "";
-        List<Token> tokens = tokenizeWithPositions(argsPart);
-
-        // Recombine tokens into arguments: adjacent tokens (no whitespace between) are concatenated into one argument
-        List<String> argList = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        int prevEnd = -1;
-        for (Token t : tokens) {
-            if (prevEnd != -1 && t.start == prevEnd) {
-                // contiguous token -> append to current arg
-                current.append(t.value);
-            } else {
-                // new arg
-                if (!current.isEmpty()) {
-                    argList.add(current.toString());
-                }
-                current.setLength(0);
-                current.append(t.value);
-            }
-            prevEnd = t.end;
-        }
-        if (!current.isEmpty()) argList.add(current.toString());
 
-        String[] parsedArgs = argList.toArray(new String[0]);
+    private static final CommandParseResult EMPTY = new CommandParseResult(List.of());
 
-        return new CommandParseResult(cmd, first.end, parsedArgs);
-    }
-
-    // ---- Tokenization (shared by command + args) ----
+    private final List<PipelineCommand> pipelineCommands;
+    private final boolean background;
 
-    private static final class Token {
-        final String value;
-        final int start; // inclusive index where token started in the input
-        final int end;   // index in the input string where parsing stopped (>= start)
-        Token(String value, int start, int end) { this.value = value; this.start = start; this.end = end; }
+    public CommandParseResult(List<PipelineCommand> pipelineCommands) {
+        this(pipelineCommands, false);
     }
 
-    /**
-     * Tokenize but keep token start positions. Tokens are separated by whitespace.
-     */
-    private static List<Token> tokenizeWithPositions(String s) {
-        List<Token> out = new ArrayList<>();
-        if (s == null || s.isEmpty()) return out;
-
-        int i = 0;
-        while (i < s.length()) {
-            while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
-            if (i >= s.length()) break;
-
-            int start = i;
-            Token t = readToken(s, i);
-            if (!t.value.isEmpty()) out.add(new Token(t.value, start, t.end));
-            i = t.end;
-        }
-        return out;
+    public CommandParseResult(List<PipelineCommand> pipelineCommands, boolean background) {
+        this.pipelineCommands = List.copyOf(pipelineCommands);
+        this.background = background;
     }
 
     /**
-     * Reads a single shell-like token starting at 'start'.
-     * - Outside quotes: backslash escapes next char (or is literal if trailing)
-     * - Single quotes: everything literal, backslash is literal
-     * - Double quotes: only \" and \\\\ are unescaped; other backslashes stay as '\\'
-     * Returns token value (without quote chars) and end index (includes closing quote if present).
+     * Parses a line in a single pass over its tokens
+     * @param commandArgsLine line to parse
+     * @return parsed line
+     * @throws IllegalArgumentException if line has a syntax error (e.g. a pipe with no command after it)
      */
-    private static Token readToken(String s, int start) {
-        StringBuilder sb = new StringBuilder();
-        int i = start;
-
-        if (i >= s.length()) return new Token("", i, i);
-
-        char first = s.charAt(i);
-        boolean inSingle = first == '\'';
-        boolean inDouble = first == '"';
-
-        if (inSingle || inDouble) {
-            char quote = first;
-            i++; // consume opening quote
-
-            while (i < s.length()) {
-                char c = s.charAt(i);
-
-                if (c == '\\') {
-                    if (inSingle) { // literal backslash
-                        sb.append('\\');
-                        i++;
-                        continue;
+    public static CommandParseResult parse(String commandArgsLine) {
+        if (commandArgsLine == null || commandArgsLine.isBlank()) return EMPTY;
+
+        CommandLexer lexer = new CommandLexer(commandArgsLine);
+        List<PipelineCommand> pipelineCommands = new ArrayList<>(2);
+        String command = null;
+        List<String> args = new ArrayList<>();
+        List<Redirection> redirections = new ArrayList<>(1);
+        // glob patterns of command & args, only allocated once a word has one
+        String[] globs = null;
+
+        while (true) {
+            CommandLexer.Token token = lexer.next();
+            switch (token.type) {
+                case WORD -> {
+                    if (command == null) command = token.value;
+                    else args.add(token.value);
+                    if (token.glob != null) {
+                        int index = args.size();
+                        if (globs == null || globs.length <= index) {
+                            globs = globs == null ? new String[index + 4] : Arrays.copyOf(globs, index + 4);
+                        }
+                        globs[index] = token.glob;
                     }
-                    // double quotes
-                    if (i + 1 >= s.length()) { sb.append('\\'); i++; continue; }
-                    char next = s.charAt(i + 1);
-                    if (next == '"' || next == '\\') { sb.append(next); i += 2; }
-                    else { sb.append('\\'); i++; }
-                    continue;
                 }
-
-                if (c == quote) { // closing quote
-                    i++; // include closing quote in consumed/end
-                    break;
+                case REDIRECT_INPUT, REDIRECT_OUTPUT, REDIRECT_APPEND -> {
+                    CommandLexer.Token target = lexer.next();
+                    if (target.type != CommandLexer.TokenType.WORD) {
+                        throw syntaxError(target);
+                    }
+                    Redirection.Type type = switch (token.type) {
+                        case REDIRECT_INPUT -> Redirection.Type.INPUT;
+                        case REDIRECT_APPEND -> Redirection.Type.APPEND;
+                        default -> Redirection.Type.OUTPUT;
+                    };
+                    redirections.add(new Redirection(token.fd, type, target.value));
                 }
-
-                sb.append(c);
-                i++;
-            }
-
-            return new Token(sb.toString(), start, i);
-        }
-
-        // Unquoted token
-        while (i < s.length()) {
-            char c = s.charAt(i);
-
-            if (Character.isWhitespace(c)) break;
-
-            if (c == '\\') {
-                if (i + 1 < s.length()) { sb.append(s.charAt(i + 1)); i += 2; }
-                else { sb.append('\\'); i++; }
-                continue;
-            }
-
-            // Handle embedded quoted sections inside an unquoted token
-            if (c == '\'' || c == '"') {
-                char quote = c;
-                boolean innerDouble = quote == '"';
-                i++; // consume opening quote
-                while (i < s.length()) {
-                    char qc = s.charAt(i);
-                    if (qc == '\\') {
-                        if (!innerDouble) {
-                            sb.append('\\');
-                            i++;
-                            continue;
+                case REDIRECT_DUPLICATE -> {
+                    CommandLexer.Token target = lexer.next();
+                    if (target.type != CommandLexer.TokenType.WORD) {
+                        throw syntaxError(target);
+                    }
+                    if (isNumber(target.value)) {
+                        redirections.add(Redirection.duplicate(token.fd, Integer.parseInt(target.value)));
+                    } else if (token.fd == 1) { // >& file is the same as &> file
+                        redirections.add(new Redirection(1, Redirection.Type.OUTPUT, target.value));
+                        redirections.add(Redirection.duplicate(2, 1));
+                    } else {
+                        throw new IllegalArgumentException(target.value + ": ambiguous redirect");
+                    }
+                }
+                case REDIRECT_BOTH, REDIRECT_BOTH_APPEND -> {
+                    // &> file is > file 2>&1
+                    CommandLexer.Token target = lexer.next();
+                    if (target.type != CommandLexer.TokenType.WORD) {
+                        throw syntaxError(target);
+                    }
+                    Redirection.Type type = token.type == CommandLexer.TokenType.REDIRECT_BOTH_APPEND
+                            ? Redirection.Type.APPEND
+                            : Redirection.Type.OUTPUT;
+                    redirections.add(new Redirection(1, type, target.value));
+                    redirections.add(Redirection.duplicate(2, 1));
+                }
+                case PIPE, BACKGROUND, END -> {
+                    if (command == null) {
+                        throw syntaxError(token);
+                    }
+                    pipelineCommands.add(new PipelineCommand(
+                            command,
+                            args.toArray(String[]::new),
+                            redirections,
+                            globs == null ? null : Arrays.copyOf(globs, args.size() + 1)
+                    ));
+                    if (token.type == CommandLexer.TokenType.BACKGROUND) {
+                        // only a whole line can go to the background, so & must end it
+                        CommandLexer.Token next = lexer.next();
+                        if (next.type != CommandLexer.TokenType.END) {
+                            throw syntaxError(next);
                         }
-                        if (i + 1 >= s.length()) { sb.append('\\'); i++; break; }
-                        char next = s.charAt(i + 1);
-                        if (next == '"' || next == '\\') { sb.append(next); i += 2; }
-                        else { sb.append('\\'); i++; }
-                        continue;
+                        return new CommandParseResult(pipelineCommands, true);
+                    }
+                    if (token.type == CommandLexer.TokenType.END) {
+                        return new CommandParseResult(pipelineCommands);
                     }
-                    if (qc == quote) { i++; break; }
-                    sb.append(qc);
-                    i++;
+                    command = null;
+                    args.clear();
+                    redirections.clear();
+                    globs = null;
                 }
-                continue;
             }
+        }
+    }
 
-            sb.append(c);
-            i++;
+    private static boolean isNumber(String value) {
+        if (value.isEmpty() || value.length() > 9) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') return false;
         }
+        return true;
+    }
 
-        return new Token(sb.toString(), start, i);
+    private static IllegalArgumentException syntaxError(CommandLexer.Token token) {
+        return new IllegalArgumentException("syntax error near unexpected token `" + token.text() + "'");
     }
 
-    public String getCommand() { return command; }
-    public String[] getArgs() { return args.clone(); }
-    public int getConsumed() { return consumed; }
+    /**
+     * Gets the commands of this line, in pipeline order
+     * @return list of commands (single element if line is not a pipeline)
+     */
+    public List<PipelineCommand> getPipelineCommands() { return pipelineCommands; }
 
     /**
-     * Returns index of where argument can be found in array
-     * @param arg argument to find
-     * @return index of argument, or -1 if not found
+     * Gets first command of the line
+     * @return command, or empty string if line is empty
      */
-    public int argumentIndex(String arg) {
-        for (int i = 0; i < args.length; i++) {
-            if (args[i].equals(arg)) {
-                return i;
-            }
-        }
-        return -1;
-    }
+    public String getCommand() { return isEmpty() ? "" : pipelineCommands.getFirst().getCommand(); }
 
     /**
-     * Returns immutable copy of this result
-     * @return copy of this result
+     * Gets arguments of the first command of the line
+     * @return arguments
      */
-    public CommandParseResult copy() {
-        return new CommandParseResult(command, consumed, args.clone());
-    }
+    public String[] getArgs() { return isEmpty() ? new String[0] : pipelineCommands.getFirst().getArgs(); }
+
+    public boolean isEmpty() { return pipelineCommands.isEmpty(); }
+
+    public boolean isPipeline() { return pipelineCommands.size() > 1; }
+
+    public boolean isBackground() { return background; }
 
 }
@@ -0,0 +1,255 @@
+package shell;
+
+import environment.DirectoryListingCache;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A glob pattern compiled for pathname expansion ({@code *}, {@code ?}, {@code [...]} and {@code **} for any number
+ * of directories). A backslash makes the next char literal.
+ *
+ * The pattern is split at slashes into segments. A segment without glob chars is a literal name, looked up directly
+ * without listing its directory, so a literal prefix like {@code src/main/} costs no listing at all. Other segments
+ * match the names of a listing: common shapes ({@code *.log}, {@code prefix*}, {@code *part*}) with plain string
+ * checks, anything else with a regex compiled once. Like bash, a name starting with a dot only matches a segment
+ * starting with a dot.
+ */
+final class Glob {
+
+    private enum PartType { LITERAL, STAR, ANY, CLASS }
+
+    private final boolean absolute;
+    private final List<Segment> segments;
+
+    private Glob(boolean absolute, List<Segment> segments) {
+        this.absolute = absolute;
+        this.segments = segments;
+    }
+
+    /**
+     * Compiles a pattern
+     * @param pattern glob pattern
+     * @return compiled pattern
+     */
+    static Glob compile(String pattern) {
+        boolean absolute = pattern.startsWith("/");
+        int start = 0;
+        while (start < pattern.length() && pattern.charAt(start) == '/') start++;
+
+        List<Segment> segments = new ArrayList<>();
+        for (String segment : pattern.substring(start).split("/", -1)) {
+            segments.add(Segment.compile(segment));
+        }
+        return new Glob(absolute, segments);
+    }
+
+    /**
+     * Finds paths matching the pattern
+     * @param currentDirectory directory a relative pattern is relative to
+     * @param listings cache of directory listings
+     * @return matching paths, as relative (or absolute) as the pattern, sorted - empty if none match
+     */
+    List<String> expand(Path currentDirectory, DirectoryListingCache listings) {
+        List<String> matches = new ArrayList<>();
+        walk(absolute ? Path.of("/") : currentDirectory, absolute ? "/" : "", 0, listings, matches);
+        Collections.sort(matches);
+        return matches;
+    }
+
+    private void walk(Path directory, String prefix, int index, DirectoryListingCache listings, List<String> matches) {
+        Segment segment = segments.get(index);
+        boolean last = index == segments.size() - 1;
+
+        if (segment.literal != null) {
+            Path path = directory.resolve(segment.literal);
+            if (last) {
+                if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) matches.add(prefix + segment.literal);
+            } else if (Files.isDirectory(path)) {
+                walk(path, prefix + segment.literal + "/", index + 1, listings, matches);
+            }
+            return;
+        }
+
+        // ** matches no directory, or one more (without following links, which could loop) & then again
+        if (segment.recursive && !last) {
+            walk(directory, prefix, index + 1, listings, matches);
+            DirectoryListingCache.Listing listing = listings.list(directory);
+            for (int i = 0; i < listing.size(); i++) {
+                String name = listing.getName(i);
+                if (name.charAt(0) != '.' && listing.isDirectory(i) && !listing.isLink(i)) {
+                    walk(directory.resolve(name), prefix + name + "/", index, listings, matches);
+                }
+            }
+            return;
+        }
+
+        DirectoryListingCache.Listing listing = listings.list(directory);
+        for (int i = 0; i < listing.size(); i++) {
+            String name = listing.getName(i);
+            if (!segment.matcher.test(name)) continue;
+            if (last) {
+                matches.add(prefix + name);
+            } else if (listing.isDirectory(i)) {
+                walk(directory.resolve(name), prefix + name + "/", index + 1, listings, matches);
+            }
+        }
+    }
+
+    /**
+     * A segment of a pattern: a literal name, {@code **}, or a matcher of names
+     */
+    private static final class Segment {
+
+        final String literal;
+        final boolean recursive;
+        final Predicate<String> matcher;
+
+        private Segment(String literal, boolean recursive, Predicate<String> matcher) {
+            this.literal = literal;
+            this.recursive = recursive;
+            this.matcher = matcher;
+        }
+
+        static Segment compile(String segment) {
+            List<PartType> types = new ArrayList<>();
+            List<String> texts = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < segment.length(); i++) {
+                char c = segment.charAt(i);
+                switch (c) {
+                    case '\\' -> literal.append(i + 1 < segment.length() ? segment.charAt(++i) : '\\');
+                    case '*', '?' -> {
+                        addLiteral(literal, types, texts);
+                        PartType type = c == '*' ? PartType.STAR : PartType.ANY;
+                        // consecutive stars are one star
+                        if (type == PartType.ANY || types.isEmpty() || types.getLast() != PartType.STAR) {
+                            types.add(type);
+                            texts.add(null);
+                        }
+                    }
+                    case '[' -> {
+                        int close = classEnd(segment, i);
+                        if (close < 0) {
+                            literal.append(c); // no closing bracket, it's just a bracket
+                            continue;
+                        }
+                        addLiteral(literal, types, texts);
+                        types.add(PartType.CLASS);
+                        texts.add(regexClass(segment.substring(i + 1, close)));
+                        i = close;
+                    }
+                    default -> literal.append(c);
+                }
+            }
+            addLiteral(literal, types, texts);
+
+            if (types.isEmpty()) {
+                return new Segment("", false, null);
+            }
+            if (types.size() == 1 && types.getFirst() == PartType.LITERAL) {
+                return new Segment(texts.getFirst(), false, null);
+            }
+
+            // dot files only match when the segment starts with a dot itself
+            boolean matchesDotFiles = types.getFirst() == PartType.LITERAL && texts.getFirst().startsWith(".");
+            Predicate<String> matcher = matcher(types, texts);
+            return new Segment(null, segment.equals("**"), matchesDotFiles
+                    ? matcher
+                    : name -> name.charAt(0) != '.' && matcher.test(name));
+        }
+
+        private static void addLiteral(StringBuilder literal, List<PartType> types, List<String> texts) {
+            if (!literal.isEmpty()) {
+                types.add(PartType.LITERAL);
+                texts.add(literal.toString());
+                literal.setLength(0);
+            }
+        }
+
+        /**
+         * Plain string checks for the common shapes, a regex for anything else
+         */
+        private static Predicate<String> matcher(List<PartType> types, List<String> texts) {
+            String shape = types.stream().map(type -> type.name().substring(0, 1)).reduce("", String::concat);
+            return switch (shape) {
+                case "S" -> _ -> true;
+                case "SL" -> {
+                    String suffix = texts.get(1);
+                    yield name -> name.endsWith(suffix);
+                }
+                case "LS" -> {
+                    String prefix = texts.getFirst();
+                    yield name -> name.startsWith(prefix);
+                }
+                case "SLS" -> {
+                    String part = texts.get(1);
+                    yield name -> name.contains(part);
+                }
+                case "LSL" -> {
+                    String prefix = texts.getFirst(), suffix = texts.get(2);
+                    yield name -> name.length() >= prefix.length() + suffix.length()
+                            && name.startsWith(prefix) && name.endsWith(suffix);
+                }
+                default -> {
+                    StringBuilder regex = new StringBuilder();
+                    for (int i = 0; i < types.size(); i++) {
+                        regex.append(switch (types.get(i)) {
+                            case LITERAL -> Pattern.quote(texts.get(i));
+                            case STAR -> ".*";
+                            case ANY -> ".";
+                            case CLASS -> texts.get(i);
+                        });
+                    }
+                    Pattern pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+                    yield name -> pattern.matcher(name).matches();
+                }
+            };
+        }
+
+        /**
+         * Finds the bracket closing a class - a {@code ]} right after the opening one (or its negation) is part of it
+         * @return index of closing bracket, or -1 if there's none
+         */
+        private static int classEnd(String segment, int open) {
+            int i = open + 1;
+            if (i < segment.length() && (segment.charAt(i) == '!' || segment.charAt(i) == '^')) i++;
+            if (i < segment.length() && segment.charAt(i) == ']') i++;
+            while (i < segment.length() && segment.charAt(i) != ']') {
+                if (segment.charAt(i) == '\\') i++;
+                i++;
+            }
+            return i < segment.length() ? i : -1;
+        }
+
+        /**
+         * Turns the inside of a bracket expression into a regex class: {@code !} or {@code ^} negates it,
+         * ranges stay ranges, anything else is literal
+         */
+        private static String regexClass(String body) {
+            StringBuilder regex = new StringBuilder("[");
+            int i = 0;
+            if (!body.isEmpty() && (body.charAt(0) == '!' || body.charAt(0) == '^')) {
+                regex.append('^');
+                i++;
+            }
+            for (; i < body.length(); i++) {
+                char c = body.charAt(i);
+                if (c == '\\' && i + 1 < body.length()) c = body.charAt(++i);
+                else if (c == '-' && i > 0 && i < body.length() - 1) {
+                    regex.append('-');
+                    continue;
+                }
+                if ("\\[]&^-".indexOf(c) >= 0) regex.append('\\');
+                regex.append(c);
+            }
+            return regex.append(']').toString();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package shell;
+
+import environment.CodeCraftersShellEnvironment;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pathname expansion of parsed commands, done right before they run - parse results are cached, so expanding
+ * at parse time would keep matching the files that were there back then.
+ *
+ * Each word with a glob pattern is replaced by the paths it matches (sorted), relative to the shell's current
+ * directory, or kept as it is if nothing matches (like bash without nullglob). Compiled patterns are cached.
+ */
+final class GlobExpander {
+
+    private static final int COMPILED_CACHE_SIZE = 256;
+    private static final Map<String, Glob> COMPILED = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Glob> eldest) {
+            return size() > COMPILED_CACHE_SIZE;
+        }
+    };
+
+    private GlobExpander() {}
+
+    /**
+     * Expands the globs of a pipeline's commands
+     * @param pipelineCommands commands to expand
+     * @param shellEnvironment environment, for its current directory & directory listings
+     * @return expanded commands - the same list if no command has a glob
+     */
+    static List<PipelineCommand> expand(List<PipelineCommand> pipelineCommands, CodeCraftersShellEnvironment shellEnvironment) {
+        if (pipelineCommands.stream().allMatch(pipelineCommand -> pipelineCommand.getGlobs() == null)) {
+            return pipelineCommands;
+        }
+        return pipelineCommands.stream()
+                .map(pipelineCommand -> expand(pipelineCommand, shellEnvironment))
+                .toList();
+    }
+
+    private static PipelineCommand expand(PipelineCommand pipelineCommand, CodeCraftersShellEnvironment shellEnvironment) {
+        String[] globs = pipelineCommand.getGlobs();
+        if (globs == null) {
+            return pipelineCommand;
+        }
+
+        String[] words = pipelineCommand.getCommandAndArgs();
+        Path currentDirectory = shellEnvironment.getCurrentDirectory().toPath();
+        List<String> expanded = new ArrayList<>(words.length);
+        for (int i = 0; i < words.length; i++) {
+            List<String> matches = globs[i] == null
+                    ? List.of()
+                    : compile(globs[i]).expand(currentDirectory, shellEnvironment.getDirectoryListings());
+            if (matches.isEmpty()) expanded.add(words[i]);
+            else expanded.addAll(matches);
+        }
+
+        return new PipelineCommand(
+                expanded.getFirst(),
+                expanded.subList(1, expanded.size()).toArray(String[]::new),
+                pipelineCommand.getRedirections()
+        );
+    }
+
+    private static Glob compile(String pattern) {
+        synchronized (COMPILED) {
+            return COMPILED.computeIfAbsent(pattern, Glob::compile);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package shell;
+
+import environment.HistorySearchIndex;
+import environment.HistoryStore;
+import org.jline.reader.Buffer;
+import org.jline.reader.LineReader;
+import org.jline.reader.Widget;
+import org.jline.reader.impl.LineReaderImpl;
+
+/**
+ * Reverse incremental history search (Ctrl-R) backed by a {@link HistorySearchIndex}, replacing JLine's
+ * linear search.
+ *
+ * While searching, the buffer shows the search status followed by the current match. Typing refines the
+ * query, Ctrl-R jumps to the next older match, backspace shortens the query, enter runs the match and
+ * Ctrl-G cancels. Any other control key ends the search with the match in the buffer & is then handled as usual.
+ */
+public class HistorySearchWidget implements Widget {
+
+    public static final String NAME = "indexed-history-search-backward";
+
+    private static final int CTRL_G = 7;
+    private static final int CTRL_H = 8;
+    private static final int CTRL_R = 18;
+    private static final int DELETE = 127;
+
+    private final LineReader reader;
+    private final HistoryStore history;
+    private final HistorySearchIndex searchIndex;
+
+    public HistorySearchWidget(LineReader reader, HistoryStore history, HistorySearchIndex searchIndex) {
+        this.reader = reader;
+        this.history = history;
+        this.searchIndex = searchIndex;
+    }
+
+    @Override
+    public boolean apply() {
+        LineReaderImpl readerImpl = (LineReaderImpl) reader;
+        Buffer buffer = reader.getBuffer();
+        String original = buffer.toString();
+
+        StringBuilder query = new StringBuilder();
+        int matchIndex = -1;
+        boolean failing = false;
+
+        while (true) {
+            String match = matchIndex >= 0 ? history.get(matchIndex) : "";
+            show(buffer, query, match, failing);
+            readerImpl.redisplay();
+
+            int c = readerImpl.readCharacter();
+            if (c == -1 || c == CTRL_G) { // cancel, back to what was typed before
+                replace(buffer, original);
+                return true;
+            }
+
+            if (c == '\r' || c == '\n') {
+                replace(buffer, matchIndex >= 0 ? match : original);
+                reader.callWidget(LineReader.ACCEPT_LINE);
+                return true;
+            }
+
+            int searchBefore;
+            if (c == CTRL_R) { // next older match
+                searchBefore = matchIndex >= 0 ? matchIndex : history.endIndex();
+            } else if (c == DELETE || c == CTRL_H) { // shorter query, search again from newest line
+                if (query.isEmpty()) continue;
+                query.setLength(query.length() - 1);
+                searchBefore = history.endIndex();
+            } else if (c >= ' ') { // longer query, current match may still match
+                query.appendCodePoint(c);
+                searchBefore = matchIndex >= 0 ? matchIndex + 1 : history.endIndex();
+            } else { // other control key ends search & is handled as usual
+                replace(buffer, matchIndex >= 0 ? match : original);
+                reader.runMacro(String.valueOf((char) c));
+                return true;
+            }
+
+            if (query.isEmpty()) {
+                matchIndex = -1;
+                failing = false;
+                continue;
+            }
+            int found = searchIndex.searchBackward(query.toString(), searchBefore);
+            failing = found < 0;
+            if (failing) {
+                readerImpl.beep();
+            } else {
+                matchIndex = found;
+            }
+        }
+    }
+
+    private static void show(Buffer buffer, CharSequence query, String match, boolean failing) {
+        String status = (failing ? "(failing reverse-i-search)`" : "(reverse-i-search)`") + query + "': ";
+        replace(buffer, status + match);
+        buffer.cursor(status.length());
+    }
+
+    private static void replace(Buffer buffer, String text) {
+        buffer.clear();
+        buffer.write(text);
+    }
+}
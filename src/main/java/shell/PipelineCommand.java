@@ -1,14 +1,40 @@
 package shell;
 
+import java.util.List;
+
+/**
+ * A single command of a parsed line, with its arguments and redirections.
+ *
+ * Instances are shared by cached parse results, so the returned arrays must not be modified.
+ */
 public class PipelineCommand {
 
     private final String command;
     private final String[] args;
     private final String[] commandAndArgs;
+    private final String[] globs;
+    private final List<Redirection> redirections;
 
     public PipelineCommand(String command, String[] args) {
+        this(command, args, List.of());
+    }
+
+    public PipelineCommand(String command, String[] args, List<Redirection> redirections) {
+        this(command, args, redirections, null);
+    }
+
+    /**
+     * Creates command
+     * @param command command name
+     * @param args arguments of command
+     * @param redirections redirections of command, in order
+     * @param globs glob patterns of command & each argument (null for words without one), or null if there are none
+     */
+    public PipelineCommand(String command, String[] args, List<Redirection> redirections, String[] globs) {
         this.command = command;
         this.args = args;
+        this.redirections = List.copyOf(redirections);
+        this.globs = globs;
 
         commandAndArgs = new String[args.length + 1];
         commandAndArgs[0] = command;
@@ -26,4 +52,16 @@ public class PipelineCommand {
     public String[] getCommandAndArgs() {
         return commandAndArgs;
     }
+
+    /**
+     * Gets glob patterns of command name & arguments, for pathname expansion
+     * @return pattern for each of {@link #getCommandAndArgs()} (null for words without one), or null if no word has one
+     */
+    public String[] getGlobs() {
+        return globs;
+    }
+
+    public List<Redirection> getRedirections() {
+        return redirections;
+    }
 }
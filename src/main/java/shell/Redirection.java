@@ -0,0 +1,59 @@
+package shell;
+
+/**
+ * Redirection of one of a command's file descriptors, e.g. {@code 2>> errors.log}, {@code < input.txt} or {@code 2>&1}
+ */
+public final class Redirection {
+
+    public enum Type { INPUT, OUTPUT, APPEND, DUPLICATE }
+
+    private final int fd;
+    private final Type type;
+    private final String target;
+    private final int targetFd;
+
+    public Redirection(int fd, Type type, String target) {
+        this(fd, type, target, -1);
+    }
+
+    private Redirection(int fd, Type type, String target, int targetFd) {
+        this.fd = fd;
+        this.type = type;
+        this.target = target;
+        this.targetFd = targetFd;
+    }
+
+    /**
+     * Creates a redirection making a file descriptor a copy of another, e.g. {@code 2>&1}
+     * @param fd file descriptor to redirect
+     * @param targetFd file descriptor to copy
+     * @return redirection
+     */
+    public static Redirection duplicate(int fd, int targetFd) {
+        return new Redirection(fd, Type.DUPLICATE, null, targetFd);
+    }
+
+    public int getFd() {
+        return fd;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets file the descriptor is redirected to
+     * @return file name, or null for duplications
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets file descriptor copied by a duplication
+     * @return file descriptor, or -1 if not a duplication
+     */
+    public int getTargetFd() {
+        return targetFd;
+    }
+}
@@ -0,0 +1,97 @@
+package shell;
+
+import command.CommandStreams;
+import command.StreamTarget;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies a command's redirections, in order, to its standard streams.
+ */
+public final class Redirections {
+
+    private Redirections() {}
+
+    /**
+     * Opens the files of a command's redirections & works out where each standard stream ends up.
+     * Redirections apply left to right, so {@code > out 2>&1} sends both to out while {@code 2>&1 > out} only stdout.
+     * Files for descriptors other than 0, 1 and 2 are still opened (so created), but aren't passed on.
+     * @param redirections redirections of the command
+     * @param currentDirectory directory relative file names are resolved against
+     * @return streams of command, to be closed once it's done
+     * @throws IOException with a message ready to show the user, if a file can't be opened or a descriptor is bad
+     */
+    public static CommandStreams open(List<Redirection> redirections, File currentDirectory) throws IOException {
+        if (redirections.isEmpty()) {
+            return CommandStreams.DEFAULT;
+        }
+
+        StreamTarget[] targets = { StreamTarget.INPUT, StreamTarget.OUTPUT, StreamTarget.ERROR };
+        List<StreamTarget> openedTargets = new ArrayList<>(redirections.size());
+        try {
+            for (Redirection redirection : redirections) {
+                int fd = redirection.getFd();
+                StreamTarget target = switch (redirection.getType()) {
+                    case INPUT -> {
+                        if (fd == 1 || fd == 2) throw badFileDescriptor(fd);
+                        yield openFile(redirection, currentDirectory, openedTargets);
+                    }
+                    case OUTPUT, APPEND -> {
+                        if (fd == 0) throw badFileDescriptor(fd);
+                        yield openFile(redirection, currentDirectory, openedTargets);
+                    }
+                    case DUPLICATE -> {
+                        // only stdout & stderr can be copied into one another
+                        int targetFd = redirection.getTargetFd();
+                        if (targetFd != 1 && targetFd != 2) throw badFileDescriptor(targetFd);
+                        if (fd == 0) throw badFileDescriptor(fd);
+                        yield targets[targetFd];
+                    }
+                };
+                if (fd <= 2) {
+                    targets[fd] = target;
+                }
+            }
+        } catch (IOException e) {
+            new CommandStreams(StreamTarget.INPUT, StreamTarget.OUTPUT, StreamTarget.ERROR, openedTargets).close();
+            throw e;
+        }
+
+        return new CommandStreams(targets[0], targets[1], targets[2], openedTargets);
+    }
+
+    private static StreamTarget openFile(Redirection redirection,
+                                         File currentDirectory,
+                                         List<StreamTarget> openedTargets) throws IOException {
+        // if not absolute, must pass on current dir
+        Path file = Path.of(redirection.getTarget());
+        if (!file.isAbsolute()) {
+            file = currentDirectory.toPath().resolve(file);
+        }
+
+        try {
+            StreamTarget target = redirection.getType() == Redirection.Type.INPUT
+                    ? StreamTarget.openForReading(file)
+                    : StreamTarget.openForWriting(file, redirection.getType() == Redirection.Type.APPEND);
+            openedTargets.add(target);
+            return target;
+        } catch (NoSuchFileException e) {
+            throw new IOException(redirection.getTarget() + ": No such file or directory", e);
+        } catch (AccessDeniedException e) {
+            throw new IOException(redirection.getTarget() + ": Permission denied", e);
+        } catch (FileSystemException e) {
+            throw new IOException(redirection.getTarget() + ": " + (e.getReason() != null ? e.getReason() : e.getMessage()), e);
+        }
+    }
+
+    private static IOException badFileDescriptor(int fd) {
+        return new IOException(fd + ": Bad file descriptor");
+    }
+}
@@ -21,4 +21,11 @@ set -e # Exit early if any commands fail
 #
 # - Edit this to change how your program runs locally
 # - Edit .codecrafters/run.sh to change how your program runs remotely
-exec java --enable-native-access=ALL-UNNAMED --enable-preview -jar /tmp/codecrafters-build-shell-java/codecrafters-shell.jar "$@"
+#
+# - An AppCDS archive (built with mvn -Pappcds) is only used if it's newer than the jar it was made from
+JAR=/tmp/codecrafters-build-shell-java/codecrafters-shell.jar
+JSA=/tmp/codecrafters-build-shell-java/codecrafters-shell.jsa
+if [ "$JSA" -nt "$JAR" ]; then
+  exec java -XX:SharedArchiveFile="$JSA" --enable-native-access=ALL-UNNAMED --enable-preview -jar "$JAR" "$@"
+fi
+exec java --enable-native-access=ALL-UNNAMED --enable-preview -jar "$JAR" "$@"